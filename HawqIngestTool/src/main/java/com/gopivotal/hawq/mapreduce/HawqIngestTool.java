@@ -4,6 +4,7 @@ import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
@@ -16,7 +17,10 @@ import org.apache.hadoop.mapreduce.lib.map.InverseMapper;
 import org.apache.hadoop.util.ToolRunner;
 
 import com.gopivotal.mapreduce.lib.driver.AbstractMapReduceDriver;
+import com.gopivotal.mapreduce.lib.output.HawqCopyEncoder.Format;
 import com.gopivotal.mapreduce.lib.output.HawqOutputFormat;
+import com.gopivotal.mapreduce.lib.output.HawqOutputFormat.Mode;
+import com.gopivotal.mapreduce.util.HawqColumn;
 import com.gopivotal.mapreduce.util.HawqUtil;
 
 public class HawqIngestTool extends AbstractMapReduceDriver {
@@ -30,6 +34,15 @@ public class HawqIngestTool extends AbstractMapReduceDriver {
 	private static final char USER_OPT = 'u';
 	private static final char PASSWORD_OPT = 's';
 	private static final String DELIMITER_OPT = "delimiter";
+	private static final String MODE_OPT = "mode";
+	private static final String COPY_FORMAT_OPT = "copy-format";
+	private static final String CONNECTIONS_OPT = "connections";
+	private static final String PARTITION_COLUMN_OPT = "partition-column";
+	private static final String REJECT_LIMIT_OPT = "reject-limit";
+	private static final String REJECT_DIR_OPT = "reject-dir";
+	private static final String STAGING_OPT = "staging";
+	private static final String COLUMNS_OPT = "columns";
+	private static final String FIELDS_OPT = "fields";
 
 	@Override
 	protected void preJobLaunch(CommandLine cmd, Job job) throws Exception {
@@ -44,8 +57,26 @@ public class HawqIngestTool extends AbstractMapReduceDriver {
 		// Create the connect string and SQL statement
 		String url = "jdbc:postgresql://" + host + ":" + port + "/" + database;
 
-		HawqOutputFormat.setColumnTypes(job,
-				HawqUtil.getColumnDefs(url, table, user, password));
+		HawqColumn[] columns = HawqUtil.getColumns(url, table, user, password);
+
+		// Write only the given columns, in the given order
+		if (cmd.hasOption(COLUMNS_OPT)) {
+			String[] names = cmd.getOptionValue(COLUMNS_OPT).split(",");
+			columns = selectColumns(columns, names);
+			HawqOutputFormat.setColumnNames(job, names);
+		}
+
+		HawqOutputFormat.setColumns(job, columns);
+
+		if (cmd.hasOption(FIELDS_OPT)) {
+			String[] fields = cmd.getOptionValue(FIELDS_OPT).split(",");
+			int[] indexes = new int[fields.length];
+			for (int i = 0; i < fields.length; ++i) {
+				indexes[i] = Integer.parseInt(fields[i].trim());
+			}
+
+			HawqOutputFormat.setInputFields(job, indexes);
+		}
 		HawqOutputFormat.setDatabase(job, database);
 		HawqOutputFormat.setDelimiter(job,
 				cmd.getOptionValue(DELIMITER_OPT, "\\|"));
@@ -55,6 +86,48 @@ public class HawqIngestTool extends AbstractMapReduceDriver {
 
 		HawqOutputFormat.setUser(job, user);
 		HawqOutputFormat.setPassword(job, password);
+
+		HawqOutputFormat.setMode(job, Mode.valueOf(cmd.getOptionValue(
+				MODE_OPT, Mode.INSERT.name()).toUpperCase()));
+		HawqOutputFormat.setCopyFormat(job, Format.valueOf(cmd.getOptionValue(
+				COPY_FORMAT_OPT, Format.TEXT.name()).toUpperCase()));
+
+		HawqOutputFormat.setConnections(job,
+				Integer.parseInt(cmd.getOptionValue(CONNECTIONS_OPT, "1")));
+		HawqOutputFormat.setPartitionColumn(job, Integer.parseInt(cmd
+				.getOptionValue(PARTITION_COLUMN_OPT, "-1")));
+
+		HawqOutputFormat.setRejectLimit(job,
+				Integer.parseInt(cmd.getOptionValue(REJECT_LIMIT_OPT, "-1")));
+		if (cmd.hasOption(REJECT_DIR_OPT)) {
+			HawqOutputFormat.setRejectDir(job,
+					new Path(cmd.getOptionValue(REJECT_DIR_OPT)));
+		}
+
+		HawqOutputFormat.setStaging(job, cmd.hasOption(STAGING_OPT));
+	}
+
+	private HawqColumn[] selectColumns(HawqColumn[] columns, String[] names) {
+		if (columns == null) {
+			return null;
+		}
+
+		HawqColumn[] selected = new HawqColumn[names.length];
+		for (int i = 0; i < names.length; ++i) {
+			names[i] = names[i].trim();
+			for (HawqColumn column : columns) {
+				if (column.getName().equalsIgnoreCase(names[i])) {
+					selected[i] = column;
+				}
+			}
+
+			if (selected[i] == null) {
+				throw new IllegalArgumentException("Column " + names[i]
+						+ " is not in the table");
+			}
+		}
+
+		return selected;
 	}
 
 	@SuppressWarnings("rawtypes")
@@ -114,6 +187,50 @@ public class HawqIngestTool extends AbstractMapReduceDriver {
 				.withDescription(
 						"Delimiter of the rows of data.  Default is pipe - |")
 				.hasArg().withLongOpt(DELIMITER_OPT).create());
+
+		opts.addOption(OptionBuilder
+				.withDescription(
+						"How rows are written, insert or copy.  Default is insert")
+				.hasArg().withLongOpt(MODE_OPT).create());
+
+		opts.addOption(OptionBuilder
+				.withDescription(
+						"Format of rows in copy mode, text or csv.  Default is text")
+				.hasArg().withLongOpt(COPY_FORMAT_OPT).create());
+
+		opts.addOption(OptionBuilder
+				.withDescription(
+						"Connections each task inserts over.  Default is 1")
+				.hasArg().withLongOpt(CONNECTIONS_OPT).create());
+
+		opts.addOption(OptionBuilder
+				.withDescription(
+						"Zero-based column that picks the connection for a row.  Default is round-robin")
+				.hasArg().withLongOpt(PARTITION_COLUMN_OPT).create());
+
+		opts.addOption(OptionBuilder
+				.withDescription(
+						"Bad rows each task may reject before failing.  Default is -1, no rejects")
+				.hasArg().withLongOpt(REJECT_LIMIT_OPT).create());
+
+		opts.addOption(OptionBuilder
+				.withDescription("Directory to write rejected rows to")
+				.hasArg().withLongOpt(REJECT_DIR_OPT).create());
+
+		opts.addOption(OptionBuilder
+				.withDescription(
+						"Write through staging tables so rows are committed exactly once")
+				.withLongOpt(STAGING_OPT).create());
+
+		opts.addOption(OptionBuilder
+				.withDescription(
+						"Comma-separated columns to write.  Default is every column")
+				.hasArg().withLongOpt(COLUMNS_OPT).create());
+
+		opts.addOption(OptionBuilder
+				.withDescription(
+						"Comma-separated zero-based field of each column in the rows.  Default is the columns in order")
+				.hasArg().withLongOpt(FIELDS_OPT).create());
 		return opts;
 	}
 
@@ -0,0 +1,117 @@
+package com.gopivotal.io;
+
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * A handle to a whole file, used in place of the file's bytes. The file is not
+ * opened until {@link #open()} is called, and the returned stream is seekable,
+ * so a file of any size can be processed in constant memory.<br>
+ * <br>
+ * The handle owns the stream it opens. The stream is closed when the handle is
+ * closed or set to another file, which the record readers do before moving to
+ * the next file. The serialized form is the path and length only.
+ */
+public class FileHandleWritable implements Writable, Closeable {
+
+	private Path path = null;
+	private long length = 0;
+	private Configuration conf = null;
+	private FSDataInputStream strm = null;
+
+	/**
+	 * Points this handle at the given file, closing any stream that is open
+	 *
+	 * @param path
+	 *            The fully qualified path of the file
+	 * @param length
+	 *            The length of the file
+	 * @param conf
+	 *            The configuration used to open the file
+	 * @throws IOException
+	 */
+	public void set(Path path, long length, Configuration conf)
+			throws IOException {
+		close();
+		this.path = path;
+		this.length = length;
+		this.conf = conf;
+	}
+
+	/**
+	 * Gets the path of the file
+	 *
+	 * @return The path
+	 */
+	public Path getPath() {
+		return path;
+	}
+
+	/**
+	 * Gets the length of the file
+	 *
+	 * @return The length, in bytes
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * Opens the file, or returns the stream that is already open. The stream
+	 * is positioned wherever the last caller left it.
+	 *
+	 * @return A stream of the file's bytes
+	 * @throws IOException
+	 *             If the file could not be opened
+	 */
+	public FSDataInputStream open() throws IOException {
+		if (path == null) {
+			throw new IOException("Handle is not set to a file");
+		}
+
+		if (strm == null) {
+			if (conf == null) {
+				conf = new Configuration();
+			}
+
+			strm = path.getFileSystem(conf).open(path);
+		}
+
+		return strm;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (strm != null) {
+			strm.close();
+			strm = null;
+		}
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		Text.writeString(out, path.toString());
+		WritableUtils.writeVLong(out, length);
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		close();
+		path = new Path(Text.readString(in));
+		length = WritableUtils.readVLong(in);
+	}
+
+	@Override
+	public String toString() {
+		return String.valueOf(path);
+	}
+}
@@ -0,0 +1,192 @@
+package com.gopivotal.io;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+/**
+ * The JsonFieldProjector extracts a fixed list of fields from JSON records
+ * using a streaming parser. Paths are dot-separated object keys, such as
+ * <code>user.id</code>, and are compiled once into a tree. Any field that is
+ * not on a requested path is skipped without being materialized, and parsing
+ * stops as soon as every requested field has been found.<br>
+ * <br>
+ * A path may not be a prefix of another path. This class is not thread-safe.
+ */
+public class JsonFieldProjector {
+
+	private JsonFactory factory = new JsonFactory();
+	private DataOutputBuffer structure = new DataOutputBuffer();
+	private Node root = new Node();
+	private int numFields = 0;
+
+	public JsonFieldProjector(String... paths) {
+		if (paths == null || paths.length == 0) {
+			throw new IllegalArgumentException("Paths are null or empty");
+		}
+
+		factory.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+
+		numFields = paths.length;
+		for (int i = 0; i < paths.length; ++i) {
+			root.add(paths[i], paths[i].split("\\."), 0, i);
+		}
+	}
+
+	/**
+	 * Gets the number of projected fields
+	 * 
+	 * @return The number of fields
+	 */
+	public int getNumFields() {
+		return numFields;
+	}
+
+	/**
+	 * Projects the fields of the given record into the tuple
+	 * 
+	 * @param record
+	 *            The JSON record
+	 * @param tuple
+	 *            The tuple to populate, in path order
+	 * @return True if the record was projected, false if it is not a JSON
+	 *         object or is malformed
+	 */
+	public boolean project(Text record, JsonTupleWritable tuple) {
+		return project(record.getBytes(), 0, record.getLength(), tuple);
+	}
+
+	/**
+	 * Projects the fields of the given range of UTF-8 bytes into the tuple
+	 * 
+	 * @param bytes
+	 *            The bytes of the JSON record
+	 * @param offset
+	 *            The offset of the record in the array
+	 * @param length
+	 *            The length of the record
+	 * @param tuple
+	 *            The tuple to populate, in path order
+	 * @return True if the record was projected, false if it is not a JSON
+	 *         object or is malformed
+	 */
+	public boolean project(byte[] bytes, int offset, int length,
+			JsonTupleWritable tuple) {
+		tuple.clear(numFields);
+
+		JsonParser parser = null;
+		try {
+			parser = factory.createJsonParser(bytes, offset, length);
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				return false;
+			}
+
+			readObject(parser, root, tuple, 0);
+			return true;
+		} catch (IOException e) {
+			return false;
+		} finally {
+			if (parser != null) {
+				try {
+					parser.close();
+				} catch (IOException e) {
+					// nothing to do here
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the fields of the object the parser is positioned in, descending
+	 * into requested children and skipping everything else.
+	 * 
+	 * @return The running count of fields found
+	 */
+	private int readObject(JsonParser parser, Node node,
+			JsonTupleWritable tuple, int found) throws IOException {
+
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			Node child = node.children.get(parser.getCurrentName());
+			JsonToken token = parser.nextToken();
+
+			if (child == null) {
+				parser.skipChildren();
+			} else if (child.index >= 0) {
+				capture(parser, token, tuple, child.index);
+				if (++found == numFields) {
+					return found;
+				}
+			} else if (token == JsonToken.START_OBJECT) {
+				found = readObject(parser, child, tuple, found);
+				if (found == numFields) {
+					return found;
+				}
+			} else {
+				parser.skipChildren();
+			}
+		}
+
+		return found;
+	}
+
+	private void capture(JsonParser parser, JsonToken token,
+			JsonTupleWritable tuple, int idx) throws IOException {
+		switch (token) {
+		case VALUE_NULL:
+			tuple.setNull(idx);
+			break;
+		case START_OBJECT:
+		case START_ARRAY:
+			structure.reset();
+			JsonGenerator gen = factory.createJsonGenerator(structure,
+					JsonEncoding.UTF8);
+			gen.copyCurrentStructure(parser);
+			gen.close();
+			tuple.set(idx, structure.getData(), 0, structure.getLength());
+			break;
+		default:
+			tuple.set(idx, parser.getText());
+			break;
+		}
+	}
+
+	/**
+	 * A node in the compiled path tree. Leaf nodes hold the index of their
+	 * field in the tuple, and all other nodes hold an index of -1.
+	 */
+	private static class Node {
+		private Map<String, Node> children = new HashMap<String, Node>();
+		private int index = -1;
+
+		private void add(String path, String[] keys, int depth, int idx) {
+			if (index >= 0) {
+				throw new IllegalArgumentException("Path " + path
+						+ " overlaps with another path");
+			}
+
+			Node child = children.get(keys[depth]);
+			if (child == null) {
+				child = new Node();
+				children.put(keys[depth], child);
+			}
+
+			if (depth == keys.length - 1) {
+				if (child.index >= 0 || !child.children.isEmpty()) {
+					throw new IllegalArgumentException("Path " + path
+							+ " overlaps with another path");
+				}
+				child.index = idx;
+			} else {
+				child.add(path, keys, depth + 1, idx);
+			}
+		}
+	}
+}
@@ -0,0 +1,317 @@
+package com.gopivotal.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+import org.apache.hadoop.io.Text;
+
+/**
+ * The JsonRecordScanner is a byte-oriented replacement for the
+ * {@link JsonStreamReader}. It reads blocks of bytes directly from the
+ * underlying stream into an internal buffer, locates the record 'identifier'
+ * using a precomputed Knuth-Morris-Pratt table, and appends the bytes of each
+ * record straight into a reusable {@link Text} object without decoding them to
+ * a String.<br>
+ * <br>
+ * A record is the JSON object that follows the identifier, from its opening
+ * brace to the matching closing brace. Braces inside quoted strings, including
+ * escaped quotes, do not count towards the record boundary. Because every byte
+ * of a multi-byte UTF-8 character is above 0x7F, the scanner never mistakes
+ * one for a structural character and needs no decoding. A record that is
+ * truncated by the end of the stream is discarded.<br>
+ * <br>
+ * A record belongs to the position of the first byte of its identifier. Given
+ * a limit, the scanner will complete a record whose identifier starts before
+ * the limit, however far past the limit the record runs, and will not return
+ * any record whose identifier starts at or after it. This lets a reader that
+ * starts at a split boundary skip the partial record in front of it, and
+ * lets a reader stop at the end of its split.<br>
+ * <br>
+ * The identifier is matched as plain bytes, anywhere in the stream. Within a
+ * record, nested occurrences are consumed with the record. A scan that starts
+ * inside a record, however, cannot tell a nested occurrence, or a string value
+ * equal to the identifier, from the root of the next record, so the
+ * identifier should only appear at the root of records.
+ */
+public class JsonRecordScanner implements Closeable {
+
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	// Byte classes used by the record state machine
+	private static final byte OTHER = 0, QUOTE = 1, ESCAPE = 2, OPEN = 3,
+			CLOSE = 4;
+	private static final byte[] CLASSES = new byte[256];
+
+	static {
+		CLASSES['"'] = QUOTE;
+		CLASSES['\\'] = ESCAPE;
+		CLASSES['{'] = OPEN;
+		CLASSES['}'] = CLOSE;
+	}
+
+	private InputStream strm = null;
+	private byte[] identifier = null;
+	private int[] failure = null;
+	private byte[] buffer = null;
+	private int bufferLength = 0, bufferPosn = 0;
+	private long bufferStart = 0;
+
+	public JsonRecordScanner(String identifier, InputStream strm) {
+		this(identifier, strm, DEFAULT_BUFFER_SIZE);
+	}
+
+	public JsonRecordScanner(String identifier, InputStream strm,
+			int bufferSize) {
+
+		if (identifier == null || identifier.isEmpty()) {
+			throw new IllegalArgumentException("Identifier is null or empty");
+		}
+
+		this.strm = strm;
+		this.identifier = identifier.getBytes(UTF8);
+		this.failure = buildFailureTable(this.identifier);
+		this.buffer = new byte[bufferSize];
+	}
+
+	/**
+	 * Advances the input stream to the next JSON record, setting the bytes of
+	 * the record into the given Text object.
+	 * 
+	 * @param record
+	 *            The Text object to populate. Its backing array is re-used.
+	 * @return True if a record was read, false if the end of the stream was
+	 *         reached
+	 * @throws IOException
+	 *             If an error occurs reading from the stream
+	 */
+	public boolean next(Text record) throws IOException {
+		return next(record, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Advances the input stream to the next JSON record whose identifier
+	 * starts before the given limit, setting the bytes of the record into the
+	 * given Text object.
+	 * 
+	 * @param record
+	 *            The Text object to populate. Its backing array is re-used.
+	 * @param limit
+	 *            The number of bytes from the start of the stream at or after
+	 *            which a record's identifier must not start
+	 * @return True if a record was read, false if the end of the stream or the
+	 *         limit was reached
+	 * @throws IOException
+	 *             If an error occurs reading from the stream
+	 */
+	public boolean next(Text record, long limit) throws IOException {
+		record.clear();
+		return findIdentifier(limit) && forwardToBrace() && readRecord(record);
+	}
+
+	/**
+	 * Gets the number of bytes consumed by the scanner
+	 * 
+	 * @return The number of bytes read
+	 */
+	public long getBytesRead() {
+		return bufferStart + bufferPosn;
+	}
+
+	/**
+	 * Points this scanner at a new stream, re-using its buffer and identifier
+	 * table. The byte count starts again from zero. The previous stream is
+	 * not closed.
+	 * 
+	 * @param strm
+	 *            The stream to read from
+	 */
+	public void reset(InputStream strm) {
+		this.strm = strm;
+		bufferStart = 0;
+		bufferLength = 0;
+		bufferPosn = 0;
+	}
+
+	/**
+	 * Closes the underlying stream. Closing a scanner more than once has no
+	 * effect.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (strm != null) {
+			strm.close();
+			strm = null;
+		}
+	}
+
+	/**
+	 * Consumes bytes up to and including the next occurrence of the
+	 * identifier. Scanning stops early once no match could start before the
+	 * limit, so at most one buffer past the limit is read.
+	 * 
+	 * @param limit
+	 *            The position at or after which a match is rejected
+	 * @return True if the identifier was found before the limit, false
+	 *         otherwise
+	 * @throws IOException
+	 */
+	private boolean findIdentifier(long limit) throws IOException {
+		final byte[] id = identifier;
+		final int[] fail = failure;
+		int matched = 0;
+
+		while (bufferPosn < bufferLength || fill()) {
+			final byte[] buf = buffer;
+			final int len = bufferLength;
+			int i = bufferPosn;
+
+			while (i < len) {
+				byte b = buf[i++];
+				while (matched > 0 && b != id[matched]) {
+					matched = fail[matched - 1];
+				}
+
+				if (b == id[matched] && ++matched == id.length) {
+					bufferPosn = i;
+					return bufferStart + i - id.length < limit;
+				}
+			}
+
+			bufferPosn = i;
+
+			// a partial match at the end of the buffer must start before the
+			// limit for it to be worth reading any further
+			if (bufferStart + len - matched >= limit) {
+				return false;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Consumes bytes up to, but not including, the next opening brace.
+	 * 
+	 * @return True if a brace was found, false on end of stream
+	 * @throws IOException
+	 */
+	private boolean forwardToBrace() throws IOException {
+		while (bufferPosn < bufferLength || fill()) {
+			for (int i = bufferPosn; i < bufferLength; ++i) {
+				if (buffer[i] == '{') {
+					bufferPosn = i;
+					return true;
+				}
+			}
+
+			bufferPosn = bufferLength;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Appends bytes to the record until the opening brace is balanced,
+	 * refilling the buffer as needed. String and escape state is carried
+	 * across refills so a record may span any number of buffers.
+	 * 
+	 * @param record
+	 *            The record to append to
+	 * @return True if the record was completed, false on end of stream
+	 * @throws IOException
+	 */
+	private boolean readRecord(Text record) throws IOException {
+		final byte[] classes = CLASSES;
+		int depth = 0, skip = 0;
+		boolean inString = false;
+
+		while (bufferPosn < bufferLength || fill()) {
+			final byte[] buf = buffer;
+			final int len = bufferLength;
+			final int start = bufferPosn;
+
+			int i = start + skip;
+			for (; i < len; ++i) {
+				byte cls = classes[buf[i] & 0xFF];
+				if (cls == OTHER) {
+					continue;
+				}
+
+				if (inString) {
+					if (cls == QUOTE) {
+						inString = false;
+					} else if (cls == ESCAPE) {
+						// escaped characters are always a single ASCII byte
+						++i;
+					}
+				} else if (cls == QUOTE) {
+					inString = true;
+				} else if (cls == OPEN) {
+					++depth;
+				} else if (cls == CLOSE && --depth == 0) {
+					record.append(buf, start, i + 1 - start);
+					bufferPosn = i + 1;
+					return true;
+				}
+			}
+
+			// an escape as the last byte skips the first byte of the next read
+			skip = i - len;
+
+			record.append(buf, start, len - start);
+			bufferPosn = len;
+		}
+
+		record.clear();
+		return false;
+	}
+
+	/**
+	 * Reads the next block of bytes from the stream into the buffer.
+	 * 
+	 * @return True if any bytes were read, false on end of stream
+	 * @throws IOException
+	 */
+	private boolean fill() throws IOException {
+		bufferStart += bufferLength;
+		bufferPosn = 0;
+		bufferLength = strm.read(buffer, 0, buffer.length);
+
+		if (bufferLength <= 0) {
+			bufferLength = 0;
+			return false;
+		} else {
+			return true;
+		}
+	}
+
+	/**
+	 * Builds the KMP failure table for the given pattern. Entry <i>i</i> is the
+	 * length of the longest proper prefix of <code>pattern[0..i]</code> that
+	 * is also a suffix of it.
+	 * 
+	 * @param pattern
+	 *            The pattern to match
+	 * @return The failure table
+	 */
+	private static int[] buildFailureTable(byte[] pattern) {
+		int[] table = new int[pattern.length];
+		int k = 0;
+		for (int i = 1; i < pattern.length; ++i) {
+			while (k > 0 && pattern[i] != pattern[k]) {
+				k = table[k - 1];
+			}
+
+			if (pattern[i] == pattern[k]) {
+				++k;
+			}
+
+			table[i] = k;
+		}
+		return table;
+	}
+}
@@ -0,0 +1,129 @@
+package com.gopivotal.io;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.map.ObjectMapper;
+
+/**
+ * The JsonRecordValidator checks that a record is well-formed JSON. It is not
+ * thread-safe and holds no shared state, so each record reader creates its own
+ * and no lock is taken per record. The record bytes are parsed in place and
+ * never decoded to a String.
+ */
+public class JsonRecordValidator {
+
+	/**
+	 * How much work is done to validate a record
+	 */
+	public static enum Mode {
+		/** Every record is accepted without being parsed */
+		NONE,
+		/** Every token is parsed, but no tree is built */
+		STREAMING,
+		/** The record is parsed into a full JsonNode tree */
+		FULL
+	}
+
+	private Mode mode = null;
+	private JsonFactory factory = new JsonFactory();
+	private ObjectMapper mapper = null;
+
+	public JsonRecordValidator(Mode mode) {
+		this.mode = mode;
+
+		if (mode == Mode.FULL) {
+			mapper = new ObjectMapper(factory);
+		}
+	}
+
+	/**
+	 * Gets the validation mode
+	 * 
+	 * @return The mode
+	 */
+	public Mode getMode() {
+		return mode;
+	}
+
+	/**
+	 * Validates the bytes of the given record
+	 * 
+	 * @param record
+	 *            The record to validate
+	 * @return True if the record is valid JSON or the mode is NONE, false
+	 *         otherwise
+	 */
+	public boolean isValid(Text record) {
+		return isValid(record.getBytes(), 0, record.getLength());
+	}
+
+	/**
+	 * Validates the given range of UTF-8 bytes
+	 * 
+	 * @param bytes
+	 *            The bytes to validate
+	 * @param offset
+	 *            The offset of the record in the array
+	 * @param length
+	 *            The length of the record
+	 * @return True if the bytes are valid JSON or the mode is NONE, false
+	 *         otherwise
+	 */
+	public boolean isValid(byte[] bytes, int offset, int length) {
+		switch (mode) {
+		case NONE:
+			return true;
+		case STREAMING:
+			return isValidStreaming(bytes, offset, length);
+		case FULL:
+			return isValidTree(bytes, offset, length);
+		default:
+			throw new IllegalStateException("Unknown mode " + mode);
+		}
+	}
+
+	private boolean isValidStreaming(byte[] bytes, int offset, int length) {
+		JsonParser parser = null;
+		try {
+			parser = factory.createJsonParser(bytes, offset, length);
+
+			if (parser.nextToken() == null) {
+				return false;
+			}
+
+			while (parser.nextToken() != null) {
+			}
+
+			return true;
+		} catch (IOException e) {
+			return false;
+		} finally {
+			closeQuietly(parser);
+		}
+	}
+
+	private boolean isValidTree(byte[] bytes, int offset, int length) {
+		JsonParser parser = null;
+		try {
+			parser = factory.createJsonParser(bytes, offset, length);
+			return mapper.readTree(parser) != null;
+		} catch (IOException e) {
+			return false;
+		} finally {
+			closeQuietly(parser);
+		}
+	}
+
+	private static void closeQuietly(JsonParser parser) {
+		if (parser != null) {
+			try {
+				parser.close();
+			} catch (IOException e) {
+				// nothing to do here
+			}
+		}
+	}
+}
@@ -0,0 +1,228 @@
+package com.gopivotal.io;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * A compact, reusable tuple of JSON field values. Each field is held as the
+ * UTF-8 text of its value, or null if the field was missing or JSON null.
+ * Object and array values are held as their JSON text. All fields share one
+ * backing array, which is grown as needed and never shrunk, so a single
+ * instance can be re-used for every record.<br>
+ * <br>
+ * The serialized form is the number of fields followed by each field's length
+ * and bytes, with a length of -1 for null.
+ */
+public class JsonTupleWritable implements Writable {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private byte[] data = new byte[64];
+	private int dataLength = 0;
+	private int[] offsets = new int[0];
+	private int[] lengths = new int[0];
+	private int size = 0;
+
+	/**
+	 * Resets this tuple to the given number of fields, all null
+	 * 
+	 * @param size
+	 *            The number of fields
+	 */
+	public void clear(int size) {
+		if (offsets.length < size) {
+			offsets = new int[size];
+			lengths = new int[size];
+		}
+
+		Arrays.fill(lengths, 0, size, -1);
+		this.size = size;
+		this.dataLength = 0;
+	}
+
+	/**
+	 * Gets the number of fields in this tuple
+	 * 
+	 * @return The number of fields
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Sets the value of a field to the given bytes
+	 * 
+	 * @param idx
+	 *            The field index
+	 * @param bytes
+	 *            The UTF-8 bytes of the value
+	 * @param offset
+	 *            The offset of the value in the array
+	 * @param length
+	 *            The length of the value
+	 */
+	public void set(int idx, byte[] bytes, int offset, int length) {
+		checkIndex(idx);
+		ensureCapacity(dataLength + length);
+		System.arraycopy(bytes, offset, data, dataLength, length);
+		offsets[idx] = dataLength;
+		lengths[idx] = length;
+		dataLength += length;
+	}
+
+	/**
+	 * Sets the value of a field to the given string
+	 * 
+	 * @param idx
+	 *            The field index
+	 * @param value
+	 *            The value, or null
+	 */
+	public void set(int idx, String value) {
+		if (value == null) {
+			setNull(idx);
+		} else {
+			byte[] bytes = value.getBytes(UTF8);
+			set(idx, bytes, 0, bytes.length);
+		}
+	}
+
+	/**
+	 * Sets the value of a field to null
+	 * 
+	 * @param idx
+	 *            The field index
+	 */
+	public void setNull(int idx) {
+		checkIndex(idx);
+		lengths[idx] = -1;
+	}
+
+	/**
+	 * Gets if the given field is null
+	 * 
+	 * @param idx
+	 *            The field index
+	 * @return True if the field is null, false otherwise
+	 */
+	public boolean isNull(int idx) {
+		checkIndex(idx);
+		return lengths[idx] < 0;
+	}
+
+	/**
+	 * Sets the bytes of the given field into a Text object, without decoding
+	 * them
+	 * 
+	 * @param idx
+	 *            The field index
+	 * @param value
+	 *            The Text to populate
+	 * @return True if the field was set, false if it is null
+	 */
+	public boolean get(int idx, Text value) {
+		if (isNull(idx)) {
+			value.clear();
+			return false;
+		} else {
+			value.set(data, offsets[idx], lengths[idx]);
+			return true;
+		}
+	}
+
+	/**
+	 * Gets the given field as a String
+	 * 
+	 * @param idx
+	 *            The field index
+	 * @return The value, or null
+	 */
+	public String getString(int idx) {
+		if (isNull(idx)) {
+			return null;
+		} else {
+			return new String(data, offsets[idx], lengths[idx], UTF8);
+		}
+	}
+
+	/**
+	 * Gets the given field as a long
+	 * 
+	 * @param idx
+	 *            The field index
+	 * @return The value
+	 * @throws NumberFormatException
+	 *             If the field is null or not a whole number
+	 */
+	public long getLong(int idx) {
+		if (isNull(idx)) {
+			throw new NumberFormatException("Field " + idx + " is null");
+		}
+
+		return Long.parseLong(getString(idx));
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		WritableUtils.writeVInt(out, size);
+		for (int i = 0; i < size; ++i) {
+			WritableUtils.writeVInt(out, lengths[i]);
+			if (lengths[i] > 0) {
+				out.write(data, offsets[i], lengths[i]);
+			}
+		}
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		clear(WritableUtils.readVInt(in));
+		for (int i = 0; i < size; ++i) {
+			int length = WritableUtils.readVInt(in);
+			if (length >= 0) {
+				ensureCapacity(dataLength + length);
+				in.readFully(data, dataLength, length);
+				offsets[i] = dataLength;
+				lengths[i] = length;
+				dataLength += length;
+			}
+		}
+	}
+
+	/**
+	 * Returns the fields separated by tabs, with null fields left empty
+	 */
+	@Override
+	public String toString() {
+		StringBuilder bldr = new StringBuilder();
+		for (int i = 0; i < size; ++i) {
+			if (i != 0) {
+				bldr.append('\t');
+			}
+
+			if (!isNull(i)) {
+				bldr.append(getString(i));
+			}
+		}
+		return bldr.toString();
+	}
+
+	private void checkIndex(int idx) {
+		if (idx < 0 || idx >= size) {
+			throw new IndexOutOfBoundsException("Index " + idx
+					+ " is out of bounds for size " + size);
+		}
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (data.length < capacity) {
+			data = Arrays.copyOf(data, Math.max(capacity, data.length * 2));
+		}
+	}
+}
@@ -0,0 +1,299 @@
+package com.gopivotal.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.hadoop.io.Text;
+
+/**
+ * The LineRecordScanner reads delimited records from a stream with the same
+ * contract as Hadoop's <code>LineReader</code>, but its buffer can be re-used
+ * across streams with {@link #reset(InputStream)}. Readers that move through
+ * many small files can then keep one scanner for all of them instead of
+ * allocating a buffer per file.<br>
+ * <br>
+ * By default a record ends at any of CR, LF, or CRLF. A custom delimiter is
+ * matched with a Knuth-Morris-Pratt table, so a delimiter that straddles two
+ * buffers, or a partial match that turns out not to be a delimiter, is handled
+ * without losing bytes.
+ */
+public class LineRecordScanner implements Closeable {
+
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	private static final byte CR = '\r', LF = '\n';
+
+	private InputStream strm = null;
+	private byte[] delimiter = null;
+	private int[] failure = null;
+	private byte[] buffer = null;
+	private int bufferLength = 0, bufferPosn = 0;
+
+	public LineRecordScanner(InputStream strm) {
+		this(strm, DEFAULT_BUFFER_SIZE, null);
+	}
+
+	/**
+	 * Creates a scanner for the given stream
+	 *
+	 * @param strm
+	 *            The stream to read from
+	 * @param bufferSize
+	 *            The size of the read buffer
+	 * @param delimiter
+	 *            The record delimiter, or null for any of CR, LF, or CRLF
+	 */
+	public LineRecordScanner(InputStream strm, int bufferSize,
+			byte[] delimiter) {
+
+		if (delimiter != null && delimiter.length == 0) {
+			throw new IllegalArgumentException("Delimiter is empty");
+		}
+
+		this.strm = strm;
+		this.buffer = new byte[bufferSize];
+
+		if (delimiter != null) {
+			this.delimiter = delimiter.clone();
+			this.failure = buildFailureTable(this.delimiter);
+		}
+	}
+
+	/**
+	 * Reads the next record into the given Text object, without its delimiter
+	 *
+	 * @param record
+	 *            The Text object to populate. Its backing array is re-used.
+	 * @return The number of bytes consumed, including the delimiter, or 0 at
+	 *         the end of the stream
+	 * @throws IOException
+	 */
+	public int readLine(Text record) throws IOException {
+		return readLine(record, Integer.MAX_VALUE, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Reads the next record into the given Text object, without its delimiter
+	 *
+	 * @param record
+	 *            The Text object to populate. Its backing array is re-used.
+	 * @param maxLineLength
+	 *            The most bytes to store in the Text object. The rest of the
+	 *            record is consumed but discarded.
+	 * @param maxBytesToConsume
+	 *            The number of bytes after which reading stops, even if no
+	 *            delimiter has been found
+	 * @return The number of bytes consumed, including the delimiter, or 0 at
+	 *         the end of the stream
+	 * @throws IOException
+	 */
+	public int readLine(Text record, int maxLineLength, int maxBytesToConsume)
+			throws IOException {
+		record.clear();
+
+		long bytesConsumed;
+		if (delimiter == null) {
+			bytesConsumed = readDefaultLine(record, maxLineLength,
+					maxBytesToConsume);
+		} else {
+			bytesConsumed = readCustomLine(record, maxLineLength,
+					maxBytesToConsume);
+		}
+
+		if (bytesConsumed > Integer.MAX_VALUE) {
+			throw new IOException("Too many bytes before delimiter: "
+					+ bytesConsumed);
+		}
+
+		return (int) bytesConsumed;
+	}
+
+	/**
+	 * Points this scanner at a new stream, re-using its buffer. Any bytes left
+	 * over from the previous stream are dropped, and the previous stream is
+	 * not closed.
+	 *
+	 * @param strm
+	 *            The stream to read from
+	 */
+	public void reset(InputStream strm) {
+		this.strm = strm;
+		bufferLength = 0;
+		bufferPosn = 0;
+	}
+
+	/**
+	 * Closes the underlying stream. Closing a scanner more than once has no
+	 * effect.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (strm != null) {
+			strm.close();
+			strm = null;
+		}
+	}
+
+	/**
+	 * Reads a record ending in CR, LF, or CRLF. A CR at the end of the buffer
+	 * is held back until the next byte shows whether it starts a CRLF.
+	 */
+	private long readDefaultLine(Text record, int maxLineLength,
+			int maxBytesToConsume) throws IOException {
+		int txtLength = 0, newlineLength = 0;
+		boolean prevCharCR = false;
+		long bytesConsumed = 0;
+
+		do {
+			int startPosn = bufferPosn;
+			if (bufferPosn >= bufferLength) {
+				if (prevCharCR) {
+					++bytesConsumed;
+				}
+
+				if (!fill()) {
+					break;
+				}
+
+				startPosn = 0;
+			}
+
+			for (; bufferPosn < bufferLength; ++bufferPosn) {
+				if (buffer[bufferPosn] == LF) {
+					newlineLength = prevCharCR ? 2 : 1;
+					++bufferPosn;
+					break;
+				}
+
+				if (prevCharCR) {
+					newlineLength = 1;
+					break;
+				}
+
+				prevCharCR = buffer[bufferPosn] == CR;
+			}
+
+			int readLength = bufferPosn - startPosn;
+			if (prevCharCR && newlineLength == 0) {
+				--readLength;
+			}
+
+			bytesConsumed += readLength;
+
+			int appendLength = Math.min(readLength - newlineLength,
+					maxLineLength - txtLength);
+			if (appendLength > 0) {
+				record.append(buffer, startPosn, appendLength);
+				txtLength += appendLength;
+			}
+		} while (newlineLength == 0 && bytesConsumed < maxBytesToConsume);
+
+		return bytesConsumed;
+	}
+
+	/**
+	 * Reads a record ending in the custom delimiter. The bytes of a partial
+	 * match are held back, and are always a prefix of the delimiter, so they
+	 * are appended from the delimiter itself once the match fails.
+	 */
+	private long readCustomLine(Text record, int maxLineLength,
+			int maxBytesToConsume) throws IOException {
+		final byte[] delim = delimiter;
+		final int[] fail = failure;
+		int txtLength = 0, matched = 0;
+		boolean found = false;
+		long bytesConsumed = 0;
+
+		do {
+			if (bufferPosn >= bufferLength && !fill()) {
+				break;
+			}
+
+			int startPosn = bufferPosn, held = matched;
+			for (; bufferPosn < bufferLength; ++bufferPosn) {
+				byte b = buffer[bufferPosn];
+				while (matched > 0 && b != delim[matched]) {
+					matched = fail[matched - 1];
+				}
+
+				if (b == delim[matched] && ++matched == delim.length) {
+					++bufferPosn;
+					found = true;
+					break;
+				}
+			}
+
+			bytesConsumed += bufferPosn - startPosn;
+
+			// everything but the delimiter, or the partial match, is content
+			int release = held + (bufferPosn - startPosn) - matched;
+			txtLength = append(record, delim, 0, Math.min(release, held),
+					txtLength, maxLineLength);
+			txtLength = append(record, buffer, startPosn, release - held,
+					txtLength, maxLineLength);
+		} while (!found && bytesConsumed < maxBytesToConsume);
+
+		if (!found) {
+			txtLength = append(record, delim, 0, matched, txtLength,
+					maxLineLength);
+		}
+
+		return bytesConsumed;
+	}
+
+	private static int append(Text record, byte[] bytes, int offset,
+			int length, int txtLength, int maxLineLength) {
+		length = Math.min(length, maxLineLength - txtLength);
+		if (length > 0) {
+			record.append(bytes, offset, length);
+			return txtLength + length;
+		} else {
+			return txtLength;
+		}
+	}
+
+	/**
+	 * Reads the next block of bytes from the stream into the buffer.
+	 *
+	 * @return True if any bytes were read, false on end of stream
+	 * @throws IOException
+	 */
+	private boolean fill() throws IOException {
+		bufferPosn = 0;
+		bufferLength = strm.read(buffer, 0, buffer.length);
+
+		if (bufferLength <= 0) {
+			bufferLength = 0;
+			return false;
+		} else {
+			return true;
+		}
+	}
+
+	/**
+	 * Builds the KMP failure table for the given pattern. Entry <i>i</i> is the
+	 * length of the longest proper prefix of <code>pattern[0..i]</code> that
+	 * is also a suffix of it.
+	 *
+	 * @param pattern
+	 *            The pattern to match
+	 * @return The failure table
+	 */
+	private static int[] buildFailureTable(byte[] pattern) {
+		int[] table = new int[pattern.length];
+		int k = 0;
+		for (int i = 1; i < pattern.length; ++i) {
+			while (k > 0 && pattern[i] != pattern[k]) {
+				k = table[k - 1];
+			}
+
+			if (pattern[i] == pattern[k]) {
+				++k;
+			}
+
+			table[i] = k;
+		}
+		return table;
+	}
+}
@@ -31,6 +31,11 @@ public class CombineWholeFileInputFormat extends
 		return new CombineWholeFileRecordReader(split, conf);
 	}
 
+	/**
+	 * Reads each file of the split in turn with a single
+	 * {@link WholeFileRecordReader}. Every file is read into the value given
+	 * by the caller, whose buffer only grows when a file does not fit.
+	 */
 	public static class CombineWholeFileRecordReader implements
 			RecordReader<Text, BytesWritable> {
 
@@ -42,9 +47,9 @@ public class CombineWholeFileInputFormat extends
 		public CombineWholeFileRecordReader(InputSplit split, JobConf conf)
 				throws IOException {
 			this.conf = conf;
-			split = (CombineFileSplit) split;
+			this.split = (CombineFileSplit) split;
 
-			if (split.getLength() != 0) {
+			if (this.split.getLength() != 0) {
 				initializeNextReader();
 			}
 		}
@@ -53,7 +58,7 @@ public class CombineWholeFileInputFormat extends
 		public boolean next(Text key, BytesWritable value) throws IOException {
 
 			do {
-				if (rdr.next(key, value)) {
+				if (rdr != null && rdr.next(key, value)) {
 					return true;
 				} else if (currentSplit < split.getNumPaths()) {
 					initializeNextReader();
@@ -66,31 +71,44 @@ public class CombineWholeFileInputFormat extends
 
 		@Override
 		public void close() throws IOException {
-			rdr.close();
+			if (rdr != null) {
+				rdr.close();
+			}
 		}
 
 		@Override
 		public float getProgress() throws IOException {
-			return (currentSplit - 1 + rdr.getProgress()) / split.getNumPaths();
+			if (rdr == null) {
+				return 0.0f;
+			} else {
+				return (currentSplit - 1 + rdr.getProgress())
+						/ split.getNumPaths();
+			}
 		}
 
 		private void initializeNextReader() throws IOException {
 
-			rdr = new WholeFileRecordReader(new FileSplit(
-					split.getPath(currentSplit), split.getOffset(currentSplit),
-					split.getLength(currentSplit), new String[] {}), conf);
+			FileSplit fSplit = new FileSplit(split.getPath(currentSplit),
+					split.getOffset(currentSplit),
+					split.getLength(currentSplit), new String[] {});
+
+			if (rdr == null) {
+				rdr = new WholeFileRecordReader(fSplit, conf);
+			} else {
+				rdr.reset(fSplit);
+			}
 
 			++currentSplit;
 		}
 
 		@Override
 		public Text createKey() {
-			return rdr.createKey();
+			return new Text();
 		}
 
 		@Override
 		public BytesWritable createValue() {
-			return rdr.createValue();
+			return new BytesWritable();
 		}
 
 		@Override
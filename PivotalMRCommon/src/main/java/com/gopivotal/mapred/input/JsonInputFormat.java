@@ -1,9 +1,10 @@
 package com.gopivotal.mapred.input;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.nio.charset.Charset;
 import java.security.InvalidParameterException;
 
+import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileSystem;
@@ -26,7 +27,9 @@ import org.codehaus.jackson.JsonParseException;
 import org.codehaus.jackson.map.JsonMappingException;
 import org.codehaus.jackson.map.ObjectMapper;
 
-import com.gopivotal.io.JsonStreamReader;
+import com.gopivotal.io.JsonRecordScanner;
+import com.gopivotal.io.JsonRecordValidator;
+import com.gopivotal.io.JsonRecordValidator.Mode;
 
 /**
  * The JsonInputFormat will read two types of JSON formatted data. The default
@@ -37,15 +40,29 @@ import com.gopivotal.io.JsonStreamReader;
  * method is likely slower, but respects record boundaries much like the
  * LineRecordReader.<br>
  * <br>
- * Use of the 'pretty print' reader requires a record identifier.
+ * Use of the 'pretty print' reader requires a record identifier, which must
+ * only appear at the root of each record, never nested in a record or as a
+ * string value. Records read by the 'pretty print' reader are validated
+ * according to
+ * {@link JsonInputFormat#setValidationMode(Job, Mode)}, and any malformed
+ * records are counted under {@link Counters#MALFORMED_RECORDS}.
  */
 public class JsonInputFormat extends FileInputFormat<Text, NullWritable> {
 
+	private static final Logger LOG = Logger.getLogger(JsonInputFormat.class);
+
 	private static JsonFactory factory = new JsonFactory();
 	private static ObjectMapper mapper = new ObjectMapper(factory);
 
 	public static final String ONE_RECORD_PER_LINE = "json.input.format.one.record.per.line";
 	public static final String RECORD_IDENTIFIER = "json.input.format.record.identifier";
+	public static final String VALIDATION_MODE = "json.input.format.validation.mode";
+	public static final String BUFFER_SIZE = "json.input.format.buffer.size";
+	public static final String RECORD_DELIMITER = "json.input.format.record.delimiter";
+
+	public static enum Counters {
+		MALFORMED_RECORDS
+	}
 
 	@Override
 	public RecordReader<Text, NullWritable> getRecordReader(InputSplit split,
@@ -54,24 +71,44 @@ public class JsonInputFormat extends FileInputFormat<Text, NullWritable> {
 		if (getOneRecordPerLine(conf)) {
 			return new SimpleJsonRecordReader(conf, (FileSplit) split);
 		} else {
-			return new JsonRecordReader(conf, (FileSplit) split);
+			return new JsonRecordReader(conf, (FileSplit) split, reporter);
 		}
 	}
 
 	/**
 	 * This class uses the {@link LineRecordReader} to read a line of JSON and
-	 * return it as a Text object.
+	 * return it as a Text object. Lines are read directly into the given key,
+	 * so no bytes are copied per record. Empty records are skipped.<br>
+	 * <br>
+	 * The read buffer size and record delimiter can be set with
+	 * {@link JsonInputFormat#setBufferSize(Job, int)} and
+	 * {@link JsonInputFormat#setRecordDelimiter(Job, String)}.
 	 */
 	public static class SimpleJsonRecordReader implements
 			RecordReader<Text, NullWritable> {
 
+		private static final Charset UTF8 = Charset.forName("UTF-8");
+
 		private LineRecordReader rdr = null;
-		private LongWritable key = new LongWritable();
-		private Text value = new Text();
+		private LongWritable offset = new LongWritable();
 
 		public SimpleJsonRecordReader(Configuration conf, FileSplit split)
 				throws IOException {
-			rdr = new LineRecordReader(conf, split);
+
+			// The line reader sizes its buffer from io.file.buffer.size
+			int bufferSize = getBufferSize(conf);
+			if (bufferSize > 0) {
+				conf = new Configuration(conf);
+				conf.setInt("io.file.buffer.size", bufferSize);
+			}
+
+			String delimiter = getRecordDelimiter(conf);
+			if (delimiter == null) {
+				rdr = new LineRecordReader(conf, split);
+			} else {
+				rdr = new LineRecordReader(conf, split,
+						delimiter.getBytes(UTF8));
+			}
 		}
 
 		@Override
@@ -81,7 +118,7 @@ public class JsonInputFormat extends FileInputFormat<Text, NullWritable> {
 
 		@Override
 		public Text createKey() {
-			return value;
+			return new Text();
 		}
 
 		@Override
@@ -96,12 +133,13 @@ public class JsonInputFormat extends FileInputFormat<Text, NullWritable> {
 
 		@Override
 		public boolean next(Text key, NullWritable value) throws IOException {
-			if (rdr.next(this.key, this.value)) {
-				key.set(this.value);
-				return true;
-			} else {
-				return false;
+			while (rdr.next(offset, key)) {
+				if (key.getLength() != 0) {
+					return true;
+				}
 			}
+
+			return false;
 		}
 
 		@Override
@@ -111,25 +149,42 @@ public class JsonInputFormat extends FileInputFormat<Text, NullWritable> {
 	}
 
 	/**
-	 * This class uses the {@link JsonStreamReader} to read JSON records from a
-	 * file. It respects split boundaries to complete full JSON records, as
-	 * specified by the root identifier. This class will discard any records
-	 * that it was unable to decode using
-	 * {@link JsonInputFormat#decodeLineToJsonNode(String)}
+	 * This class uses the {@link JsonRecordScanner} to read JSON records from a
+	 * file. It follows the same split contract as the
+	 * {@link LineRecordReader}. A record belongs to the split containing the
+	 * first byte of its root identifier, so the reader skips the partial record
+	 * at the start of its split and completes the record that straddles the
+	 * end of it. This class will discard any records that fail validation
+	 * with a {@link JsonRecordValidator}.<br>
+	 * <br>
+	 * Each record is read exactly once only if the identifier appears nowhere
+	 * but at the root of a record. A reader cannot tell where its split starts
+	 * in the nesting of the file, so a split that starts between a record's
+	 * identifier and a nested occurrence of it, such as a key that is also
+	 * used in a sub-object, returns the nested object as an extra record. The
+	 * same goes for a string value equal to the identifier.
 	 */
 	public static class JsonRecordReader implements
 			RecordReader<Text, NullWritable> {
 
 		private Logger LOG = Logger.getLogger(JsonRecordReader.class);
 
-		private JsonStreamReader rdr = null;
+		private JsonRecordScanner rdr = null;
 		private long start = 0, end = 0;
 		private float toRead = 0;
 		private String identifier = null;
 		private Logger log = Logger.getLogger(JsonRecordReader.class);
+		private JsonRecordValidator validator = null;
+		private Reporter reporter = null;
 
 		public JsonRecordReader(JobConf conf, FileSplit split)
 				throws IOException {
+			this(conf, split, Reporter.NULL);
+		}
+
+		public JsonRecordReader(JobConf conf, FileSplit split,
+				Reporter reporter) throws IOException {
+			this.reporter = reporter == null ? Reporter.NULL : reporter;
 			this.identifier = conf.get(RECORD_IDENTIFIER);
 
 			if (this.identifier == null || identifier.isEmpty()) {
@@ -154,8 +209,9 @@ public class JsonInputFormat extends FileInputFormat<Text, NullWritable> {
 				strm.seek(start);
 			}
 
-			rdr = new JsonStreamReader(identifier,
-					new BufferedInputStream(strm));
+			rdr = new JsonRecordScanner(identifier, strm);
+
+			validator = new JsonRecordValidator(getValidationMode(conf));
 		}
 
 		@Override
@@ -165,13 +221,12 @@ public class JsonInputFormat extends FileInputFormat<Text, NullWritable> {
 			boolean keepGoing = false;
 			do {
 				keepGoing = false;
-				String record = rdr.getJsonRecord();
-				if (record != null) {
-					if (JsonInputFormat.decodeLineToJsonNode(record) == null) {
-						keepGoing = true;
-					} else {
-						key.set(record);
+				if (rdr.next(key, end - start)) {
+					if (validator.isValid(key)) {
 						retval = true;
+					} else {
+						reporter.incrCounter(Counters.MALFORMED_RECORDS, 1);
+						keepGoing = true;
 					}
 				}
 			} while (keepGoing);
@@ -201,7 +256,11 @@ public class JsonInputFormat extends FileInputFormat<Text, NullWritable> {
 
 		@Override
 		public float getProgress() throws IOException {
-			return (float) rdr.getBytesRead() / toRead;
+			if (toRead == 0) {
+				return 0.0f;
+			} else {
+				return Math.min(1.0f, rdr.getBytesRead() / toRead);
+			}
 		}
 	}
 
@@ -213,17 +272,17 @@ public class JsonInputFormat extends FileInputFormat<Text, NullWritable> {
 	 * @return The JsonNode or null if a JsonParseException,
 	 *         JsonMappingException, or IOException error occurs
 	 */
-	public static synchronized JsonNode decodeLineToJsonNode(String line) {
+	public static JsonNode decodeLineToJsonNode(String line) {
 		try {
 			return mapper.readTree(line);
 		} catch (JsonParseException e) {
-			e.printStackTrace();
+			LOG.debug("Failed to parse JSON record", e);
 			return null;
 		} catch (JsonMappingException e) {
-			e.printStackTrace();
+			LOG.debug("Failed to map JSON record", e);
 			return null;
 		} catch (IOException e) {
-			e.printStackTrace();
+			LOG.debug("Failed to read JSON record", e);
 			return null;
 		}
 	}
@@ -259,7 +318,10 @@ public class JsonInputFormat extends FileInputFormat<Text, NullWritable> {
 	 * Specifies a record identifier to be used with the
 	 * {@link JsonRecordReader}<br>
 	 * <br>
-	 * Must be set if {@link JsonInputFormat#setOneRecordPerLine} is false.
+	 * Must be set if {@link JsonInputFormat#setOneRecordPerLine} is false. The
+	 * identifier must not appear nested in a record or as a string value, or a
+	 * split that starts inside a record may return the nested object as an
+	 * extra record.
 	 * 
 	 * @param job
 	 *            The job to configure
@@ -280,4 +342,89 @@ public class JsonInputFormat extends FileInputFormat<Text, NullWritable> {
 	public static String getRecordIdentifier(Configuration conf) {
 		return conf.get(RECORD_IDENTIFIER);
 	}
+
+	/**
+	 * Sets how records read by the {@link JsonRecordReader} are validated.
+	 * NONE accepts every record, STREAMING checks every token without building
+	 * a tree, and FULL parses each record into a tree.<br>
+	 * <br>
+	 * Default is STREAMING.
+	 * 
+	 * @param job
+	 *            The job to configure
+	 * @param mode
+	 *            The validation mode
+	 */
+	public static void setValidationMode(Job job, Mode mode) {
+		job.getConfiguration().setEnum(VALIDATION_MODE, mode);
+	}
+
+	/**
+	 * Gets the validation mode
+	 * 
+	 * @param conf
+	 *            the Job configuration
+	 * @return The validation mode
+	 */
+	public static Mode getValidationMode(Configuration conf) {
+		return conf.getEnum(VALIDATION_MODE, Mode.STREAMING);
+	}
+
+	/**
+	 * Sets the size of the read buffer used by the
+	 * {@link SimpleJsonRecordReader}. Larger buffers mean fewer reads against
+	 * the underlying stream.<br>
+	 * <br>
+	 * Default is the value of io.file.buffer.size.
+	 * 
+	 * @param job
+	 *            The job to configure
+	 * @param bufferSize
+	 *            The buffer size, in bytes
+	 */
+	public static void setBufferSize(Job job, int bufferSize) {
+		job.getConfiguration().setInt(BUFFER_SIZE, bufferSize);
+	}
+
+	/**
+	 * Gets the size of the read buffer
+	 * 
+	 * @param conf
+	 *            the Job configuration
+	 * @return The buffer size, or -1 if not set
+	 */
+	public static int getBufferSize(Configuration conf) {
+		return conf.getInt(BUFFER_SIZE, -1);
+	}
+
+	/**
+	 * Sets the record delimiter used by the {@link SimpleJsonRecordReader},
+	 * such as the ASCII record separator (0x1E) used by JSON text sequences.
+	 * The delimiter is stored escaped so that control characters survive the
+	 * job configuration's XML form.<br>
+	 * <br>
+	 * Default is any of CR, LF, or CRLF.
+	 * 
+	 * @param job
+	 *            The job to configure
+	 * @param delimiter
+	 *            The record delimiter
+	 */
+	public static void setRecordDelimiter(Job job, String delimiter) {
+		job.getConfiguration().set(RECORD_DELIMITER,
+				StringEscapeUtils.escapeJava(delimiter));
+	}
+
+	/**
+	 * Gets the record delimiter
+	 * 
+	 * @param conf
+	 *            the Job configuration
+	 * @return The record delimiter or null if not set
+	 */
+	public static String getRecordDelimiter(Configuration conf) {
+		String delimiter = conf.get(RECORD_DELIMITER);
+		return delimiter == null ? null : StringEscapeUtils
+				.unescapeJava(delimiter);
+	}
 }
@@ -19,7 +19,10 @@ import org.apache.hadoop.mapred.Reporter;
  * A {@link FileInputFormat} implementation that passes the file name as the key
  * and the bytes of the file as the value. Generates one map task per file, but
  * the {@link CombineWholeFileInputFormat} could be used to batch them together
- * into a configurable number of map tasks.
+ * into a configurable number of map tasks.<br>
+ * <br>
+ * Each file is read into memory, so files must be smaller than 2 GB. Use the
+ * {@link WholeFileStreamInputFormat} to stream larger files instead.
  */
 public class WholeFileInputFormat extends FileInputFormat<Text, BytesWritable> {
 
@@ -43,6 +46,19 @@ public class WholeFileInputFormat extends FileInputFormat<Text, BytesWritable> {
 
 		public WholeFileRecordReader(InputSplit split, JobConf conf)
 				throws IOException {
+			fs = FileSystem.get(conf);
+			reset(split);
+		}
+
+		/**
+		 * Points this reader at another file, keeping its file system
+		 * 
+		 * @param split
+		 *            The split of the file to read
+		 * @throws IOException
+		 *             If the file is too large
+		 */
+		public void reset(InputSplit split) throws IOException {
 			read = false;
 
 			fSplit = (FileSplit) split;
@@ -50,8 +66,6 @@ public class WholeFileInputFormat extends FileInputFormat<Text, BytesWritable> {
 			if (fSplit.getLength() > Integer.MAX_VALUE) {
 				throw new IOException("Size of file is larger than max integer");
 			}
-
-			fs = FileSystem.get(conf);
 		}
 
 		@Override
@@ -63,16 +77,15 @@ public class WholeFileInputFormat extends FileInputFormat<Text, BytesWritable> {
 
 				int length = (int) fSplit.getLength();
 
-				byte[] bytes = new byte[length];
+				// read the bytes of the file straight into the value
+				setSize(value, length);
 
-				// get the bytes of the file for the value
 				FSDataInputStream inStream = fs.open(fSplit.getPath());
-
-				IOUtils.readFully(inStream, bytes, 0, length);
-				inStream.close();
-
-				// set the value to the byte array
-				value.set(bytes, 0, bytes.length);
+				try {
+					IOUtils.readFully(inStream, value.getBytes(), 0, length);
+				} finally {
+					inStream.close();
+				}
 
 				read = true;
 				return true;
@@ -106,4 +119,24 @@ public class WholeFileInputFormat extends FileInputFormat<Text, BytesWritable> {
 			return 0;
 		}
 	}
+
+	/**
+	 * Sets the size of the given value, growing its backing array only if
+	 * the new size does not fit. The old contents are not preserved.
+	 * 
+	 * @param value
+	 *            The value to resize
+	 * @param size
+	 *            The new size
+	 */
+	static void setSize(BytesWritable value, int size) {
+		if (value.getCapacity() < size) {
+			// drop the old contents so they are not copied
+			value.setSize(0);
+			value.setCapacity((int) Math.max(size,
+					Math.min(Integer.MAX_VALUE, value.getCapacity() * 3L / 2)));
+		}
+
+		value.setSize(size);
+	}
 }
@@ -0,0 +1,103 @@
+package com.gopivotal.mapred.input;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+
+import com.gopivotal.io.FileHandleWritable;
+
+/**
+ * A {@link FileInputFormat} implementation that passes the file name as the key
+ * and a {@link FileHandleWritable} as the value. Unlike the
+ * {@link WholeFileInputFormat}, no bytes are read until the mapper opens the
+ * handle, so files of any size can be streamed in constant memory. Use the
+ * {@link WholeFileInputFormat} for small files that are wanted in memory.
+ */
+public class WholeFileStreamInputFormat extends
+		FileInputFormat<Text, FileHandleWritable> {
+
+	@Override
+	protected boolean isSplitable(FileSystem fs, Path filename) {
+		return false;
+	}
+
+	@Override
+	public RecordReader<Text, FileHandleWritable> getRecordReader(
+			InputSplit split, JobConf conf, Reporter reporter)
+			throws IOException {
+		return new WholeFileStreamRecordReader(split, conf);
+	}
+
+	public static class WholeFileStreamRecordReader implements
+			RecordReader<Text, FileHandleWritable> {
+
+		private boolean read = false;
+		private FileSplit fSplit = null;
+		private JobConf conf = null;
+		private FileHandleWritable last = null;
+
+		public WholeFileStreamRecordReader(InputSplit split, JobConf conf)
+				throws IOException {
+			read = false;
+
+			fSplit = (FileSplit) split;
+			this.conf = conf;
+		}
+
+		@Override
+		public boolean next(Text key, FileHandleWritable value)
+				throws IOException {
+			if (!read) {
+
+				// set the key to the fully qualified path
+				Path path = fSplit.getPath().getFileSystem(conf)
+						.makeQualified(fSplit.getPath());
+				key.set(path.toString());
+
+				// the file is opened when the mapper asks for it
+				value.set(path, fSplit.getLength(), conf);
+				last = value;
+
+				read = true;
+				return true;
+			} else {
+				return false;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (last != null) {
+				last.close();
+			}
+		}
+
+		@Override
+		public float getProgress() throws IOException {
+			return read ? 1 : 0;
+		}
+
+		@Override
+		public Text createKey() {
+			return new Text();
+		}
+
+		@Override
+		public FileHandleWritable createValue() {
+			return new FileHandleWritable();
+		}
+
+		@Override
+		public long getPos() throws IOException {
+			return 0;
+		}
+	}
+}
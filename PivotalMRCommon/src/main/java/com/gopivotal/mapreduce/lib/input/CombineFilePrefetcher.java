@@ -0,0 +1,366 @@
+package com.gopivotal.mapreduce.lib.input;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileSplit;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.log4j.Logger;
+
+/**
+ * The CombineFilePrefetcher opens the files of a {@link CombineFileSplit} ahead
+ * of the record reader that consumes them. While the current file is being
+ * read, the next files are opened, seeked to their offsets, and have their
+ * first buffer filled on a small, bounded thread pool. Files are always handed
+ * out in split order.<br>
+ * <br>
+ * Memory is bounded by the byte budget, which is divided evenly between the
+ * prefetched files and the one being consumed. Compressed files are not
+ * opened; they are handed out without a stream so the caller can open them
+ * with the usual codec handling.<br>
+ * <br>
+ * Prefetching is off unless
+ * {@link CombineFilePrefetcher#setNumFiles(Job, int)} is set to a positive
+ * number. When it is off, each file is opened on the calling thread as it is
+ * needed. Either way, the file systems of the split are resolved once, rather
+ * than once per file.
+ */
+public class CombineFilePrefetcher implements Closeable {
+
+	private static final Logger LOG = Logger
+			.getLogger(CombineFilePrefetcher.class);
+
+	public static final String NUM_FILES = "mapreduce.combine.prefetch.num.files";
+	public static final String NUM_THREADS = "mapreduce.combine.prefetch.num.threads";
+	public static final String BYTE_BUDGET = "mapreduce.combine.prefetch.byte.budget";
+
+	private static final long CLOSE_TIMEOUT_MS = 10000;
+
+	private CombineFileSplit split = null;
+	private Configuration conf = null;
+	private CompressionCodecFactory codecs = null;
+	private Map<String, FileSystem> filesystems = new HashMap<String, FileSystem>();
+	private ExecutorService pool = null;
+	private LinkedList<Future<PrefetchedFile>> pending = new LinkedList<Future<PrefetchedFile>>();
+	private int nextToSubmit = 0;
+	private int bufferSize = 0;
+	private volatile boolean closed = false;
+
+	public CombineFilePrefetcher(CombineFileSplit split, Configuration conf)
+			throws IOException {
+		this.split = split;
+		this.conf = conf;
+		this.codecs = new CompressionCodecFactory(conf);
+
+		for (Path path : split.getPaths()) {
+			String key = getFileSystemKey(path);
+			if (!filesystems.containsKey(key)) {
+				filesystems.put(key, path.getFileSystem(conf));
+			}
+		}
+
+		if (!isEnabled(conf)) {
+			return;
+		}
+
+		int numFiles = getNumFiles(conf);
+		int numThreads = Math.max(1, Math.min(numFiles, getNumThreads(conf)));
+
+		// the current file and every prefetched file get an equal share
+		bufferSize = (int) Math.min(Integer.MAX_VALUE, getByteBudget(conf)
+				/ (numFiles + 1));
+
+		LOG.info("Prefetching " + numFiles + " files with " + numThreads
+				+ " threads and a " + bufferSize + " byte buffer per file");
+
+		pool = Executors.newFixedThreadPool(numThreads, new DaemonFactory());
+
+		for (int i = 0; i < numFiles; ++i) {
+			submitNext();
+		}
+	}
+
+	/**
+	 * Gets the next file of the split, waiting for it to be opened if needed.
+	 *
+	 * @return The next file, or null if all files have been handed out
+	 * @throws IOException
+	 *             If the file could not be opened
+	 * @throws InterruptedException
+	 */
+	public PrefetchedFile next() throws IOException, InterruptedException {
+		if (pool == null) {
+			return nextToSubmit < split.getNumPaths() ? open(nextToSubmit++)
+					: null;
+		}
+
+		if (pending.isEmpty()) {
+			return null;
+		}
+
+		Future<PrefetchedFile> future = pending.removeFirst();
+		submitNext();
+
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			} else {
+				throw new IOException(e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * Stops prefetching and closes any files that were opened but not handed
+	 * out. Files still being opened are waited for, and any that finish later
+	 * are closed by the thread that opened them.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (pool == null) {
+			return;
+		}
+
+		closed = true;
+		pool.shutdownNow();
+
+		try {
+			if (!pool.awaitTermination(CLOSE_TIMEOUT_MS,
+					TimeUnit.MILLISECONDS)) {
+				LOG.warn("Prefetch threads did not stop in " + CLOSE_TIMEOUT_MS
+						+ " ms");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		// a finished future's file is ours to close, whether or not it was
+		// opened before close was called
+		for (Future<PrefetchedFile> future : pending) {
+			if (future.isDone() && !future.isCancelled()) {
+				try {
+					PrefetchedFile file = future.get();
+					if (file != null) {
+						file.close();
+					}
+				} catch (Exception e) {
+					// nothing to do here
+				}
+			}
+		}
+
+		pending.clear();
+	}
+
+	private void submitNext() {
+		if (nextToSubmit < split.getNumPaths()) {
+			final int idx = nextToSubmit++;
+			pending.addLast(pool.submit(new Callable<PrefetchedFile>() {
+				@Override
+				public PrefetchedFile call() throws Exception {
+					PrefetchedFile file = open(idx);
+
+					// nobody will take the file once the prefetcher is closed
+					if (closed) {
+						file.close();
+						return null;
+					}
+
+					return file;
+				}
+			}));
+		}
+	}
+
+	private PrefetchedFile open(int idx) throws IOException {
+		FileSplit fSplit = new FileSplit(split.getPath(idx),
+				split.getOffset(idx), split.getLength(idx), null);
+
+		if (codecs.getCodec(fSplit.getPath()) != null) {
+			return new PrefetchedFile(fSplit, null);
+		}
+
+		FileSystem fs = filesystems.get(getFileSystemKey(fSplit.getPath()));
+		FSDataInputStream strm = fs.open(fSplit.getPath());
+
+		try {
+			if (fSplit.getStart() != 0) {
+				strm.seek(fSplit.getStart());
+			}
+
+			if (pool == null) {
+				return new PrefetchedFile(fSplit, strm);
+			}
+
+			byte[] head = new byte[(int) Math.min(bufferSize,
+					fSplit.getLength())];
+
+			int read = 0, n = 0;
+			while (read < head.length
+					&& (n = strm.read(head, read, head.length - read)) > 0) {
+				read += n;
+			}
+
+			return new PrefetchedFile(fSplit, new SequenceInputStream(
+					new ByteArrayInputStream(head, 0, read), strm));
+		} catch (IOException e) {
+			IOUtils.closeStream(strm);
+			throw e;
+		}
+	}
+
+	private static String getFileSystemKey(Path path) {
+		URI uri = path.toUri();
+		return uri.getScheme() + "://" + uri.getAuthority();
+	}
+
+	/**
+	 * Sets the number of files to open ahead of the one being read. Zero, the
+	 * default, disables prefetching.
+	 *
+	 * @param job
+	 *            The job to configure
+	 * @param numFiles
+	 *            The number of files to prefetch
+	 */
+	public static void setNumFiles(Job job, int numFiles) {
+		job.getConfiguration().setInt(NUM_FILES, numFiles);
+	}
+
+	/**
+	 * Gets the number of files to prefetch
+	 *
+	 * @param conf
+	 *            The job configuration
+	 * @return The number of files to prefetch
+	 */
+	public static int getNumFiles(Configuration conf) {
+		return conf.getInt(NUM_FILES, 0);
+	}
+
+	/**
+	 * Gets if prefetching is enabled
+	 *
+	 * @param conf
+	 *            The job configuration
+	 * @return True if prefetching is enabled, false otherwise
+	 */
+	public static boolean isEnabled(Configuration conf) {
+		return getNumFiles(conf) > 0;
+	}
+
+	/**
+	 * Sets the number of threads used to open files. Default is 2, and it is
+	 * never more than the number of files to prefetch.
+	 *
+	 * @param job
+	 *            The job to configure
+	 * @param numThreads
+	 *            The number of threads
+	 */
+	public static void setNumThreads(Job job, int numThreads) {
+		job.getConfiguration().setInt(NUM_THREADS, numThreads);
+	}
+
+	/**
+	 * Gets the number of threads used to open files
+	 *
+	 * @param conf
+	 *            The job configuration
+	 * @return The number of threads
+	 */
+	public static int getNumThreads(Configuration conf) {
+		return conf.getInt(NUM_THREADS, 2);
+	}
+
+	/**
+	 * Sets the total number of bytes that may be buffered by prefetching.
+	 * Default is 8 MB.
+	 *
+	 * @param job
+	 *            The job to configure
+	 * @param bytes
+	 *            The byte budget
+	 */
+	public static void setByteBudget(Job job, long bytes) {
+		job.getConfiguration().setLong(BYTE_BUDGET, bytes);
+	}
+
+	/**
+	 * Gets the total number of bytes that may be buffered by prefetching
+	 *
+	 * @param conf
+	 *            The job configuration
+	 * @return The byte budget
+	 */
+	public static long getByteBudget(Configuration conf) {
+		return conf.getLong(BYTE_BUDGET, 8 * 1024 * 1024);
+	}
+
+	/**
+	 * A file of the split, with its stream opened and positioned at the start
+	 * of its chunk. The stream is null if the file is compressed.
+	 */
+	public static class PrefetchedFile implements Closeable {
+
+		private FileSplit split = null;
+		private InputStream strm = null;
+
+		public PrefetchedFile(FileSplit split, InputStream strm) {
+			this.split = split;
+			this.strm = strm;
+		}
+
+		public FileSplit getSplit() {
+			return split;
+		}
+
+		public InputStream getStream() {
+			return strm;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (strm != null) {
+				strm.close();
+			}
+		}
+	}
+
+	private static class DaemonFactory implements ThreadFactory {
+
+		private static final AtomicInteger COUNT = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "combine-prefetch-"
+					+ COUNT.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
@@ -9,8 +9,8 @@ import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.apache.hadoop.mapreduce.lib.input.CombineFileInputFormat;
 import org.apache.hadoop.mapreduce.lib.input.CombineFileSplit;
-import org.apache.hadoop.mapreduce.lib.input.FileSplit;
 
+import com.gopivotal.mapreduce.lib.input.CombineFilePrefetcher.PrefetchedFile;
 import com.gopivotal.mapreduce.lib.input.JsonInputFormat.JsonRecordReader;
 import com.gopivotal.mapreduce.lib.input.JsonInputFormat.SimpleJsonRecordReader;
 import com.gopivotal.mapreduce.util.PathUtil;
@@ -21,6 +21,9 @@ import com.gopivotal.mapreduce.util.PathUtil;
  * <br>
  * Please use {@link JsonInputFormat} to configure the job appropriately.
  * {@link PathUtil#getIdealSplitSize(FileSystem, Path[], int)} may be helpful.
+ * Each split is read with one record reader, which is re-used from file to
+ * file. When splits hold many small files, use {@link CombineFilePrefetcher}
+ * to open the next files while the current one is read.
  */
 public class CombineJsonInputFormat extends
 		CombineFileInputFormat<Text, NullWritable> {
@@ -36,13 +39,20 @@ public class CombineJsonInputFormat extends
 		}
 	}
 
+	/**
+	 * Reads each file of the split in turn with a single {@link JsonRecordReader},
+	 * which is closed as soon as a file is exhausted and then re-used for the
+	 * next file.
+	 */
 	public static class CombineJsonRecordReader extends
 			RecordReader<Text, NullWritable> {
 
-		private JsonRecordReader rdr = null;
+		private JsonRecordReader rdr = new JsonRecordReader();
+		private boolean rdrOpen = false;
 		private CombineFileSplit split = null;
 		private int currentSplit = 0;
 		private TaskAttemptContext context = null;
+		private CombineFilePrefetcher prefetcher = null;
 
 		@Override
 		public void initialize(InputSplit paramInputSplit,
@@ -52,6 +62,8 @@ public class CombineJsonInputFormat extends
 			split = (CombineFileSplit) paramInputSplit;
 
 			if (split.getLength() != 0) {
+				prefetcher = new CombineFilePrefetcher(split,
+						context.getConfiguration());
 				initializeNextReader();
 			}
 		}
@@ -60,9 +72,13 @@ public class CombineJsonInputFormat extends
 		public boolean nextKeyValue() throws IOException, InterruptedException {
 
 			do {
-				if (rdr.nextKeyValue()) {
+				if (rdrOpen && rdr.nextKeyValue()) {
 					return true;
-				} else if (currentSplit < split.getNumPaths()) {
+				}
+
+				closeReader();
+
+				if (prefetcher != null && currentSplit < split.getNumPaths()) {
 					initializeNextReader();
 				} else {
 					return false;
@@ -73,7 +89,11 @@ public class CombineJsonInputFormat extends
 
 		@Override
 		public void close() throws IOException {
-			rdr.close();
+			closeReader();
+
+			if (prefetcher != null) {
+				prefetcher.close();
+			}
 		}
 
 		@Override
@@ -89,29 +109,50 @@ public class CombineJsonInputFormat extends
 
 		@Override
 		public float getProgress() throws IOException, InterruptedException {
-			return (currentSplit - 1 + rdr.getProgress()) / split.getNumPaths();
+			if (currentSplit == 0) {
+				return 0.0f;
+			} else {
+				return (currentSplit - 1 + rdr.getProgress())
+						/ split.getNumPaths();
+			}
 		}
 
 		private void initializeNextReader() throws IOException,
 				InterruptedException {
 
-			rdr = new JsonRecordReader();
-			rdr.initialize(
-					new FileSplit(split.getPath(currentSplit), split
-							.getOffset(currentSplit), split
-							.getLength(currentSplit), null), context);
+			PrefetchedFile file = prefetcher.next();
+			if (file.getStream() == null) {
+				rdr.initialize(file.getSplit(), context);
+			} else {
+				rdr.initialize(file.getStream(), file.getSplit(), context);
+			}
 
+			rdrOpen = true;
 			++currentSplit;
 		}
+
+		private void closeReader() throws IOException {
+			if (rdrOpen) {
+				rdrOpen = false;
+				rdr.close();
+			}
+		}
 	}
 
+	/**
+	 * Reads each file of the split in turn with a single {@link SimpleJsonRecordReader},
+	 * which is closed as soon as a file is exhausted and then re-used for the
+	 * next file.
+	 */
 	public static class CombineSimpleJsonRecordReader extends
 			RecordReader<Text, NullWritable> {
 
-		private SimpleJsonRecordReader rdr = null;
+		private SimpleJsonRecordReader rdr = new SimpleJsonRecordReader();
+		private boolean rdrOpen = false;
 		private CombineFileSplit split = null;
 		private int currentSplit = 0;
 		private TaskAttemptContext context = null;
+		private CombineFilePrefetcher prefetcher = null;
 
 		@Override
 		public void initialize(InputSplit paramInputSplit,
@@ -121,6 +162,8 @@ public class CombineJsonInputFormat extends
 			split = (CombineFileSplit) paramInputSplit;
 
 			if (split.getLength() != 0) {
+				prefetcher = new CombineFilePrefetcher(split,
+						context.getConfiguration());
 				initializeNextReader();
 			}
 		}
@@ -129,9 +172,13 @@ public class CombineJsonInputFormat extends
 		public boolean nextKeyValue() throws IOException, InterruptedException {
 
 			do {
-				if (rdr.nextKeyValue()) {
+				if (rdrOpen && rdr.nextKeyValue()) {
 					return true;
-				} else if (currentSplit < split.getNumPaths()) {
+				}
+
+				closeReader();
+
+				if (prefetcher != null && currentSplit < split.getNumPaths()) {
 					initializeNextReader();
 				} else {
 					return false;
@@ -142,7 +189,11 @@ public class CombineJsonInputFormat extends
 
 		@Override
 		public void close() throws IOException {
-			rdr.close();
+			closeReader();
+
+			if (prefetcher != null) {
+				prefetcher.close();
+			}
 		}
 
 		@Override
@@ -158,19 +209,33 @@ public class CombineJsonInputFormat extends
 
 		@Override
 		public float getProgress() throws IOException, InterruptedException {
-			return (currentSplit - 1 + rdr.getProgress()) / split.getNumPaths();
+			if (currentSplit == 0) {
+				return 0.0f;
+			} else {
+				return (currentSplit - 1 + rdr.getProgress())
+						/ split.getNumPaths();
+			}
 		}
 
 		private void initializeNextReader() throws IOException,
 				InterruptedException {
 
-			rdr = new SimpleJsonRecordReader();
-			rdr.initialize(
-					new FileSplit(split.getPath(currentSplit), split
-							.getOffset(currentSplit), split
-							.getLength(currentSplit), null), context);
+			PrefetchedFile file = prefetcher.next();
+			if (file.getStream() == null) {
+				rdr.initialize(file.getSplit(), context);
+			} else {
+				rdr.initialize(file.getStream(), file.getSplit(), context);
+			}
 
+			rdrOpen = true;
 			++currentSplit;
 		}
+
+		private void closeReader() throws IOException {
+			if (rdrOpen) {
+				rdrOpen = false;
+				rdr.close();
+			}
+		}
 	}
-}
\ No newline at end of file
+}
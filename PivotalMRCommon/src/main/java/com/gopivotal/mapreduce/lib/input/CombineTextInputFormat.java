@@ -9,9 +9,9 @@ import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.apache.hadoop.mapreduce.lib.input.CombineFileInputFormat;
 import org.apache.hadoop.mapreduce.lib.input.CombineFileSplit;
-import org.apache.hadoop.mapreduce.lib.input.FileSplit;
 import org.apache.hadoop.mapreduce.lib.input.LineRecordReader;
 
+import com.gopivotal.mapreduce.lib.input.CombineFilePrefetcher.PrefetchedFile;
 import com.gopivotal.mapreduce.util.PathUtil;
 
 /**
@@ -21,6 +21,9 @@ import com.gopivotal.mapreduce.util.PathUtil;
  * Use {@link CombineTextInputFormat#setMaxSplitSize(long)} to set the file
  * size, in bytes, that is ideal.
  * {@link PathUtil#getIdealSplitSize(FileSystem, Path[], int)} may be helpful.
+ * Each split is read with one record reader, which is re-used from file to
+ * file. When splits hold many small files, use {@link CombineFilePrefetcher}
+ * to open the next files while the current one is read.
  */
 public class CombineTextInputFormat extends
 		CombineFileInputFormat<LongWritable, Text> {
@@ -31,13 +34,22 @@ public class CombineTextInputFormat extends
 		return new CombineLineRecordReader();
 	}
 
+	/**
+	 * Reads each file of the split in turn with a single
+	 * {@link StreamLineRecordReader}, which is closed as soon as a file is
+	 * exhausted and then re-used for the next file. Compressed files are read
+	 * with a {@link LineRecordReader}.
+	 */
 	public static class CombineLineRecordReader extends
 			RecordReader<LongWritable, Text> {
 
-		private LineRecordReader rdr = null;
+		private RecordReader<LongWritable, Text> rdr = null;
+		private StreamLineRecordReader lineRdr = new StreamLineRecordReader();
+		private boolean rdrOpen = false;
 		private CombineFileSplit split = null;
 		private int currentSplit = 0;
 		private TaskAttemptContext context = null;
+		private CombineFilePrefetcher prefetcher = null;
 
 		@Override
 		public void initialize(InputSplit paramInputSplit,
@@ -47,6 +59,8 @@ public class CombineTextInputFormat extends
 			split = (CombineFileSplit) paramInputSplit;
 
 			if (split.getLength() != 0) {
+				prefetcher = new CombineFilePrefetcher(split,
+						context.getConfiguration());
 				initializeNextReader();
 			}
 		}
@@ -55,9 +69,13 @@ public class CombineTextInputFormat extends
 		public boolean nextKeyValue() throws IOException, InterruptedException {
 
 			do {
-				if (rdr.nextKeyValue()) {
+				if (rdrOpen && rdr.nextKeyValue()) {
 					return true;
-				} else if (currentSplit < split.getNumPaths()) {
+				}
+
+				closeReader();
+
+				if (prefetcher != null && currentSplit < split.getNumPaths()) {
 					initializeNextReader();
 				} else {
 					return false;
@@ -68,7 +86,11 @@ public class CombineTextInputFormat extends
 
 		@Override
 		public void close() throws IOException {
-			rdr.close();
+			closeReader();
+
+			if (prefetcher != null) {
+				prefetcher.close();
+			}
 		}
 
 		@Override
@@ -84,19 +106,36 @@ public class CombineTextInputFormat extends
 
 		@Override
 		public float getProgress() throws IOException, InterruptedException {
-			return (currentSplit - 1 + rdr.getProgress()) / split.getNumPaths();
+			if (currentSplit == 0) {
+				return 0.0f;
+			} else {
+				return (currentSplit - 1 + rdr.getProgress())
+						/ split.getNumPaths();
+			}
 		}
 
-		private void initializeNextReader() throws IOException {
-
-			rdr = new LineRecordReader();
-			rdr.initialize(
-					new FileSplit(split.getPath(currentSplit),
+		private void initializeNextReader() throws IOException,
+				InterruptedException {
 
-					split.getOffset(currentSplit), split
-							.getLength(currentSplit), null), context);
+			PrefetchedFile file = prefetcher.next();
+			if (file.getStream() == null) {
+				rdr = new LineRecordReader();
+				rdr.initialize(file.getSplit(), context);
+			} else {
+				lineRdr.initialize(file.getStream(), file.getSplit(),
+						context.getConfiguration());
+				rdr = lineRdr;
+			}
 
+			rdrOpen = true;
 			++currentSplit;
 		}
+
+		private void closeReader() throws IOException {
+			if (rdrOpen) {
+				rdrOpen = false;
+				rdr.close();
+			}
+		}
 	}
 }
@@ -32,10 +32,15 @@ public class CombineWholeFileInputFormat extends
 		return new CombineWholeFileRecordReader();
 	}
 
+	/**
+	 * Reads each file of the split in turn with a single
+	 * {@link WholeFileRecordReader}, so every file is read into the same
+	 * value, whose buffer only grows when a file does not fit.
+	 */
 	public static class CombineWholeFileRecordReader extends
 			RecordReader<Text, BytesWritable> {
 
-		private WholeFileRecordReader rdr = null;
+		private WholeFileRecordReader rdr = new WholeFileRecordReader();
 		private CombineFileSplit split = null;
 		private int currentSplit = 0;
 		private TaskAttemptContext context = null;
@@ -56,7 +61,7 @@ public class CombineWholeFileInputFormat extends
 		public boolean nextKeyValue() throws IOException, InterruptedException {
 
 			do {
-				if (rdr.nextKeyValue()) {
+				if (currentSplit != 0 && rdr.nextKeyValue()) {
 					return true;
 				} else if (currentSplit < split.getNumPaths()) {
 					initializeNextReader();
@@ -85,13 +90,17 @@ public class CombineWholeFileInputFormat extends
 
 		@Override
 		public float getProgress() throws IOException, InterruptedException {
-			return (currentSplit - 1 + rdr.getProgress()) / split.getNumPaths();
+			if (currentSplit == 0) {
+				return 0.0f;
+			} else {
+				return (currentSplit - 1 + rdr.getProgress())
+						/ split.getNumPaths();
+			}
 		}
 
 		private void initializeNextReader() throws IOException,
 				InterruptedException {
 
-			rdr = new WholeFileRecordReader();
 			rdr.initialize(
 					new FileSplit(split.getPath(currentSplit), split
 							.getOffset(currentSplit), split
@@ -0,0 +1,144 @@
+package com.gopivotal.mapreduce.lib.input;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.task.JobContextImpl;
+import org.apache.hadoop.util.StringUtils;
+import org.apache.log4j.Logger;
+
+import com.pivotal.hawq.mapreduce.HAWQInputFormat;
+import com.pivotal.hawq.mapreduce.HAWQRecord;
+
+/**
+ * Wraps the {@link HAWQInputFormat} to read some of the leaf partitions of a
+ * partitioned table, which HAWQInputFormat would read as a single table. The
+ * splits of each partition are found separately and read as one input, so a
+ * job that needs a few partitions of a large table only reads those.<br>
+ * <br>
+ * Configure the job with
+ * {@link #setInput(Configuration, String, String, String, String, String[])}
+ * in place of HAWQInputFormat's own setInput. Every partition is read with the
+ * schema and storage options of the table given there, so partitions with
+ * different storage options, such as compression, should be read separately.
+ */
+public class HawqPartitionInputFormat extends InputFormat<Object, HAWQRecord> {
+
+	private static final Logger LOG = Logger
+			.getLogger(HawqPartitionInputFormat.class);
+
+	public static final String PARTITIONS = "hawq.input.format.partitions";
+	public static final String URL = "hawq.input.format.url";
+	public static final String USER = "hawq.input.format.user";
+	public static final String PASSWORD = "hawq.input.format.password";
+
+	@SuppressWarnings("rawtypes")
+	private InputFormat delegate = new HAWQInputFormat();
+
+	/**
+	 * Sets the table to read, and optionally the partitions of it to read
+	 *
+	 * @param conf
+	 *            The job configuration
+	 * @param url
+	 *            The database, as <code>host:port/database</code>
+	 * @param user
+	 *            The user to connect as, or null
+	 * @param password
+	 *            The password of the user, or null
+	 * @param table
+	 *            The table to read. When partitions are given, its schema and
+	 *            storage options are used to read them.
+	 * @param partitions
+	 *            The partition tables to read, qualified by their schema, or
+	 *            null to read the table itself. May be empty to read nothing.
+	 * @throws IOException
+	 */
+	public static void setInput(Configuration conf, String url, String user,
+			String password, String table, String[] partitions)
+			throws IOException {
+		try {
+			HAWQInputFormat.setInput(conf, url, user, password, table);
+		} catch (Exception e) {
+			throw new IOException(e);
+		}
+
+		if (partitions == null) {
+			conf.unset(PARTITIONS);
+			return;
+		}
+
+		conf.set(PARTITIONS, StringUtils.arrayToString(partitions));
+		conf.set(URL, url);
+
+		if (user != null) {
+			conf.set(USER, user);
+		}
+
+		if (password != null) {
+			conf.set(PASSWORD, password);
+		}
+	}
+
+	/**
+	 * Gets the partitions to read
+	 *
+	 * @param conf
+	 *            The job configuration
+	 * @return The partition tables, or null if the table is read itself
+	 */
+	public static String[] getPartitions(Configuration conf) {
+		String value = conf.get(PARTITIONS);
+		if (value == null) {
+			return null;
+		}
+
+		return value.isEmpty() ? new String[0] : value.split(",");
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<InputSplit> getSplits(JobContext context) throws IOException,
+			InterruptedException {
+		Configuration conf = context.getConfiguration();
+		String[] partitions = getPartitions(conf);
+		if (partitions == null) {
+			return delegate.getSplits(context);
+		}
+
+		List<InputSplit> splits = new ArrayList<InputSplit>();
+		for (String partition : partitions) {
+			// Each partition's metadata is read into its own configuration
+			Configuration partConf = new Configuration(conf);
+			try {
+				HAWQInputFormat.setInput(partConf, conf.get(URL),
+						conf.get(USER), conf.get(PASSWORD), partition);
+			} catch (Exception e) {
+				throw new IOException("Failed to read partition " + partition,
+						e);
+			}
+
+			splits.addAll(delegate.getSplits(new JobContextImpl(partConf,
+					context.getJobID())));
+		}
+
+		LOG.info("Read " + splits.size() + " splits from " + partitions.length
+				+ " partitions");
+		return splits;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public RecordReader<Object, HAWQRecord> createRecordReader(
+			InputSplit split, TaskAttemptContext context) throws IOException,
+			InterruptedException {
+		return delegate.createRecordReader(split, context);
+	}
+}
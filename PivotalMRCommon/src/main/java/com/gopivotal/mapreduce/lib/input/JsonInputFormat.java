@@ -1,15 +1,18 @@
 package com.gopivotal.mapreduce.lib.input;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
 import java.security.InvalidParameterException;
 
+import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
-import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counter;
 import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.RecordReader;
@@ -17,6 +20,7 @@ import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.input.FileSplit;
 import org.apache.hadoop.mapreduce.lib.input.LineRecordReader;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
 import org.apache.log4j.Logger;
 import org.codehaus.jackson.JsonFactory;
 import org.codehaus.jackson.JsonNode;
@@ -24,7 +28,9 @@ import org.codehaus.jackson.JsonParseException;
 import org.codehaus.jackson.map.JsonMappingException;
 import org.codehaus.jackson.map.ObjectMapper;
 
-import com.gopivotal.io.JsonStreamReader;
+import com.gopivotal.io.JsonRecordScanner;
+import com.gopivotal.io.JsonRecordValidator;
+import com.gopivotal.io.JsonRecordValidator.Mode;
 
 /**
  * The JsonInputFormat will read two types of JSON formatted data. The default
@@ -35,57 +41,118 @@ import com.gopivotal.io.JsonStreamReader;
  * method is likely slower, but respects record boundaries much like the
  * LineRecordReader.<br>
  * <br>
- * Use of the 'pretty print' reader requires a record identifier.
+ * Use of the 'pretty print' reader requires a record identifier, which must
+ * only appear at the root of each record, never nested in a record or as a
+ * string value. Records read by the 'pretty print' reader are validated
+ * according to
+ * {@link JsonInputFormat#setValidationMode(Job, Mode)}, and any malformed
+ * records are counted under {@link Counters#MALFORMED_RECORDS}.
  */
 public class JsonInputFormat extends FileInputFormat<Text, NullWritable> {
 
+	private static final Logger LOG = Logger.getLogger(JsonInputFormat.class);
+
 	private static JsonFactory factory = new JsonFactory();
 	private static ObjectMapper mapper = new ObjectMapper(factory);
 
 	public static final String ONE_RECORD_PER_LINE = "json.input.format.one.record.per.line";
 	public static final String RECORD_IDENTIFIER = "json.input.format.record.identifier";
+	public static final String VALIDATION_MODE = "json.input.format.validation.mode";
+	public static final String BUFFER_SIZE = "json.input.format.buffer.size";
+	public static final String RECORD_DELIMITER = "json.input.format.record.delimiter";
+
+	public static enum Counters {
+		MALFORMED_RECORDS
+	}
 
 	@Override
 	public RecordReader<Text, NullWritable> createRecordReader(
 			InputSplit split, TaskAttemptContext context) throws IOException,
 			InterruptedException {
-		RecordReader<Text, NullWritable> rdr;
+		// the framework initializes the reader before it is used
 		if (context.getConfiguration().getBoolean(ONE_RECORD_PER_LINE, true)) {
-			rdr = new SimpleJsonRecordReader();
+			return new SimpleJsonRecordReader();
 		} else {
 			return new JsonRecordReader();
 		}
-		rdr.initialize(split, context);
-		return rdr;
 	}
 
 	/**
 	 * This class uses the {@link LineRecordReader} to read a line of JSON and
-	 * return it as a Text object.
+	 * return it as a Text object. The key is the line reader's own value
+	 * object, so no bytes are copied per record. It is only valid until the
+	 * next call to {@link #nextKeyValue()}. Empty records are skipped.<br>
+	 * <br>
+	 * The read buffer size and record delimiter can be set with
+	 * {@link JsonInputFormat#setBufferSize(Job, int)} and
+	 * {@link JsonInputFormat#setRecordDelimiter(Job, String)}.
 	 */
 	public static class SimpleJsonRecordReader extends
 			RecordReader<Text, NullWritable> {
 
-		private LineRecordReader rdr = null;
-		private Text outkey = new Text();
+		private static final Charset UTF8 = Charset.forName("UTF-8");
+
+		private RecordReader<LongWritable, Text> rdr = null;
+		private StreamLineRecordReader lineRdr = null;
+		private Configuration lineConf = null;
 		private NullWritable outvalue = NullWritable.get();
 
 		@Override
 		public void initialize(InputSplit split, TaskAttemptContext context)
 				throws IOException, InterruptedException {
 
-			rdr = new LineRecordReader();
-			rdr.initialize(split, context);
+			Configuration conf = context.getConfiguration();
+
+			String delimiter = getRecordDelimiter(conf);
+			if (delimiter == null) {
+				rdr = new LineRecordReader();
+			} else {
+				rdr = new LineRecordReader(delimiter.getBytes(UTF8));
+			}
+
+			rdr.initialize(split, withBufferSize(context));
+		}
+
+		/**
+		 * Initializes this reader from a stream that is already positioned at
+		 * the start of the given split, such as one opened by the
+		 * {@link CombineFilePrefetcher}. The stream must not be compressed,
+		 * and is closed when this reader is closed. Calling this again for the
+		 * next stream re-uses the line reader and its buffer, so the reader
+		 * should be closed first.
+		 * 
+		 * @param strm
+		 *            The stream to read from
+		 * @param split
+		 *            The split the stream is positioned at
+		 * @param context
+		 *            The task context
+		 * @throws IOException
+		 */
+		public void initialize(InputStream strm, FileSplit split,
+				TaskAttemptContext context) throws IOException {
+
+			if (lineRdr == null) {
+				String delimiter = getRecordDelimiter(context
+						.getConfiguration());
+				lineRdr = new StreamLineRecordReader(delimiter == null ? null
+						: delimiter.getBytes(UTF8));
+				lineConf = withBufferSize(context).getConfiguration();
+			}
+
+			lineRdr.initialize(strm, split, lineConf);
+			rdr = lineRdr;
 		}
 
 		@Override
 		public boolean nextKeyValue() throws IOException, InterruptedException {
-			if (rdr.nextKeyValue()) {
-				outkey.set(rdr.getCurrentValue());
-				return true;
-			} else {
-				return false;
+			while (rdr.nextKeyValue()) {
+				if (rdr.getCurrentValue().getLength() != 0) {
+					return true;
+				}
 			}
+
+			return false;
 		}
 
 		@Override
@@ -94,13 +161,13 @@ public class JsonInputFormat extends FileInputFormat<Text, NullWritable> {
 		}
 
 		@Override
-		public float getProgress() throws IOException {
+		public float getProgress() throws IOException, InterruptedException {
 			return rdr.getProgress();
 		}
 
 		@Override
 		public Text getCurrentKey() throws IOException, InterruptedException {
-			return outkey;
+			return rdr.getCurrentValue();
 		}
 
 		@Override
@@ -108,27 +175,56 @@ public class JsonInputFormat extends FileInputFormat<Text, NullWritable> {
 				InterruptedException {
 			return outvalue;
 		}
+
+		/**
+		 * The line readers size their buffer from io.file.buffer.size, so a
+		 * configured buffer size is passed along in a copy of the
+		 * configuration.
+		 */
+		private TaskAttemptContext withBufferSize(TaskAttemptContext context) {
+			int bufferSize = getBufferSize(context.getConfiguration());
+			if (bufferSize > 0) {
+				Configuration copy = new Configuration(
+						context.getConfiguration());
+				copy.setInt("io.file.buffer.size", bufferSize);
+				return new TaskAttemptContextImpl(copy,
+						context.getTaskAttemptID());
+			} else {
+				return context;
+			}
+		}
 	}
 
 	/**
-	 * This class uses the {@link JsonStreamReader} to read JSON records from a
-	 * file. It respects split boundaries to complete full JSON records, as
-	 * specified by the root identifier. This class will discard any records
-	 * that it was unable to decode using
-	 * {@link JsonInputFormat#decodeLineToJsonNode(String)}
+	 * This class uses the {@link JsonRecordScanner} to read JSON records from a
+	 * file. It follows the same split contract as the
+	 * {@link LineRecordReader}. A record belongs to the split containing the
+	 * first byte of its root identifier, so the reader skips the partial record
+	 * at the start of its split and completes the record that straddles the
+	 * end of it. This class will discard any records that fail validation
+	 * with a {@link JsonRecordValidator}.<br>
+	 * <br>
+	 * Each record is read exactly once only if the identifier appears nowhere
+	 * but at the root of a record. A reader cannot tell where its split starts
+	 * in the nesting of the file, so a split that starts between a record's
+	 * identifier and a nested occurrence of it, such as a key that is also
+	 * used in a sub-object, returns the nested object as an extra record. The
+	 * same goes for a string value equal to the identifier.
 	 */
 	public static class JsonRecordReader extends
 			RecordReader<Text, NullWritable> {
 
 		private Logger LOG = Logger.getLogger(JsonRecordReader.class);
 
-		private JsonStreamReader rdr = null;
+		private JsonRecordScanner rdr = null;
 		private long start = 0, end = 0;
 		private float toRead = 0;
 		private String identifier = null;
 		private Logger log = Logger.getLogger(JsonRecordReader.class);
 		private Text outkey = new Text();
 		private NullWritable outvalue = NullWritable.get();
+		private JsonRecordValidator validator = null;
+		private Counter malformed = null;
 
 		@Override
 		public void initialize(InputSplit split, TaskAttemptContext context)
@@ -151,19 +247,57 @@ public class JsonInputFormat extends FileInputFormat<Text, NullWritable> {
 
 			log.info("File is " + file);
 
-			start = fSplit.getStart();
-			end = start + split.getLength();
-			toRead = end - start;
+			FSDataInputStream strm = file.getFileSystem(
+					context.getConfiguration()).open(file);
 
-			FSDataInputStream strm = FileSystem.get(context.getConfiguration())
-					.open(file);
+			if (fSplit.getStart() != 0) {
+				strm.seek(fSplit.getStart());
+			}
 
-			if (start != 0) {
-				strm.seek(start);
+			initialize(strm, fSplit, context);
+		}
+
+		/**
+		 * Initializes this reader from a stream that is already positioned at
+		 * the start of the given split, such as one opened by the
+		 * {@link CombineFilePrefetcher}. The stream must not be compressed,
+		 * and is closed when this reader is closed. Calling this again for the
+		 * next stream re-uses the scanner and its buffer, so the reader should
+		 * be closed first.
+		 * 
+		 * @param strm
+		 *            The stream to read from
+		 * @param split
+		 *            The split the stream is positioned at
+		 * @param context
+		 *            The task context
+		 * @throws IOException
+		 */
+		public void initialize(InputStream strm, FileSplit split,
+				TaskAttemptContext context) throws IOException {
+
+			if (this.identifier == null) {
+				this.identifier = context.getConfiguration().get(
+						RECORD_IDENTIFIER);
+
+				if (this.identifier == null || identifier.isEmpty()) {
+					throw new InvalidParameterException(
+							JsonInputFormat.RECORD_IDENTIFIER + " is not set.");
+				}
 			}
 
-			rdr = new JsonStreamReader(identifier,
-					new BufferedInputStream(strm));
+			start = split.getStart();
+			end = start + split.getLength();
+			toRead = end - start;
+
+			if (rdr == null) {
+				rdr = new JsonRecordScanner(identifier, strm);
+				validator = new JsonRecordValidator(
+						getValidationMode(context.getConfiguration()));
+				malformed = context.getCounter(Counters.MALFORMED_RECORDS);
+			} else {
+				rdr.reset(strm);
+			}
 		}
 
 		@Override
@@ -172,13 +306,14 @@ public class JsonInputFormat extends FileInputFormat<Text, NullWritable> {
 			boolean keepGoing = false;
 			do {
 				keepGoing = false;
-				String record = rdr.getJsonRecord();
-				if (record != null) {
-					if (JsonInputFormat.decodeLineToJsonNode(record) == null) {
-						keepGoing = true;
-					} else {
-						outkey.set(record);
+				if (rdr.next(outkey, end - start)) {
+					if (validator.isValid(outkey)) {
 						retval = true;
+					} else {
+						if (malformed != null) {
+							malformed.increment(1);
+						}
+						keepGoing = true;
 					}
 				}
 			} while (keepGoing);
@@ -193,7 +328,11 @@ public class JsonInputFormat extends FileInputFormat<Text, NullWritable> {
 
 		@Override
 		public float getProgress() throws IOException {
-			return (float) rdr.getBytesRead() / toRead;
+			if (toRead == 0) {
+				return 0.0f;
+			} else {
+				return Math.min(1.0f, rdr.getBytesRead() / toRead);
+			}
 		}
 
 		@Override
@@ -216,18 +355,18 @@ public class JsonInputFormat extends FileInputFormat<Text, NullWritable> {
 	 * @return The JsonNode or null if a JsonParseException,
 	 *         JsonMappingException, or IOException error occurs
 	 */
-	public static synchronized JsonNode decodeLineToJsonNode(String line) {
+	public static JsonNode decodeLineToJsonNode(String line) {
 
 		try {
 			return mapper.readTree(line);
 		} catch (JsonParseException e) {
-			e.printStackTrace();
+			LOG.debug("Failed to parse JSON record", e);
 			return null;
 		} catch (JsonMappingException e) {
-			e.printStackTrace();
+			LOG.debug("Failed to map JSON record", e);
 			return null;
 		} catch (IOException e) {
-			e.printStackTrace();
+			LOG.debug("Failed to read JSON record", e);
 			return null;
 		}
 	}
@@ -263,7 +402,10 @@ public class JsonInputFormat extends FileInputFormat<Text, NullWritable> {
 	 * Specifies a record identifier to be used with the
 	 * {@link JsonRecordReader}<br>
 	 * <br>
-	 * Must be set if {@link JsonInputFormat#setOneRecordPerLine} is false.
+	 * Must be set if {@link JsonInputFormat#setOneRecordPerLine} is false. The
+	 * identifier must not appear nested in a record or as a string value, or a
+	 * split that starts inside a record may return the nested object as an
+	 * extra record.
 	 * 
 	 * @param job
 	 *            The job to configure
@@ -284,4 +426,89 @@ public class JsonInputFormat extends FileInputFormat<Text, NullWritable> {
 	public static String getRecordIdentifier(Configuration conf) {
 		return conf.get(RECORD_IDENTIFIER);
 	}
+
+	/**
+	 * Sets how records read by the {@link JsonRecordReader} are validated.
+	 * NONE accepts every record, STREAMING checks every token without building
+	 * a tree, and FULL parses each record into a tree.<br>
+	 * <br>
+	 * Default is STREAMING.
+	 * 
+	 * @param job
+	 *            The job to configure
+	 * @param mode
+	 *            The validation mode
+	 */
+	public static void setValidationMode(Job job, Mode mode) {
+		job.getConfiguration().setEnum(VALIDATION_MODE, mode);
+	}
+
+	/**
+	 * Gets the validation mode
+	 * 
+	 * @param conf
+	 *            the Job configuration
+	 * @return The validation mode
+	 */
+	public static Mode getValidationMode(Configuration conf) {
+		return conf.getEnum(VALIDATION_MODE, Mode.STREAMING);
+	}
+
+	/**
+	 * Sets the size of the read buffer used by the
+	 * {@link SimpleJsonRecordReader}. Larger buffers mean fewer reads against
+	 * the underlying stream.<br>
+	 * <br>
+	 * Default is the value of io.file.buffer.size.
+	 * 
+	 * @param job
+	 *            The job to configure
+	 * @param bufferSize
+	 *            The buffer size, in bytes
+	 */
+	public static void setBufferSize(Job job, int bufferSize) {
+		job.getConfiguration().setInt(BUFFER_SIZE, bufferSize);
+	}
+
+	/**
+	 * Gets the size of the read buffer
+	 * 
+	 * @param conf
+	 *            the Job configuration
+	 * @return The buffer size, or -1 if not set
+	 */
+	public static int getBufferSize(Configuration conf) {
+		return conf.getInt(BUFFER_SIZE, -1);
+	}
+
+	/**
+	 * Sets the record delimiter used by the {@link SimpleJsonRecordReader},
+	 * such as the ASCII record separator (0x1E) used by JSON text sequences.
+	 * The delimiter is stored escaped so that control characters survive the
+	 * job configuration's XML form.<br>
+	 * <br>
+	 * Default is any of CR, LF, or CRLF.
+	 * 
+	 * @param job
+	 *            The job to configure
+	 * @param delimiter
+	 *            The record delimiter
+	 */
+	public static void setRecordDelimiter(Job job, String delimiter) {
+		job.getConfiguration().set(RECORD_DELIMITER,
+				StringEscapeUtils.escapeJava(delimiter));
+	}
+
+	/**
+	 * Gets the record delimiter
+	 * 
+	 * @param conf
+	 *            the Job configuration
+	 * @return The record delimiter or null if not set
+	 */
+	public static String getRecordDelimiter(Configuration conf) {
+		String delimiter = conf.get(RECORD_DELIMITER);
+		return delimiter == null ? null : StringEscapeUtils
+				.unescapeJava(delimiter);
+	}
 }
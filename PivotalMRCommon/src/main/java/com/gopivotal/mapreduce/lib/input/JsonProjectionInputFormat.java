@@ -0,0 +1,163 @@
+package com.gopivotal.mapreduce.lib.input;
+
+import java.io.IOException;
+import java.security.InvalidParameterException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.log4j.Logger;
+
+import com.gopivotal.io.JsonFieldProjector;
+import com.gopivotal.io.JsonRecordValidator.Mode;
+import com.gopivotal.io.JsonTupleWritable;
+import com.gopivotal.mapreduce.lib.input.JsonInputFormat.Counters;
+import com.gopivotal.mapreduce.lib.input.JsonInputFormat.JsonRecordReader;
+import com.gopivotal.mapreduce.lib.input.JsonInputFormat.SimpleJsonRecordReader;
+
+/**
+ * The JsonProjectionInputFormat reads JSON records the same way as the
+ * {@link JsonInputFormat}, but emits only a configured list of fields as a
+ * {@link JsonTupleWritable} instead of the raw record. Fields are extracted
+ * with a streaming parser and everything else in the record is skipped, so
+ * mappers do not need to parse each record again.<br>
+ * <br>
+ * Use {@link JsonInputFormat} to configure how records are read, and
+ * {@link JsonProjectionInputFormat#setProjection(Job, String...)} to set the
+ * fields. Records that are not valid JSON objects are discarded and counted
+ * under {@link Counters#MALFORMED_RECORDS}.
+ */
+public class JsonProjectionInputFormat extends
+		FileInputFormat<JsonTupleWritable, NullWritable> {
+
+	public static final String PROJECTION = "json.input.format.projection";
+
+	@Override
+	public RecordReader<JsonTupleWritable, NullWritable> createRecordReader(
+			InputSplit split, TaskAttemptContext context) throws IOException,
+			InterruptedException {
+		return new JsonProjectionRecordReader();
+	}
+
+	/**
+	 * This class wraps the {@link SimpleJsonRecordReader} or
+	 * {@link JsonRecordReader}, projecting each record it reads into a
+	 * {@link JsonTupleWritable}.
+	 */
+	public static class JsonProjectionRecordReader extends
+			RecordReader<JsonTupleWritable, NullWritable> {
+
+		private static final Logger LOG = Logger
+				.getLogger(JsonProjectionRecordReader.class);
+
+		private RecordReader<Text, NullWritable> rdr = null;
+		private JsonFieldProjector projector = null;
+		private JsonTupleWritable outkey = new JsonTupleWritable();
+		private NullWritable outvalue = NullWritable.get();
+		private Counter malformed = null;
+
+		@Override
+		public void initialize(InputSplit split, TaskAttemptContext context)
+				throws IOException, InterruptedException {
+
+			Configuration conf = context.getConfiguration();
+
+			String[] paths = getProjection(conf);
+			if (paths == null || paths.length == 0) {
+				throw new InvalidParameterException(PROJECTION
+						+ " is not set.");
+			}
+
+			LOG.info("Initializing JsonProjectionRecordReader with fields "
+					+ conf.get(PROJECTION));
+
+			projector = new JsonFieldProjector(paths);
+			malformed = context.getCounter(Counters.MALFORMED_RECORDS);
+
+			if (JsonInputFormat.getOneRecordPerLine(conf)) {
+				rdr = new SimpleJsonRecordReader();
+			} else {
+				rdr = new JsonRecordReader();
+			}
+
+			rdr.initialize(split, context);
+		}
+
+		@Override
+		public boolean nextKeyValue() throws IOException, InterruptedException {
+			while (rdr.nextKeyValue()) {
+				if (projector.project(rdr.getCurrentKey(), outkey)) {
+					return true;
+				} else if (malformed != null) {
+					malformed.increment(1);
+				}
+			}
+
+			return false;
+		}
+
+		@Override
+		public void close() throws IOException {
+			rdr.close();
+		}
+
+		@Override
+		public float getProgress() throws IOException, InterruptedException {
+			return rdr.getProgress();
+		}
+
+		@Override
+		public JsonTupleWritable getCurrentKey() throws IOException,
+				InterruptedException {
+			return outkey;
+		}
+
+		@Override
+		public NullWritable getCurrentValue() throws IOException,
+				InterruptedException {
+			return outvalue;
+		}
+	}
+
+	/**
+	 * Sets the fields to project from each record, as dot-separated paths of
+	 * object keys such as <code>user.id</code>. The fields are emitted in the
+	 * given order. A path may not be a prefix of another path.<br>
+	 * <br>
+	 * Because the projection rejects malformed records itself, this also sets
+	 * the validation mode of the {@link JsonRecordReader} to NONE so records
+	 * are not parsed twice, unless a mode has already been set with
+	 * {@link JsonInputFormat#setValidationMode(Job, Mode)}, which is kept.
+	 * 
+	 * @param job
+	 *            The job to configure
+	 * @param paths
+	 *            The paths of the fields to project
+	 */
+	public static void setProjection(Job job, String... paths) {
+		Configuration conf = job.getConfiguration();
+		conf.setStrings(PROJECTION, paths);
+
+		// only default the mode, so an explicit one is not silently lost
+		if (conf.get(JsonInputFormat.VALIDATION_MODE) == null) {
+			JsonInputFormat.setValidationMode(job, Mode.NONE);
+		}
+	}
+
+	/**
+	 * Gets the fields to project
+	 * 
+	 * @param conf
+	 *            the Job configuration
+	 * @return The paths of the fields, or null if not set
+	 */
+	public static String[] getProjection(Configuration conf) {
+		return conf.getStrings(PROJECTION);
+	}
+}
@@ -0,0 +1,166 @@
+package com.gopivotal.mapreduce.lib.input;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.LineRecordReader;
+import org.apache.log4j.Logger;
+
+import com.gopivotal.io.LineRecordScanner;
+
+/**
+ * A line reader with the same split contract as the {@link LineRecordReader},
+ * but which can read from a stream that has already been opened and
+ * positioned at the start of the split, such as one handed out by the
+ * {@link CombineFilePrefetcher}. The key is the byte offset of the line and
+ * the value is the line, without its delimiter.<br>
+ * <br>
+ * A reader may be initialized again with the next stream once it is done with
+ * the last one, re-using its buffer. This reader does not decompress its
+ * input.
+ */
+public class StreamLineRecordReader extends RecordReader<LongWritable, Text> {
+
+	private static final Logger LOG = Logger
+			.getLogger(StreamLineRecordReader.class);
+
+	public static final String MAX_LINE_LENGTH = "mapreduce.input.linerecordreader.line.maxlength";
+
+	private byte[] delimiter = null;
+	private LineRecordScanner in = null;
+	private long start = 0, pos = 0, end = 0;
+	private int maxLineLength = Integer.MAX_VALUE;
+	private LongWritable key = new LongWritable();
+	private Text value = new Text();
+
+	/**
+	 * Creates a reader for lines ending in any of CR, LF, or CRLF
+	 */
+	public StreamLineRecordReader() {
+	}
+
+	/**
+	 * Creates a reader for lines ending in the given delimiter
+	 *
+	 * @param delimiter
+	 *            The record delimiter, or null for CR, LF, or CRLF
+	 */
+	public StreamLineRecordReader(byte[] delimiter) {
+		this.delimiter = delimiter;
+	}
+
+	@Override
+	public void initialize(InputSplit split, TaskAttemptContext context)
+			throws IOException, InterruptedException {
+
+		FileSplit fSplit = (FileSplit) split;
+		Path file = fSplit.getPath();
+
+		FSDataInputStream strm = file.getFileSystem(
+				context.getConfiguration()).open(file);
+
+		if (fSplit.getStart() != 0) {
+			strm.seek(fSplit.getStart());
+		}
+
+		initialize(strm, fSplit, context.getConfiguration());
+	}
+
+	/**
+	 * Initializes this reader from a stream that is already positioned at the
+	 * start of the given split. The stream is closed when this reader is
+	 * closed. The read buffer is allocated on the first call and re-used by
+	 * later calls.
+	 *
+	 * @param strm
+	 *            The stream to read from
+	 * @param split
+	 *            The split the stream is positioned at
+	 * @param conf
+	 *            The job configuration
+	 * @throws IOException
+	 */
+	public void initialize(InputStream strm, FileSplit split,
+			Configuration conf) throws IOException {
+
+		maxLineLength = conf.getInt(MAX_LINE_LENGTH, Integer.MAX_VALUE);
+		int bufferSize = conf.getInt("io.file.buffer.size", 65536);
+
+		if (in == null) {
+			in = new LineRecordScanner(strm, bufferSize, delimiter);
+		} else {
+			in.reset(strm);
+		}
+
+		start = split.getStart();
+		end = start + split.getLength();
+
+		// the partial line at the start belongs to the previous split
+		if (start != 0) {
+			start += in.readLine(value, 0, maxBytesToConsume(start));
+		}
+
+		pos = start;
+	}
+
+	@Override
+	public boolean nextKeyValue() throws IOException, InterruptedException {
+		key.set(pos);
+
+		int newSize = 0;
+		while (pos <= end) {
+			newSize = in.readLine(value, maxLineLength,
+					Math.max(maxBytesToConsume(pos), maxLineLength));
+			pos += newSize;
+
+			if (newSize < maxLineLength) {
+				break;
+			}
+
+			LOG.info("Skipped line of size " + newSize + " at pos "
+					+ (pos - newSize));
+		}
+
+		return newSize != 0;
+	}
+
+	@Override
+	public LongWritable getCurrentKey() throws IOException,
+			InterruptedException {
+		return key;
+	}
+
+	@Override
+	public Text getCurrentValue() throws IOException, InterruptedException {
+		return value;
+	}
+
+	@Override
+	public float getProgress() throws IOException, InterruptedException {
+		if (start == end) {
+			return 0.0f;
+		} else {
+			return Math.min(1.0f, (pos - start) / (float) (end - start));
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (in != null) {
+			in.close();
+		}
+	}
+
+	private int maxBytesToConsume(long pos) {
+		return (int) Math.min(Integer.MAX_VALUE, end - pos);
+	}
+}
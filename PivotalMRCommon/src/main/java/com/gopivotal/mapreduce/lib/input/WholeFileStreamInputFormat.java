@@ -0,0 +1,97 @@
+package com.gopivotal.mapreduce.lib.input;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+import com.gopivotal.io.FileHandleWritable;
+
+/**
+ * A {@link FileInputFormat} implementation that passes the file name as the key
+ * and a {@link FileHandleWritable} as the value. Unlike the
+ * {@link WholeFileInputFormat}, no bytes are read until the mapper opens the
+ * handle, so files of any size can be streamed in constant memory. Use the
+ * {@link WholeFileInputFormat} for small files that are wanted in memory.
+ */
+public class WholeFileStreamInputFormat extends
+		FileInputFormat<Text, FileHandleWritable> {
+
+	@Override
+	public boolean isSplitable(JobContext context, Path p) {
+		return false;
+	}
+
+	@Override
+	public RecordReader<Text, FileHandleWritable> createRecordReader(
+			InputSplit arg0, TaskAttemptContext arg1) throws IOException,
+			InterruptedException {
+		return new WholeFileStreamRecordReader();
+	}
+
+	public static class WholeFileStreamRecordReader extends
+			RecordReader<Text, FileHandleWritable> {
+
+		private Text key = new Text();
+		private FileHandleWritable value = new FileHandleWritable();
+		private boolean read = false;
+		private FileSplit fSplit = null;
+		private Configuration conf = null;
+
+		@Override
+		public void close() throws IOException {
+			value.close();
+		}
+
+		@Override
+		public Text getCurrentKey() throws IOException, InterruptedException {
+			return key;
+		}
+
+		@Override
+		public FileHandleWritable getCurrentValue() throws IOException,
+				InterruptedException {
+			return value;
+		}
+
+		@Override
+		public float getProgress() throws IOException, InterruptedException {
+			return read ? 1 : 0;
+		}
+
+		@Override
+		public void initialize(InputSplit split, TaskAttemptContext context)
+				throws IOException, InterruptedException {
+			read = false;
+
+			fSplit = (FileSplit) split;
+			conf = context.getConfiguration();
+		}
+
+		@Override
+		public boolean nextKeyValue() throws IOException, InterruptedException {
+			if (!read) {
+
+				// set the key to the fully qualified path
+				Path path = fSplit.getPath().getFileSystem(conf)
+						.makeQualified(fSplit.getPath());
+				key.set(path.toString());
+
+				// the file is opened when the mapper asks for it
+				value.set(path, fSplit.getLength(), conf);
+
+				read = true;
+				return true;
+			} else {
+				return false;
+			}
+		}
+	}
+}
@@ -0,0 +1,34 @@
+package com.gopivotal.mapreduce.lib.output;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.Timestamp;
+
+import org.apache.hadoop.io.Text;
+
+/**
+ * Receives the typed columns of a {@link HawqWritable}, one call per column in
+ * the order of the columns of the table. Null objects are written as NULL.
+ */
+public interface HawqColumnWriter {
+
+	public void writeNull();
+
+	public void writeBoolean(boolean value);
+
+	public void writeInt(int value);
+
+	public void writeLong(long value);
+
+	public void writeDouble(double value);
+
+	public void writeBigDecimal(BigDecimal value);
+
+	public void writeString(String value);
+
+	public void writeText(Text value);
+
+	public void writeDate(Date value);
+
+	public void writeTimestamp(Timestamp value);
+}
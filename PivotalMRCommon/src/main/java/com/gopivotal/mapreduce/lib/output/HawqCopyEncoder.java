@@ -0,0 +1,536 @@
+package com.gopivotal.mapreduce.lib.output;
+
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.io.Text;
+
+/**
+ * Encodes delimited rows of text into the PostgreSQL COPY text or CSV format,
+ * appending them to a reusable byte buffer that can be handed to the COPY
+ * protocol as-is.<br>
+ * <br>
+ * When the input delimiter is a single ASCII character, which is the common
+ * case, rows are encoded straight from the bytes of the {@link Text} with no
+ * decoding or splitting. Other delimiters are treated as regular expressions,
+ * like the {@link HawqOutputFormat} does for inserts.<br>
+ * <br>
+ * In TEXT format, fields are separated by tabs, and backslashes, tabs, and line
+ * breaks in the data are escaped. An empty field is an empty string. In CSV
+ * format, fields are separated by commas and quoted only when needed. An empty
+ * field is NULL.<br>
+ * <br>
+ * Rows are split like {@link String#split(String)}, so trailing empty fields
+ * are dropped, exactly as the {@link HawqRowConverter} splits them for
+ * inserts. A row with one column is never split.<br>
+ * <br>
+ * Columns can also be mapped to input fields by index, so a subset of the
+ * fields of a wide row can be copied. A mapped row is valid if it has a field
+ * for every column, and its trailing empty fields are kept.<br>
+ * <br>
+ * Typed rows are encoded by writing their columns between
+ * {@link #startRow()} and {@link #endRow()}, or discarded with
+ * {@link #discardRow()} if writing them fails. Numbers, dates, and timestamps
+ * are written in their exact text form, and null objects are written as NULL.
+ */
+public class HawqCopyEncoder implements HawqColumnWriter {
+
+	public static enum Format {
+		TEXT, CSV
+	}
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final String REGEX_META = "\\[](){}.*+?^$|";
+
+	private Format format = null;
+	private int numColumns = 0;
+	private int delimiter = -1;
+	private Pattern pattern = null;
+	private int[] fields = null;
+	private int[] starts = null, ends = null;
+	private byte[] data = new byte[64 * 1024];
+	private int length = 0;
+	private int rowStart = 0, column = 0;
+
+	/**
+	 * Creates a new encoder
+	 *
+	 * @param format
+	 *            The COPY format to encode to
+	 * @param delimiter
+	 *            The delimiter of the input rows, as a regular expression
+	 * @param numColumns
+	 *            The number of columns in each row. A row with one column is
+	 *            never split.
+	 */
+	public HawqCopyEncoder(Format format, String delimiter, int numColumns) {
+		this.format = format;
+		this.numColumns = numColumns;
+		this.delimiter = toLiteral(delimiter);
+
+		if (this.delimiter < 0) {
+			pattern = Pattern.compile(delimiter);
+		}
+	}
+
+	/**
+	 * Creates a new encoder that takes each column from the given field of the
+	 * input rows
+	 *
+	 * @param format
+	 *            The COPY format to encode to
+	 * @param delimiter
+	 *            The delimiter of the input rows, as a regular expression
+	 * @param fields
+	 *            The zero-based index of the input field of each column
+	 */
+	public HawqCopyEncoder(Format format, String delimiter, int[] fields) {
+		this(format, delimiter, fields.length);
+		this.fields = fields;
+
+		int width = 0;
+		for (int field : fields) {
+			if (field < 0) {
+				throw new IllegalArgumentException("Field index " + field
+						+ " is negative");
+			}
+
+			width = Math.max(width, field + 1);
+		}
+
+		starts = new int[width];
+		ends = new int[width];
+	}
+
+	/**
+	 * Gets the options to append to the COPY statement for this format
+	 *
+	 * @return The COPY options, which may be empty
+	 */
+	public String getCopyOptions() {
+		return format == Format.CSV ? " WITH CSV" : "";
+	}
+
+	/**
+	 * Gets the number of columns in each row
+	 *
+	 * @return The number of columns
+	 */
+	public int getNumColumns() {
+		return numColumns;
+	}
+
+	/**
+	 * Encodes a row and appends it to the buffer
+	 *
+	 * @param row
+	 *            The delimited row
+	 * @return True if the row was encoded, false if it has the wrong number of
+	 *         fields, in which case the buffer is unchanged
+	 */
+	public boolean encode(Text row) {
+		if (this.fields != null) {
+			return encodeMapped(row);
+		}
+
+		int rowStart = length;
+		int fields = 1;
+
+		if (numColumns == 1) {
+			encodeField(row.getBytes(), 0, row.getLength());
+		} else if (delimiter >= 0) {
+			byte[] bytes = row.getBytes();
+			int end = row.getLength(), fieldStart = 0;
+
+			// the fields up to the last non-empty one, and where they end
+			int kept = 0, keptLength = length;
+
+			fields = 0;
+			for (int i = 0; i <= end; ++i) {
+				if (i == end || bytes[i] == delimiter) {
+					if (fields++ != 0) {
+						put(separator());
+					}
+
+					encodeField(bytes, fieldStart, i);
+					if (i > fieldStart) {
+						kept = fields;
+						keptLength = length;
+					}
+
+					fieldStart = i + 1;
+				}
+			}
+
+			// String.split drops trailing empty fields, but an empty row is
+			// one empty field
+			if (end > 0) {
+				fields = kept;
+				length = keptLength;
+			}
+		} else {
+			String[] tokens = pattern.split(row.toString());
+			for (int i = 0; i < tokens.length; ++i) {
+				if (i != 0) {
+					put(separator());
+				}
+
+				byte[] bytes = tokens[i].getBytes(UTF8);
+				encodeField(bytes, 0, bytes.length);
+			}
+
+			fields = tokens.length;
+		}
+
+		if (fields != numColumns) {
+			length = rowStart;
+			return false;
+		}
+
+		put((byte) '\n');
+		return true;
+	}
+
+	private boolean encodeMapped(Text row) {
+		final int width = starts.length;
+
+		if (delimiter < 0) {
+			String[] tokens = pattern.split(row.toString(), -1);
+			if (tokens.length < width) {
+				return false;
+			}
+
+			for (int i = 0; i < fields.length; ++i) {
+				if (i != 0) {
+					put(separator());
+				}
+
+				byte[] bytes = tokens[fields[i]].getBytes(UTF8);
+				encodeField(bytes, 0, bytes.length);
+			}
+		} else {
+			byte[] bytes = row.getBytes();
+			int end = row.getLength(), field = 0, fieldStart = 0;
+			for (int i = 0; i <= end && field < width; ++i) {
+				if (i == end || bytes[i] == delimiter) {
+					starts[field] = fieldStart;
+					ends[field] = i;
+					++field;
+					fieldStart = i + 1;
+				}
+			}
+
+			if (field < width) {
+				return false;
+			}
+
+			for (int i = 0; i < fields.length; ++i) {
+				if (i != 0) {
+					put(separator());
+				}
+
+				encodeField(bytes, starts[fields[i]], ends[fields[i]]);
+			}
+		}
+
+		put((byte) '\n');
+		return true;
+	}
+
+	/**
+	 * Starts a typed row, whose columns are then written with the methods of
+	 * {@link HawqColumnWriter}
+	 */
+	public void startRow() {
+		rowStart = length;
+		column = 0;
+	}
+
+	/**
+	 * Ends a typed row
+	 *
+	 * @return True if the row was encoded, false if it has the wrong number of
+	 *         columns, in which case the buffer is unchanged
+	 */
+	public boolean endRow() {
+		if (column != numColumns) {
+			length = rowStart;
+			return false;
+		}
+
+		put((byte) '\n');
+		return true;
+	}
+
+	/**
+	 * Discards the columns written since {@link #startRow()}, such as when
+	 * writing them failed part way through
+	 */
+	public void discardRow() {
+		length = rowStart;
+		column = 0;
+	}
+
+	@Override
+	public void writeNull() {
+		nextColumn();
+		if (format == Format.TEXT) {
+			put((byte) '\\');
+			put((byte) 'N');
+		}
+	}
+
+	@Override
+	public void writeBoolean(boolean value) {
+		nextColumn();
+		put(value ? (byte) 't' : (byte) 'f');
+	}
+
+	@Override
+	public void writeInt(int value) {
+		writeLong(value);
+	}
+
+	@Override
+	public void writeLong(long value) {
+		if (value == Long.MIN_VALUE) {
+			writeAscii(Long.toString(value));
+			return;
+		}
+
+		nextColumn();
+		if (value < 0) {
+			put((byte) '-');
+			value = -value;
+		}
+
+		// write the digits backwards, then reverse them
+		ensureCapacity(length + 19);
+		int start = length;
+		do {
+			data[length++] = (byte) ('0' + value % 10);
+			value /= 10;
+		} while (value != 0);
+
+		for (int i = start, j = length - 1; i < j; ++i, --j) {
+			byte b = data[i];
+			data[i] = data[j];
+			data[j] = b;
+		}
+	}
+
+	@Override
+	public void writeDouble(double value) {
+		writeAscii(Double.toString(value));
+	}
+
+	@Override
+	public void writeBigDecimal(BigDecimal value) {
+		if (value == null) {
+			writeNull();
+		} else {
+			writeAscii(value.toPlainString());
+		}
+	}
+
+	@Override
+	public void writeString(String value) {
+		if (value == null) {
+			writeNull();
+		} else {
+			byte[] bytes = value.getBytes(UTF8);
+			writeBytes(bytes, 0, bytes.length);
+		}
+	}
+
+	@Override
+	public void writeText(Text value) {
+		if (value == null) {
+			writeNull();
+		} else {
+			writeBytes(value.getBytes(), 0, value.getLength());
+		}
+	}
+
+	@Override
+	public void writeDate(Date value) {
+		if (value == null) {
+			writeNull();
+		} else {
+			writeAscii(value.toString());
+		}
+	}
+
+	@Override
+	public void writeTimestamp(Timestamp value) {
+		if (value == null) {
+			writeNull();
+		} else {
+			writeAscii(value.toString());
+		}
+	}
+
+	private void nextColumn() {
+		if (column++ != 0) {
+			put(separator());
+		}
+	}
+
+	private void writeBytes(byte[] bytes, int start, int end) {
+		nextColumn();
+
+		// an empty CSV field is NULL, so empty strings are quoted
+		if (format == Format.CSV && start == end) {
+			put((byte) '"');
+			put((byte) '"');
+		} else {
+			encodeField(bytes, start, end);
+		}
+	}
+
+	private void writeAscii(String value) {
+		nextColumn();
+		ensureCapacity(length + value.length());
+		for (int i = 0; i < value.length(); ++i) {
+			data[length++] = (byte) value.charAt(i);
+		}
+	}
+
+	/**
+	 * Gets the buffer of encoded rows. Only the first {@link #getLength()}
+	 * bytes are valid.
+	 *
+	 * @return The buffer
+	 */
+	public byte[] getData() {
+		return data;
+	}
+
+	/**
+	 * Gets the number of encoded bytes in the buffer
+	 *
+	 * @return The number of bytes
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Empties the buffer, keeping its capacity
+	 */
+	public void reset() {
+		length = 0;
+	}
+
+	private byte separator() {
+		return format == Format.CSV ? (byte) ',' : (byte) '\t';
+	}
+
+	private void encodeField(byte[] bytes, int start, int end) {
+		if (format == Format.CSV) {
+			encodeCsvField(bytes, start, end);
+		} else {
+			encodeTextField(bytes, start, end);
+		}
+	}
+
+	private void encodeTextField(byte[] bytes, int start, int end) {
+		ensureCapacity(length + (end - start) * 2);
+
+		final byte[] buf = data;
+		int n = length;
+		for (int i = start; i < end; ++i) {
+			byte b = bytes[i];
+			switch (b) {
+			case '\\':
+				buf[n++] = '\\';
+				buf[n++] = '\\';
+				break;
+			case '\t':
+				buf[n++] = '\\';
+				buf[n++] = 't';
+				break;
+			case '\n':
+				buf[n++] = '\\';
+				buf[n++] = 'n';
+				break;
+			case '\r':
+				buf[n++] = '\\';
+				buf[n++] = 'r';
+				break;
+			default:
+				buf[n++] = b;
+				break;
+			}
+		}
+		length = n;
+	}
+
+	private void encodeCsvField(byte[] bytes, int start, int end) {
+		boolean quote = end - start == 2 && bytes[start] == '\\'
+				&& bytes[start + 1] == '.';
+
+		for (int i = start; i < end && !quote; ++i) {
+			byte b = bytes[i];
+			quote = b == ',' || b == '"' || b == '\n' || b == '\r';
+		}
+
+		if (!quote) {
+			ensureCapacity(length + end - start);
+			System.arraycopy(bytes, start, data, length, end - start);
+			length += end - start;
+			return;
+		}
+
+		ensureCapacity(length + (end - start) * 2 + 2);
+
+		final byte[] buf = data;
+		int n = length;
+		buf[n++] = '"';
+		for (int i = start; i < end; ++i) {
+			if (bytes[i] == '"') {
+				buf[n++] = '"';
+			}
+			buf[n++] = bytes[i];
+		}
+		buf[n++] = '"';
+		length = n;
+	}
+
+	private void put(byte b) {
+		ensureCapacity(length + 1);
+		data[length++] = b;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (data.length < capacity) {
+			data = Arrays.copyOf(data, Math.max(capacity, data.length * 2));
+		}
+	}
+
+	/**
+	 * Gets the single ASCII character a regular expression matches, such as
+	 * <code>\|</code> or <code>,</code>
+	 *
+	 * @param regex
+	 *            The regular expression
+	 * @return The character, or -1 if the expression is anything else
+	 */
+	static int toLiteral(String regex) {
+		char c;
+		if (regex.length() == 1 && REGEX_META.indexOf(regex.charAt(0)) < 0) {
+			c = regex.charAt(0);
+		} else if (regex.length() == 2 && regex.charAt(0) == '\\'
+				&& REGEX_META.indexOf(regex.charAt(1)) >= 0) {
+			c = regex.charAt(1);
+		} else {
+			return -1;
+		}
+
+		return c < 0x80 ? c : -1;
+	}
+}
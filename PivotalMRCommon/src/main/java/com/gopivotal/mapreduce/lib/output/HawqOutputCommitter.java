@@ -0,0 +1,375 @@
+package com.gopivotal.mapreduce.lib.output;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.JobID;
+import org.apache.hadoop.mapreduce.JobStatus.State;
+import org.apache.hadoop.mapreduce.MRJobConfig;
+import org.apache.hadoop.mapreduce.OutputCommitter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.TaskType;
+import org.apache.log4j.Logger;
+
+/**
+ * An {@link OutputCommitter} that makes the rows written by a
+ * {@link HawqOutputFormat} appear in the table exactly once, even when task
+ * attempts fail, are retried, or are run speculatively. Enabled by
+ * {@link HawqOutputFormat#setStaging(org.apache.hadoop.mapreduce.Job, boolean)}
+ * .<br>
+ * <br>
+ * Each task attempt writes into its own staging table, created with
+ * <code>CREATE TABLE ... (LIKE table INCLUDING DEFAULTS)</code> in the schema
+ * of the table, so columns that are not written get their defaults. When
+ * the framework lets an attempt commit, its staging table is renamed to the
+ * staging table of the task, replacing any left by an earlier committed
+ * attempt. When the job commits, the rows of every task staging table are
+ * inserted into the table in a single transaction and the staging tables are
+ * dropped, along with those of attempts that never committed.<br>
+ * <br>
+ * Staging tables are named after the table and the job, task, and attempt IDs,
+ * so the table name should be unquoted and short enough to leave room for
+ * them within HAWQ's identifier limit of 63 bytes. HAWQ would silently
+ * truncate a longer name, and the tables of two tasks could then share one.
+ * The job therefore fails when it is set up if the names of its last tasks
+ * would not fit with a three-digit attempt ID, which leaves room for the
+ * speculative and killed attempts that are not counted against the attempt
+ * limit. This check is best effort, so a task whose name does not fit still
+ * fails before it creates or drops a table.
+ */
+public class HawqOutputCommitter extends OutputCommitter {
+
+	private static final Logger LOG = Logger
+			.getLogger(HawqOutputCommitter.class);
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final String ATTEMPT_INFIX = "_att_";
+	private static final String TASK_INFIX = "_stg_";
+
+	/**
+	 * The longest identifier HAWQ keeps, in bytes
+	 */
+	public static final int MAX_IDENTIFIER_LENGTH = 63;
+
+	// the attempt ID the names are checked with when the job is set up
+	private static final int MIN_CHECKED_ATTEMPT = 999;
+
+	/**
+	 * Gets the staging table a task attempt writes into
+	 *
+	 * @param conf
+	 *            The job configuration
+	 * @param id
+	 *            The task attempt
+	 * @return The staging table, qualified by the schema of the table if it is
+	 */
+	public static String getAttemptTable(Configuration conf, TaskAttemptID id) {
+		return HawqOutputFormat.getTable(conf) + ATTEMPT_INFIX
+				+ getJobSuffix(id.getJobID()) + "_" + getTaskSuffix(id) + "_"
+				+ id.getId();
+	}
+
+	/**
+	 * Gets the staging table a committed task attempt is renamed to
+	 *
+	 * @param conf
+	 *            The job configuration
+	 * @param id
+	 *            Any attempt of the task
+	 * @return The staging table, qualified by the schema of the table if it is
+	 */
+	public static String getTaskTable(Configuration conf, TaskAttemptID id) {
+		return HawqOutputFormat.getTable(conf) + TASK_INFIX
+				+ getJobSuffix(id.getJobID()) + "_" + getTaskSuffix(id);
+	}
+
+	private static String getJobSuffix(JobID id) {
+		return id.getJtIdentifier() + "_" + id.getId();
+	}
+
+	private static String getTaskSuffix(TaskAttemptID id) {
+		return (id.getTaskType() == TaskType.MAP ? "m" : "r")
+				+ id.getTaskID().getId();
+	}
+
+	/**
+	 * Checks that a staging table name fits in an identifier, so HAWQ will not
+	 * truncate it into the name of another task's table
+	 *
+	 * @param table
+	 *            The staging table, qualified by its schema or not
+	 * @throws IOException
+	 *             If the name is too long
+	 */
+	static void checkLength(String table) throws IOException {
+		if (!fits(table)) {
+			throw new IOException("Staging table name " + unqualified(table)
+					+ " is longer than " + MAX_IDENTIFIER_LENGTH
+					+ " bytes, use a shorter table name");
+		}
+	}
+
+	static boolean fits(String table) {
+		return unqualified(table).getBytes(UTF8).length
+				<= MAX_IDENTIFIER_LENGTH;
+	}
+
+	@Override
+	public void setupJob(JobContext context) throws IOException {
+		// staging tables are created by each task, but the names of the last
+		// ones are the longest, so fail now if they would be truncated.
+		// Speculative and killed attempts go past the attempt limit, so
+		// leave room for more.
+		Configuration conf = context.getConfiguration();
+		JobID job = context.getJobID();
+
+		checkLength(getAttemptTable(conf, new TaskAttemptID(
+				job.getJtIdentifier(), job.getId(), TaskType.MAP, Math.max(0,
+						conf.getInt(MRJobConfig.NUM_MAPS, 1) - 1), Math.max(
+						MIN_CHECKED_ATTEMPT,
+						conf.getInt(MRJobConfig.MAP_MAX_ATTEMPTS, 4)))));
+
+		checkLength(getAttemptTable(conf, new TaskAttemptID(
+				job.getJtIdentifier(), job.getId(), TaskType.REDUCE, Math.max(
+						0, conf.getInt(MRJobConfig.NUM_REDUCES, 1) - 1),
+				Math.max(MIN_CHECKED_ATTEMPT,
+						conf.getInt(MRJobConfig.REDUCE_MAX_ATTEMPTS, 4)))));
+	}
+
+	@Override
+	public void setupTask(TaskAttemptContext context) throws IOException {
+		// the staging table is created with the record writer
+	}
+
+	/**
+	 * Creates the staging table of a task attempt, replacing any left over
+	 * from an earlier run
+	 *
+	 * @param context
+	 *            The task attempt
+	 * @throws IOException
+	 */
+	public static void createAttemptTable(TaskAttemptContext context)
+			throws IOException {
+		Configuration conf = context.getConfiguration();
+		String attemptTable = getAttemptTable(conf,
+				context.getTaskAttemptID());
+		checkLength(attemptTable);
+
+		execute(conf, "DROP TABLE IF EXISTS " + attemptTable, "CREATE TABLE "
+				+ attemptTable + " (LIKE " + HawqOutputFormat.getTable(conf)
+				+ " INCLUDING DEFAULTS)");
+	}
+
+	@Override
+	public boolean needsTaskCommit(TaskAttemptContext context)
+			throws IOException {
+		return true;
+	}
+
+	@Override
+	public void commitTask(TaskAttemptContext context) throws IOException {
+		Configuration conf = context.getConfiguration();
+		TaskAttemptID id = context.getTaskAttemptID();
+		String taskTable = getTaskTable(conf, id);
+		checkLength(getAttemptTable(conf, id));
+
+		// RENAME TO takes a name without the schema
+		execute(conf, "DROP TABLE IF EXISTS " + taskTable, "ALTER TABLE "
+				+ getAttemptTable(conf, id) + " RENAME TO "
+				+ unqualified(taskTable));
+	}
+
+	@Override
+	public void abortTask(TaskAttemptContext context) throws IOException {
+		Configuration conf = context.getConfiguration();
+		String attemptTable = getAttemptTable(conf, context.getTaskAttemptID());
+
+		// a name that is too long was never created, and would drop another
+		if (!fits(attemptTable)) {
+			return;
+		}
+
+		execute(conf, "DROP TABLE IF EXISTS " + attemptTable);
+	}
+
+	@Override
+	public void commitJob(JobContext context) throws IOException {
+		Configuration conf = context.getConfiguration();
+		String table = HawqOutputFormat.getTable(conf);
+
+		List<String> statements = new ArrayList<String>();
+		for (String taskTable : findTables(context, TASK_INFIX)) {
+			statements.add("INSERT INTO " + table + " SELECT * FROM "
+					+ taskTable);
+			statements.add("DROP TABLE " + taskTable);
+		}
+
+		for (String attemptTable : findTables(context, ATTEMPT_INFIX)) {
+			statements.add("DROP TABLE " + attemptTable);
+		}
+
+		LOG.info("Committing " + statements.size() + " statements");
+		execute(conf, statements.toArray(new String[0]));
+	}
+
+	@Override
+	public void abortJob(JobContext context, State state) throws IOException {
+		Configuration conf = context.getConfiguration();
+
+		List<String> statements = new ArrayList<String>();
+		for (String taskTable : findTables(context, TASK_INFIX)) {
+			statements.add("DROP TABLE " + taskTable);
+		}
+
+		for (String attemptTable : findTables(context, ATTEMPT_INFIX)) {
+			statements.add("DROP TABLE " + attemptTable);
+		}
+
+		execute(conf, statements.toArray(new String[0]));
+	}
+
+	/**
+	 * Finds the staging tables of the job with the given infix
+	 *
+	 * @return The staging tables, qualified by their schema
+	 */
+	private List<String> findTables(JobContext context, String infix)
+			throws IOException {
+		Configuration conf = context.getConfiguration();
+		String table = HawqOutputFormat.getTable(conf);
+
+		String schema = null;
+		int dot = table.indexOf('.');
+		if (dot >= 0) {
+			schema = table.substring(0, dot);
+		}
+
+		String prefix = (unqualified(table) + infix + getJobSuffix(context
+				.getJobID())).toLowerCase() + "_";
+
+		List<String> tables = new ArrayList<String>();
+		Connection client = null;
+		ResultSet set = null;
+		try {
+			client = connect(conf);
+			DatabaseMetaData data = client.getMetaData();
+
+			// escape the underscores, which are wildcards to the catalog
+			String escape = data.getSearchStringEscape();
+			String pattern = prefix.replace("_", escape + "_") + "%";
+			set = data.getTables(null, schema == null ? null : schema
+					.toLowerCase(), pattern, new String[] { "TABLE" });
+
+			while (set.next()) {
+				tables.add(set.getString("TABLE_SCHEM") + "."
+						+ set.getString("TABLE_NAME"));
+			}
+		} catch (SQLException e) {
+			LOG.error(e);
+			throw new IOException(e);
+		} finally {
+			close(set, client);
+		}
+
+		return tables;
+	}
+
+	/**
+	 * Executes the statements in a single transaction
+	 */
+	private static void execute(Configuration conf, String... statements)
+			throws IOException {
+		if (statements.length == 0) {
+			return;
+		}
+
+		Connection client = null;
+		Statement stmt = null;
+		try {
+			client = connect(conf);
+			client.setAutoCommit(false);
+			stmt = client.createStatement();
+
+			for (String sql : statements) {
+				LOG.info("Executing: " + sql);
+				stmt.execute(sql);
+			}
+
+			client.commit();
+		} catch (SQLException e) {
+			LOG.error(e);
+			if (client != null) {
+				try {
+					client.rollback();
+				} catch (SQLException e1) {
+					LOG.error(e1);
+				}
+			}
+			throw new IOException(e);
+		} finally {
+			try {
+				if (stmt != null) {
+					stmt.close();
+				}
+			} catch (SQLException e) {
+				LOG.error(e);
+			}
+			close(null, client);
+		}
+	}
+
+	private static Connection connect(Configuration conf) throws SQLException {
+		try {
+			// Load JDBC driver for Postgres
+			Class.forName("org.postgresql.Driver");
+		} catch (ClassNotFoundException e) {
+			throw new SQLException("Postgres JDBC driver not on classpath");
+		}
+
+		String user = HawqOutputFormat.getUser(conf);
+		String password = HawqOutputFormat.getPassword(conf);
+
+		Properties props = new Properties();
+		if (user != null && password != null) {
+			props.setProperty("user", user);
+			props.setProperty("password", password);
+		}
+
+		return DriverManager.getConnection(
+				"jdbc:postgresql://" + HawqOutputFormat.getHost(conf) + ":"
+						+ HawqOutputFormat.getPort(conf) + "/"
+						+ HawqOutputFormat.getDatabase(conf), props);
+	}
+
+	private static void close(ResultSet set, Connection client) {
+		try {
+			if (set != null) {
+				set.close();
+			}
+
+			if (client != null) {
+				client.close();
+			}
+		} catch (SQLException e) {
+			LOG.error(e);
+		}
+	}
+
+	static String unqualified(String table) {
+		return table.substring(table.indexOf('.') + 1);
+	}
+}
@@ -1,32 +1,56 @@
 package com.gopivotal.mapreduce.lib.output;
 
 import java.io.IOException;
-import java.math.BigDecimal;
 import java.sql.Connection;
-import java.sql.Date;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
-import java.sql.Time;
-import java.sql.Timestamp;
-import java.sql.Types;
+import java.util.LinkedList;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.Pattern;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapreduce.Counter;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.MRJobConfig;
 import org.apache.hadoop.mapreduce.OutputCommitter;
 import org.apache.hadoop.mapreduce.OutputFormat;
 import org.apache.hadoop.mapreduce.RecordWriter;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
 import org.apache.hadoop.mapreduce.lib.output.NullOutputFormat;
 import org.apache.log4j.Logger;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+import com.gopivotal.mapreduce.lib.output.HawqCopyEncoder.Format;
+import com.gopivotal.mapreduce.util.HawqColumn;
+import com.gopivotal.mapreduce.util.HawqUtil;
 
 /**
  * A HAWQ output format that uses a JDBC connection. Not intended to be faster
  * than gpfdist or PXF, but instead to ingest small data sets into HAWQ directly
- * from MapReduce.
+ * from MapReduce.<br>
+ * <br>
+ * By default, rows are written with batched INSERT statements. For mid-sized
+ * data sets, {@link HawqOutputFormat#setMode(Job, Mode)} can be set to COPY to
+ * stream rows through the COPY protocol instead, which is much faster.<br>
+ * <br>
+ * Inserted rows are sent in batches bounded by
+ * {@link HawqOutputFormat#setBatchRows(Job, int)} and
+ * {@link HawqOutputFormat#setBatchBytes(Job, long)}, so memory use does not
+ * grow with the number of rows a task writes. Both writers report their
+ * progress under {@link Counters}.
  */
 public class HawqOutputFormat extends OutputFormat<Text, Object> {
 
@@ -37,7 +61,30 @@ public class HawqOutputFormat extends OutputFormat<Text, Object> {
 	public static final String HOST = "mapreduce.hawq.output.format.host";
 	public static final String PORT = "mapreduce.hawq.output.format.port";
 	public static final String TYPES = "mapreduce.hawq.output.format.types";
+	public static final String COLUMNS = "mapreduce.hawq.output.format.columns";
+	public static final String COLUMN_NAMES = "mapreduce.hawq.output.format.column.names";
+	public static final String INPUT_FIELDS = "mapreduce.hawq.output.format.input.fields";
 	public static final String DELIMITER = "mapreduce.hawq.output.format.delimiter";
+	public static final String MODE = "mapreduce.hawq.output.format.mode";
+	public static final String COPY_FORMAT = "mapreduce.hawq.output.format.copy.format";
+
+	public static final String BATCH_ROWS = "mapreduce.hawq.output.format.batch.rows";
+	public static final String BATCH_BYTES = "mapreduce.hawq.output.format.batch.bytes";
+	public static final String COMMIT_BATCHES = "mapreduce.hawq.output.format.commit.batches";
+	public static final String ASYNC_BATCHES = "mapreduce.hawq.output.format.async.batches";
+	public static final String CONNECTIONS = "mapreduce.hawq.output.format.connections";
+	public static final String PARTITION_COLUMN = "mapreduce.hawq.output.format.partition.column";
+	public static final String REJECT_LIMIT = "mapreduce.hawq.output.format.reject.limit";
+	public static final String REJECT_DIR = "mapreduce.hawq.output.format.reject.dir";
+	public static final String STAGING = "mapreduce.hawq.output.format.staging";
+
+	public static enum Mode {
+		INSERT, COPY
+	}
+
+	public static enum Counters {
+		BATCHES, ROWS, FLUSH_MILLIS, REJECTED_ROWS
+	}
 
 	public static void setDatabase(Job job, String database) {
 		job.getConfiguration().set(DATABASE, database);
@@ -55,6 +102,44 @@ public class HawqOutputFormat extends OutputFormat<Text, Object> {
 		return conf.get(TABLE);
 	}
 
+	/**
+	 * Sets whether task attempts write into staging tables that are moved into
+	 * the table when the job commits, so rows are written exactly once and
+	 * speculative execution can stay on. See {@link HawqOutputCommitter}.<br>
+	 * <br>
+	 * Default is false, where every task commits straight into the table.
+	 * 
+	 * @param job
+	 *            The job to configure
+	 * @param staging
+	 *            True to write through staging tables
+	 */
+	public static void setStaging(Job job, boolean staging) {
+		job.getConfiguration().setBoolean(STAGING, staging);
+	}
+
+	public static boolean isStaging(Configuration conf) {
+		return conf.getBoolean(STAGING, false);
+	}
+
+	/**
+	 * Gets the table the current task writes into, which is its staging table
+	 * if {@link #setStaging(Job, boolean)} is set
+	 * 
+	 * @param conf
+	 *            The task configuration
+	 * @return The table
+	 */
+	public static String getOutputTable(Configuration conf) {
+		if (isStaging(conf)) {
+			TaskAttemptID id = TaskAttemptID.forName(conf
+					.get(MRJobConfig.TASK_ATTEMPT_ID));
+			return HawqOutputCommitter.getAttemptTable(conf, id);
+		} else {
+			return getTable(conf);
+		}
+	}
+
 	public static void setUser(Job job, String user) {
 		job.getConfiguration().set(USER, user);
 	}
@@ -116,6 +201,141 @@ public class HawqOutputFormat extends OutputFormat<Text, Object> {
 		return retval;
 	}
 
+	/**
+	 * Sets the columns of the table, as read from the catalog by
+	 * {@link HawqUtil#getColumns(String, String, String, String)}. This also
+	 * sets the column types, so tasks never need to read the catalog.
+	 * 
+	 * @param job
+	 *            The job to configure
+	 * @param columns
+	 *            The columns of the table
+	 */
+	public static void setColumns(Job job, HawqColumn... columns) {
+
+		if (columns == null || columns.length == 0) {
+			throw new RuntimeException("Column array is null or empty");
+		}
+
+		Integer[] types = new Integer[columns.length];
+		for (int i = 0; i < columns.length; ++i) {
+			types[i] = columns[i].getType();
+		}
+
+		setColumnTypes(job, types);
+		job.getConfiguration().set(COLUMNS, HawqColumn.encode(columns));
+	}
+
+	/**
+	 * Gets the columns set by {@link #setColumns(Job, HawqColumn...)}
+	 * 
+	 * @param conf
+	 *            The configuration
+	 * @return The columns, or null if they were not set
+	 */
+	public static HawqColumn[] getColumns(Configuration conf) {
+		String columns = conf.get(COLUMNS);
+		return columns == null ? null : HawqColumn.decode(columns);
+	}
+
+	/**
+	 * Sets the columns rows are written to, for tables that have columns the
+	 * rows do not. The column types must then be set in the same order, and
+	 * the other columns get their defaults.
+	 * 
+	 * @param job
+	 *            The job to configure
+	 * @param names
+	 *            The column names
+	 */
+	public static void setColumnNames(Job job, String... names) {
+		job.getConfiguration().setStrings(COLUMN_NAMES, names);
+	}
+
+	/**
+	 * Gets the columns set by {@link #setColumnNames(Job, String...)}
+	 * 
+	 * @param conf
+	 *            The configuration
+	 * @return The column names, or null if rows are written to every column
+	 */
+	public static String[] getColumnNames(Configuration conf) {
+		return conf.getStrings(COLUMN_NAMES);
+	}
+
+	/**
+	 * Sets the zero-based index of the delimited field of the input rows that
+	 * each column is taken from, so a subset of the fields of wide rows can be
+	 * written without rewriting them first. A row is written if it has a field
+	 * for every column. There must be one index for each column, which is
+	 * checked when the job is submitted.<br>
+	 * <br>
+	 * By default, the fields are the columns.
+	 * 
+	 * @param job
+	 *            The job to configure
+	 * @param fields
+	 *            The field index of each column
+	 */
+	public static void setInputFields(Job job, int... fields) {
+		StringBuilder bldr = new StringBuilder();
+		for (int field : fields) {
+			if (bldr.length() != 0) {
+				bldr.append(",");
+			}
+			bldr.append(field);
+		}
+
+		job.getConfiguration().set(INPUT_FIELDS, bldr.toString());
+	}
+
+	/**
+	 * Gets the fields set by {@link #setInputFields(Job, int...)}
+	 * 
+	 * @param conf
+	 *            The configuration
+	 * @return The field index of each column, or null if the fields are the
+	 *         columns
+	 */
+	public static int[] getInputFields(Configuration conf) {
+		String[] fields = conf.getStrings(INPUT_FIELDS);
+		if (fields == null) {
+			return null;
+		}
+
+		int[] retval = new int[fields.length];
+		for (int i = 0; i < fields.length; ++i) {
+			retval[i] = Integer.parseInt(fields[i].trim());
+		}
+
+		return retval;
+	}
+
+	/**
+	 * Gets the column list to follow the table name in INSERT and COPY
+	 * statements
+	 * 
+	 * @param conf
+	 *            The configuration
+	 * @return The column list, or an empty string to write every column
+	 */
+	static String getColumnList(Configuration conf) {
+		String[] names = getColumnNames(conf);
+		if (names == null) {
+			return "";
+		}
+
+		StringBuilder bldr = new StringBuilder(" (");
+		for (int i = 0; i < names.length; ++i) {
+			if (i != 0) {
+				bldr.append(",");
+			}
+			bldr.append(names[i].trim());
+		}
+
+		return bldr.append(")").toString();
+	}
+
 	public static void setDelimiter(Job job, String optionValue) {
 		job.getConfiguration().set(DELIMITER, optionValue);
 	}
@@ -124,6 +344,210 @@ public class HawqOutputFormat extends OutputFormat<Text, Object> {
 		return job.get(DELIMITER, "\\|");
 	}
 
+	/**
+	 * Sets how rows are written. INSERT uses batched INSERT statements, and
+	 * COPY streams rows through the COPY protocol in the format set by
+	 * {@link HawqOutputFormat#setCopyFormat(Job, Format)}.<br>
+	 * <br>
+	 * Default is INSERT.
+	 * 
+	 * @param job
+	 *            The job to configure
+	 * @param mode
+	 *            The write mode
+	 */
+	public static void setMode(Job job, Mode mode) {
+		job.getConfiguration().setEnum(MODE, mode);
+	}
+
+	public static Mode getMode(Configuration conf) {
+		return conf.getEnum(MODE, Mode.INSERT);
+	}
+
+	/**
+	 * Sets the format rows are sent in when the mode is COPY. In TEXT format,
+	 * an empty field is an empty string. In CSV format, an empty field is
+	 * NULL.<br>
+	 * <br>
+	 * Default is TEXT.
+	 * 
+	 * @param job
+	 *            The job to configure
+	 * @param format
+	 *            The COPY format
+	 */
+	public static void setCopyFormat(Job job, Format format) {
+		job.getConfiguration().setEnum(COPY_FORMAT, format);
+	}
+
+	public static Format getCopyFormat(Configuration conf) {
+		return conf.getEnum(COPY_FORMAT, Format.TEXT);
+	}
+
+	/**
+	 * Sets the most rows to send in one INSERT batch.<br>
+	 * <br>
+	 * Default is 10000.
+	 * 
+	 * @param job
+	 *            The job to configure
+	 * @param rows
+	 *            The number of rows
+	 */
+	public static void setBatchRows(Job job, int rows) {
+		job.getConfiguration().setInt(BATCH_ROWS, rows);
+	}
+
+	public static int getBatchRows(Configuration conf) {
+		return conf.getInt(BATCH_ROWS, 10000);
+	}
+
+	/**
+	 * Sets the most bytes of input rows to send in one INSERT batch.<br>
+	 * <br>
+	 * Default is 8 MB.
+	 * 
+	 * @param job
+	 *            The job to configure
+	 * @param bytes
+	 *            The number of bytes
+	 */
+	public static void setBatchBytes(Job job, long bytes) {
+		job.getConfiguration().setLong(BATCH_BYTES, bytes);
+	}
+
+	public static long getBatchBytes(Configuration conf) {
+		return conf.getLong(BATCH_BYTES, 8 * 1024 * 1024);
+	}
+
+	/**
+	 * Sets the number of INSERT batches after which the transaction is
+	 * committed. Zero commits once, when the writer is closed. If a write
+	 * fails, the writer rolls back instead, but rows committed by an attempt
+	 * that fails later, such as in its output committer, are not removed. Use
+	 * {@link #setStaging(Job, boolean)} for all-or-nothing output across task
+	 * attempts.<br>
+	 * <br>
+	 * Default is 0.
+	 * 
+	 * @param job
+	 *            The job to configure
+	 * @param batches
+	 *            The number of batches per commit
+	 */
+	public static void setCommitBatches(Job job, int batches) {
+		job.getConfiguration().setInt(COMMIT_BATCHES, batches);
+	}
+
+	public static int getCommitBatches(Configuration conf) {
+		return conf.getInt(COMMIT_BATCHES, 0);
+	}
+
+	/**
+	 * Sets the number of INSERT batches that may be executing in the
+	 * background while the task fills the next one. Once that many batches
+	 * are in flight, writes wait for the oldest to finish. Zero executes
+	 * every batch on the task thread.<br>
+	 * <br>
+	 * Default is 1, which double-buffers the batches.
+	 * 
+	 * @param job
+	 *            The job to configure
+	 * @param batches
+	 *            The number of batches in flight
+	 */
+	public static void setAsyncBatches(Job job, int batches) {
+		job.getConfiguration().setInt(ASYNC_BATCHES, batches);
+	}
+
+	public static int getAsyncBatches(Configuration conf) {
+		return conf.getInt(ASYNC_BATCHES, 1);
+	}
+
+	/**
+	 * Sets the number of connections each task inserts rows over. With more
+	 * than one, rows are spread over the connections by a
+	 * {@link HawqParallelRecordWriter}, so the parallelism of the database can
+	 * be tuned separately from the number of tasks. Only applies when the mode
+	 * is INSERT.<br>
+	 * <br>
+	 * Default is 1.
+	 * 
+	 * @param job
+	 *            The job to configure
+	 * @param connections
+	 *            The number of connections
+	 */
+	public static void setConnections(Job job, int connections) {
+		job.getConfiguration().setInt(CONNECTIONS, connections);
+	}
+
+	public static int getConnections(Configuration conf) {
+		return conf.getInt(CONNECTIONS, 1);
+	}
+
+	/**
+	 * Sets the zero-based field of the input rows whose value picks the
+	 * connection a row is inserted over, so rows with the same value always
+	 * share a connection. A negative field deals the rows out round-robin.<br>
+	 * <br>
+	 * Default is -1.
+	 * 
+	 * @param job
+	 *            The job to configure
+	 * @param column
+	 *            The column index
+	 */
+	public static void setPartitionColumn(Job job, int column) {
+		job.getConfiguration().setInt(PARTITION_COLUMN, column);
+	}
+
+	public static int getPartitionColumn(Configuration conf) {
+		return conf.getInt(PARTITION_COLUMN, -1);
+	}
+
+	/**
+	 * Sets the most rows each task may reject before it fails. A row is
+	 * rejected if it has the wrong number of columns. In INSERT mode, a row is
+	 * also rejected if a field cannot be converted to the type of its column.
+	 * In COPY mode, fields are sent as text and converted by the database, so
+	 * a field of the wrong type fails the copy, and with it the task. Errors
+	 * raised by the database always fail the task. A negative limit disables
+	 * rejects. See {@link HawqRejectHandler}.<br>
+	 * <br>
+	 * Default is -1.
+	 * 
+	 * @param job
+	 *            The job to configure
+	 * @param limit
+	 *            The number of rows
+	 */
+	public static void setRejectLimit(Job job, int limit) {
+		job.getConfiguration().setInt(REJECT_LIMIT, limit);
+	}
+
+	public static int getRejectLimit(Configuration conf) {
+		return conf.getInt(REJECT_LIMIT, -1);
+	}
+
+	/**
+	 * Sets the directory rejected rows are written to, one file per task
+	 * attempt. If not set, rejected rows are only counted and logged.
+	 * 
+	 * @param job
+	 *            The job to configure
+	 * @param dir
+	 *            The directory
+	 */
+	public static void setRejectDir(Job job, Path dir) {
+		job.getConfiguration().set(REJECT_DIR, dir.toString());
+	}
+
+	public static Path getRejectDir(Configuration conf) {
+		String dir = conf.get(REJECT_DIR);
+		return dir == null ? null : new Path(dir);
+	}
+
 	@Override
 	public void checkOutputSpecs(JobContext context) throws IOException,
 			InterruptedException {
@@ -157,18 +581,56 @@ public class HawqOutputFormat extends OutputFormat<Text, Object> {
 						.isEmpty()) {
 			throw new IOException(HOST + " is not set");
 		}
+
+		// a bad mapping would otherwise fail every row of every task
+		int[] fields = HawqOutputFormat.getInputFields(context
+				.getConfiguration());
+		if (fields != null) {
+			if (context.getConfiguration().get(TYPES) == null) {
+				throw new IOException(TYPES + " is not set");
+			}
+
+			int columns = HawqOutputFormat.getColumnTypes(context
+					.getConfiguration()).length;
+			if (fields.length != columns) {
+				throw new IOException("Expected " + columns
+						+ " field indexes, not " + fields.length);
+			}
+
+			for (int field : fields) {
+				if (field < 0) {
+					throw new IOException("Field index " + field
+							+ " is negative");
+				}
+			}
+		}
 	}
 
 	@Override
 	public OutputCommitter getOutputCommitter(TaskAttemptContext context)
 			throws IOException, InterruptedException {
-		return new NullOutputFormat<Text, Object>().getOutputCommitter(context);
+		if (isStaging(context.getConfiguration())) {
+			return new HawqOutputCommitter();
+		} else {
+			return new NullOutputFormat<Text, Object>()
+					.getOutputCommitter(context);
+		}
 	}
 
 	@Override
 	public RecordWriter<Text, Object> getRecordWriter(TaskAttemptContext context)
 			throws IOException, InterruptedException {
-		return new HawqRecordWriter(context.getConfiguration());
+		if (isStaging(context.getConfiguration())) {
+			HawqOutputCommitter.createAttemptTable(context);
+		}
+
+		if (getMode(context.getConfiguration()) == Mode.COPY) {
+			return new HawqCopyRecordWriter(context);
+		} else if (getConnections(context.getConfiguration()) > 1) {
+			return new HawqParallelRecordWriter(context);
+		} else {
+			return new HawqRecordWriter(context);
+		}
 	}
 
 	public static class HawqRecordWriter extends RecordWriter<Text, Object> {
@@ -177,10 +639,38 @@ public class HawqOutputFormat extends OutputFormat<Text, Object> {
 
 		private String table, user, password, delimiter, url, sqlStatement;
 		private Integer[] types = null;
+		private HawqRowConverter converter = null;
+		private HawqRejectHandler rejects = null;
 
 		private Connection client = null;
 		private PreparedStatement insert = null;
 
+		private int batchRows, commitBatches, asyncBatches;
+		private long batchBytes;
+		private int rowsInBatch = 0, batchesSinceCommit = 0;
+		private long bytesInBatch = 0;
+		private boolean failed = false;
+		private Counter batchCounter, rowCounter, flushCounter;
+
+		// batches executing in the background, oldest first
+		private ExecutorService flusher = null;
+		private LinkedList<Future<PreparedStatement>> inFlight = new LinkedList<Future<PreparedStatement>>();
+		private LinkedList<PreparedStatement> spares = new LinkedList<PreparedStatement>();
+
+		public HawqRecordWriter(TaskAttemptContext context) {
+			this(context, new HawqRejectHandler(context));
+		}
+
+		HawqRecordWriter(TaskAttemptContext context,
+				HawqRejectHandler rejects) {
+			this(context.getConfiguration());
+			this.rejects = rejects;
+
+			batchCounter = context.getCounter(Counters.BATCHES);
+			rowCounter = context.getCounter(Counters.ROWS);
+			flushCounter = context.getCounter(Counters.FLUSH_MILLIS);
+		}
+
 		public HawqRecordWriter(Configuration conf) {
 
 			try {
@@ -197,13 +687,21 @@ public class HawqOutputFormat extends OutputFormat<Text, Object> {
 			int port = HawqOutputFormat.getPort(conf);
 			String database = HawqOutputFormat.getDatabase(conf);
 
-			table = HawqOutputFormat.getTable(conf);
+			table = HawqOutputFormat.getOutputTable(conf);
 			user = HawqOutputFormat.getUser(conf);
 			password = HawqOutputFormat.getPassword(conf);
 			delimiter = HawqOutputFormat.getDelimiter(conf);
 
+			batchRows = HawqOutputFormat.getBatchRows(conf);
+			batchBytes = HawqOutputFormat.getBatchBytes(conf);
+			commitBatches = HawqOutputFormat.getCommitBatches(conf);
+			asyncBatches = HawqOutputFormat.getAsyncBatches(conf);
+
 			// Parse the types from the configuration
 			types = HawqOutputFormat.getColumnTypes(conf);
+			converter = new HawqRowConverter(delimiter, types,
+					HawqOutputFormat.getInputFields(conf));
+			rejects = new HawqRejectHandler(conf);
 
 			// Log the properties
 			LOG.info("Properties: " + conf);
@@ -211,7 +709,8 @@ public class HawqOutputFormat extends OutputFormat<Text, Object> {
 			// Create the connect string and SQL statement
 			url = "jdbc:postgresql://" + hostname + ":" + port + "/" + database;
 
-			sqlStatement = "INSERT INTO " + table + " VALUES (";
+			sqlStatement = "INSERT INTO " + table
+					+ HawqOutputFormat.getColumnList(conf) + " VALUES (";
 
 			for (int i = 0; i < types.length; ++i) {
 				sqlStatement += "?,";
@@ -228,85 +727,172 @@ public class HawqOutputFormat extends OutputFormat<Text, Object> {
 				InterruptedException {
 			LOG.info("Pushing the batch and closing client.");
 
+			boolean committed = false;
+			try {
+				// Hadoop closes the writer of a failed task too
+				if (failed) {
+					throw new IOException(
+							"Rolling back the rows of a failed writer");
+				}
+
+				prepareCommit();
+				commit();
+				committed = true;
+			} finally {
+				if (!committed) {
+					abort();
+				}
+
+				rejects.close();
+			}
+		}
+
+		/**
+		 * Gets whether a write or flush has failed, so the rows must not be
+		 * committed
+		 */
+		boolean isFailed() {
+			return failed;
+		}
+
+		/**
+		 * Sends the remaining rows and waits for every batch in flight, without
+		 * committing
+		 * 
+		 * @throws IOException
+		 * @throws InterruptedException
+		 */
+		void prepareCommit() throws IOException, InterruptedException {
+			if (client == null) {
+				return;
+			}
+
+			boolean flushed = false;
+			try {
+				flush();
+
+				while (!inFlight.isEmpty()) {
+					awaitOldest();
+				}
+
+				flushed = true;
+			} catch (SQLException e) {
+				LOG.error(e);
+				throw new IOException(e);
+			} finally {
+				if (!flushed) {
+					failed = true;
+				}
+			}
+		}
+
+		/**
+		 * Commits the transaction and closes the connection
+		 * 
+		 * @throws IOException
+		 */
+		void commit() throws IOException {
+			if (client == null) {
+				return;
+			}
+
 			try {
-				insert.executeBatch();
 				client.commit();
 				insert.close();
-				client.close();
+
+				for (PreparedStatement spare : spares) {
+					spare.close();
+				}
+
+				destroyConnection();
 			} catch (SQLException e) {
 				LOG.error(e);
 				throw new IOException(e);
+			} finally {
+				shutdownFlusher();
+			}
+		}
+
+		/**
+		 * Rolls back the transaction and closes the connection. Errors are
+		 * logged rather than thrown, as this is only called once something
+		 * else has failed.
+		 */
+		void abort() {
+			shutdownFlusher();
+
+			if (client == null) {
+				return;
+			}
+
+			try {
+				client.rollback();
+				destroyConnection();
+			} catch (SQLException e) {
+				LOG.error(e);
+			}
+		}
+
+		private void shutdownFlusher() {
+			if (flusher != null) {
+				flusher.shutdownNow();
+				flusher = null;
 			}
 		}
 
 		@Override
 		public void write(Text key, Object value) throws IOException,
 				InterruptedException {
+			boolean written = false;
+			try {
+				writeRow(key);
+				written = true;
+			} finally {
+				if (!written) {
+					failed = true;
+				}
+			}
+		}
+
+		private void writeRow(Text key) throws IOException,
+				InterruptedException {
 
 			try {
 				// Verify we have a connection
 				verifyConnection();
 
-				String line = key.toString();
-				String[] tokens;
-
-				// If we have only one column, set the token to the line
-				if (types.length == 1) {
-					tokens = new String[] { line };
-				} else {
-					// Else, we split on our delimiter
-					tokens = line.split(delimiter);
+				// Report any failed batches and recycle finished ones
+				while (!inFlight.isEmpty() && inFlight.getFirst().isDone()) {
+					awaitOldest();
 				}
 
-				// if we have the right number of tokens (columns)
-				if (tokens.length == types.length) {
-
-					// Set our insert statement based on the types
-					for (int i = 1; i <= tokens.length; ++i) {
-						switch (types[i - 1]) {
-						case Types.VARCHAR:
-						case Types.CHAR:
-							insert.setString(i, tokens[i - 1]);
-							break;
-						case Types.NUMERIC:
-							insert.setBigDecimal(i, new BigDecimal(
-									tokens[i - 1]));
-							break;
-						case Types.INTEGER:
-							insert.setInt(i, Integer.parseInt(tokens[i - 1]));
-							break;
-						case Types.SMALLINT:
-							insert.setShort(i, Short.parseShort(tokens[i - 1]));
-							break;
-						case Types.BIGINT:
-							insert.setLong(i, Long.parseLong(tokens[i - 1]));
-							break;
-						case Types.REAL:
-						case Types.FLOAT:
-							insert.setFloat(i, Float.parseFloat(tokens[i - 1]));
-							break;
-						case Types.DOUBLE:
-							insert.setDouble(i,
-									Double.parseDouble(tokens[i - 1]));
-							break;
-						case Types.DATE:
-							insert.setDate(i, Date.valueOf(tokens[i - 1]));
-							break;
-						case Types.TIME:
-							insert.setTime(i, Time.valueOf(tokens[i - 1]));
-							break;
-						case Types.TIMESTAMP:
-							insert.setTimestamp(i,
-									Timestamp.valueOf(tokens[i - 1]));
-							break;
-						default:
-							throw new IOException("Type for " + tokens[i - 1]
-									+ " is not yet implemented");
-						}
+				// Set our insert statement from the row, if it has the right
+				// number of columns
+				boolean converted;
+				try {
+					converted = converter.convert(key, insert);
+				} catch (IllegalArgumentException e) {
+					// the fields that were set are overwritten by the next row
+					if (!rejects.isEnabled()) {
+						throw e;
 					}
 
+					rejects.reject(key, e.toString());
+					return;
+				}
+
+				if (!converted) {
+					rejects.reject(key, "Wrong number of fields");
+				} else {
 					// Add this statement to the batch
 					insert.addBatch();
+
+					++rowsInBatch;
+					bytesInBatch += key.getLength();
+
+					if (rowsInBatch >= batchRows || bytesInBatch >= batchBytes) {
+						flush();
+					}
 				}
 			} catch (SQLException e) {
 				LOG.error(e);
@@ -314,6 +900,91 @@ public class HawqOutputFormat extends OutputFormat<Text, Object> {
 			}
 		}
 
+		/**
+		 * Sends the current batch. If batches are executed in the background,
+		 * this hands the batch to the flusher thread and switches to a spare
+		 * statement, first waiting for the oldest batch if too many are in
+		 * flight.
+		 * 
+		 * @throws SQLException
+		 * @throws IOException
+		 *             If a batch executing in the background failed
+		 * @throws InterruptedException
+		 */
+		private void flush() throws SQLException, IOException,
+				InterruptedException {
+			if (rowsInBatch == 0) {
+				return;
+			}
+
+			final PreparedStatement batch = insert;
+			final int rows = rowsInBatch;
+
+			rowsInBatch = 0;
+			bytesInBatch = 0;
+
+			if (flusher == null) {
+				executeBatch(batch, rows);
+				return;
+			}
+
+			while (inFlight.size() >= asyncBatches) {
+				awaitOldest();
+			}
+
+			inFlight.addLast(flusher.submit(new Callable<PreparedStatement>() {
+				@Override
+				public PreparedStatement call() throws Exception {
+					executeBatch(batch, rows);
+					return batch;
+				}
+			}));
+
+			if (spares.isEmpty()) {
+				insert = client.prepareStatement(sqlStatement);
+			} else {
+				insert = spares.removeFirst();
+			}
+		}
+
+		/**
+		 * Executes a batch, committing if the commit boundary has been
+		 * reached. Batches are executed one at a time, in order.
+		 * 
+		 * @throws SQLException
+		 */
+		private void executeBatch(PreparedStatement batch, int rows)
+				throws SQLException {
+			long start = System.currentTimeMillis();
+			batch.executeBatch();
+
+			if (commitBatches > 0 && ++batchesSinceCommit >= commitBatches) {
+				client.commit();
+				batchesSinceCommit = 0;
+			}
+
+			increment(batchCounter, 1);
+			increment(rowCounter, rows);
+			increment(flushCounter, System.currentTimeMillis() - start);
+		}
+
+		/**
+		 * Waits for the oldest batch in flight and returns its statement to
+		 * the spares.
+		 * 
+		 * @throws IOException
+		 *             If the batch failed
+		 * @throws InterruptedException
+		 */
+		private void awaitOldest() throws IOException, InterruptedException {
+			try {
+				spares.addLast(inFlight.removeFirst().get());
+			} catch (ExecutionException e) {
+				LOG.error(e.getCause());
+				throw new IOException("Failed to execute batch", e.getCause());
+			}
+		}
+
 		/**
 		 * Verifies that a connection is valid and will open one if needed.
 		 * 
@@ -334,6 +1005,30 @@ public class HawqOutputFormat extends OutputFormat<Text, Object> {
 		 * @throws SQLException
 		 */
 		private void openConnection() throws SQLException {
+			client = connect();
+			client.setAutoCommit(false);
+			insert = client.prepareStatement(sqlStatement);
+			LOG.info("Opened client connection and prepared insert statement");
+
+			if (asyncBatches > 0 && flusher == null) {
+				flusher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "hawq-batch-flusher");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+			}
+		}
+
+		/**
+		 * Connects to the database. Tests override this to write to a
+		 * connection that does not need a server.
+		 * 
+		 * @throws SQLException
+		 */
+		Connection connect() throws SQLException {
 			Properties props = new Properties();
 
 			if (user != null && password != null) {
@@ -343,10 +1038,7 @@ public class HawqOutputFormat extends OutputFormat<Text, Object> {
 				LOG.warn("User or password is set without the other. Continuing with no login auth");
 			}
 
-			client = DriverManager.getConnection(url, props);
-			client.setAutoCommit(false);
-			insert = client.prepareStatement(sqlStatement);
-			LOG.info("Opened client connection and prepared insert statement");
+			return DriverManager.getConnection(url, props);
 		}
 
 		/**
@@ -362,4 +1054,437 @@ public class HawqOutputFormat extends OutputFormat<Text, Object> {
 			}
 		}
 	}
+
+	/**
+	 * A record writer that spreads rows over several {@link HawqRecordWriter}s,
+	 * each with its own connection and batches, so one task can insert over
+	 * several connections at once. Rows are dealt out round-robin, or by the
+	 * hash of the column set by
+	 * {@link HawqOutputFormat#setPartitionColumn(Job, int)}.<br>
+	 * <br>
+	 * When the writer is closed, every connection sends its remaining rows and
+	 * waits for its batches before any of them commits, and if any of them
+	 * fails, the connections that have not yet committed are rolled back.
+	 * Commits made along the way by
+	 * {@link HawqOutputFormat#setCommitBatches(Job, int)} are per connection.
+	 */
+	public static class HawqParallelRecordWriter extends
+			RecordWriter<Text, Object> {
+
+		private static Logger LOG = Logger
+				.getLogger(HawqParallelRecordWriter.class);
+
+		private HawqRecordWriter[] writers = null;
+		private HawqRejectHandler rejects = null;
+		private boolean wholeRow = false;
+		private int partitionColumn, delimiter, next = 0;
+		private Pattern pattern = null;
+
+		public HawqParallelRecordWriter(TaskAttemptContext context) {
+			Configuration conf = context.getConfiguration();
+
+			// the writers share one reject limit and file
+			rejects = new HawqRejectHandler(context);
+
+			writers = new HawqRecordWriter[HawqOutputFormat
+					.getConnections(conf)];
+			for (int i = 0; i < writers.length; ++i) {
+				writers[i] = new HawqRecordWriter(context, rejects);
+			}
+
+			wholeRow = HawqOutputFormat.getColumnTypes(conf).length == 1
+					&& HawqOutputFormat.getInputFields(conf) == null;
+			partitionColumn = HawqOutputFormat.getPartitionColumn(conf);
+
+			String regex = HawqOutputFormat.getDelimiter(conf);
+			delimiter = HawqCopyEncoder.toLiteral(regex);
+			if (delimiter < 0) {
+				pattern = Pattern.compile(regex);
+			}
+
+			LOG.info("Writing over " + writers.length + " connections");
+		}
+
+		@Override
+		public void write(Text key, Object value) throws IOException,
+				InterruptedException {
+			writers[partition(key)].write(key, value);
+		}
+
+		@Override
+		public void close(TaskAttemptContext context) throws IOException,
+				InterruptedException {
+			boolean committed = false;
+			try {
+				for (HawqRecordWriter writer : writers) {
+					if (writer.isFailed()) {
+						throw new IOException(
+								"Rolling back the rows of a failed writer");
+					}
+				}
+
+				for (HawqRecordWriter writer : writers) {
+					writer.prepareCommit();
+				}
+
+				for (HawqRecordWriter writer : writers) {
+					writer.commit();
+				}
+
+				committed = true;
+			} finally {
+				if (!committed) {
+					for (HawqRecordWriter writer : writers) {
+						writer.abort();
+					}
+				}
+
+				rejects.close();
+			}
+		}
+
+		/**
+		 * Gets the index of the writer for the given row
+		 */
+		private int partition(Text key) {
+			if (partitionColumn < 0) {
+				int p = next;
+				next = (next + 1) % writers.length;
+				return p;
+			}
+
+			return (hash(key) & Integer.MAX_VALUE) % writers.length;
+		}
+
+		/**
+		 * Hashes the partition field of a row. A row without the field
+		 * hashes to zero, and will be skipped by the writer anyway.
+		 */
+		private int hash(Text key) {
+			byte[] bytes = key.getBytes();
+			int end = key.getLength();
+
+			if (wholeRow) {
+				return WritableComparator.hashBytes(bytes, 0, end);
+			}
+
+			if (delimiter < 0) {
+				String[] tokens = pattern.split(key.toString());
+				return partitionColumn < tokens.length ? tokens[partitionColumn]
+						.hashCode() : 0;
+			}
+
+			int column = 0, start = 0;
+			for (int i = 0; i <= end; ++i) {
+				if (i == end || bytes[i] == delimiter) {
+					if (column == partitionColumn) {
+						return WritableComparator.hashBytes(bytes, start, i
+								- start);
+					}
+
+					++column;
+					start = i + 1;
+				}
+			}
+
+			return 0;
+		}
+	}
+
+	/**
+	 * A record writer that streams rows to HAWQ with
+	 * <code>COPY ... FROM STDIN</code>. Rows are encoded by a
+	 * {@link HawqCopyEncoder} into a reusable buffer, which is sent whenever it
+	 * fills. Rows with the wrong number of columns are skipped. All rows are
+	 * committed in one transaction when the writer is closed, unless a write
+	 * has failed, in which case the copy is rolled back.
+	 */
+	public static class HawqCopyRecordWriter extends RecordWriter<Text, Object> {
+
+		private static Logger LOG = Logger.getLogger(HawqCopyRecordWriter.class);
+
+		private static final int FLUSH_SIZE = 64 * 1024;
+
+		private String user, password, url, sqlStatement;
+		private HawqCopyEncoder encoder = null;
+		private HawqRejectHandler rejects = null;
+
+		private Connection client = null;
+		private CopyIn copy = null;
+
+		private int rowsInBatch = 0;
+		private boolean failed = false;
+		private Counter batchCounter, rowCounter, flushCounter;
+
+		public HawqCopyRecordWriter(TaskAttemptContext context) {
+			this(context.getConfiguration());
+
+			rejects = new HawqRejectHandler(context);
+
+			batchCounter = context.getCounter(Counters.BATCHES);
+			rowCounter = context.getCounter(Counters.ROWS);
+			flushCounter = context.getCounter(Counters.FLUSH_MILLIS);
+		}
+
+		public HawqCopyRecordWriter(Configuration conf) {
+
+			try {
+				// Load JDBC driver for Postgres
+				Class.forName("org.postgresql.Driver");
+				LOG.info("Loaded postgres JDBC driver");
+			} catch (ClassNotFoundException e) {
+				throw new RuntimeException(
+						"Postgres JDBC driver not on classpath");
+			}
+
+			// Get all configuration variables
+			String hostname = HawqOutputFormat.getHost(conf);
+			int port = HawqOutputFormat.getPort(conf);
+			String database = HawqOutputFormat.getDatabase(conf);
+
+			user = HawqOutputFormat.getUser(conf);
+			password = HawqOutputFormat.getPassword(conf);
+
+			int[] fields = HawqOutputFormat.getInputFields(conf);
+			if (fields != null) {
+				encoder = new HawqCopyEncoder(
+						HawqOutputFormat.getCopyFormat(conf),
+						HawqOutputFormat.getDelimiter(conf), fields);
+			} else {
+				encoder = new HawqCopyEncoder(
+						HawqOutputFormat.getCopyFormat(conf),
+						HawqOutputFormat.getDelimiter(conf), HawqOutputFormat
+								.getColumnTypes(conf).length);
+			}
+
+			// Create the connect string and SQL statement
+			url = "jdbc:postgresql://" + hostname + ":" + port + "/" + database;
+
+			rejects = new HawqRejectHandler(conf);
+
+			sqlStatement = "COPY " + HawqOutputFormat.getOutputTable(conf)
+					+ HawqOutputFormat.getColumnList(conf) + " FROM STDIN"
+					+ encoder.getCopyOptions();
+
+			LOG.info("Statement: " + sqlStatement);
+		}
+
+		@Override
+		public void write(Text key, Object value) throws IOException,
+				InterruptedException {
+			boolean written = false;
+			try {
+				writeRow(key);
+				written = true;
+			} finally {
+				if (!written) {
+					failed = true;
+				}
+			}
+		}
+
+		private void writeRow(Text key) throws IOException {
+
+			try {
+				if (copy == null) {
+					openCopy();
+				}
+
+				if (encoder.encode(key)) {
+					++rowsInBatch;
+
+					if (encoder.getLength() >= FLUSH_SIZE) {
+						flush();
+					}
+				} else {
+					rejects.reject(key, "Wrong number of fields");
+				}
+			} catch (SQLException e) {
+				LOG.error(e);
+				abortCopy();
+				throw new IOException(e);
+			}
+		}
+
+		/**
+		 * Writes a typed record, encoding its columns directly rather than
+		 * parsing them from delimited text
+		 * 
+		 * @param record
+		 *            The record
+		 * @throws IOException
+		 */
+		public void write(HawqWritable record) throws IOException {
+			boolean written = false;
+			try {
+				writeRecord(record);
+				written = true;
+			} finally {
+				if (!written) {
+					failed = true;
+				}
+			}
+		}
+
+		private void writeRecord(HawqWritable record) throws IOException {
+
+			try {
+				if (copy == null) {
+					openCopy();
+				}
+
+				// a record that fails part way must not leave half a row
+				encoder.startRow();
+				boolean written = false;
+				try {
+					record.writeColumns(encoder);
+					written = true;
+				} finally {
+					if (!written) {
+						encoder.discardRow();
+					}
+				}
+
+				if (encoder.endRow()) {
+					++rowsInBatch;
+
+					if (encoder.getLength() >= FLUSH_SIZE) {
+						flush();
+					}
+				} else {
+					rejects.reject(new Text(String.valueOf(record)),
+							"Wrong number of columns");
+				}
+			} catch (SQLException e) {
+				LOG.error(e);
+				abortCopy();
+				throw new IOException(e);
+			}
+		}
+
+		@Override
+		public void close(TaskAttemptContext context) throws IOException,
+				InterruptedException {
+			LOG.info("Ending the copy and closing client.");
+
+			try {
+				// Hadoop closes the writer of a failed task too
+				if (failed) {
+					abortCopy();
+					throw new IOException(
+							"Rolling back the rows of a failed writer");
+				}
+
+				if (copy != null) {
+					flush();
+					long rows = copy.endCopy();
+					copy = null;
+
+					client.commit();
+					LOG.info("Copied " + rows + " rows");
+				}
+			} catch (SQLException e) {
+				LOG.error(e);
+				abortCopy();
+				throw new IOException(e);
+			} finally {
+				destroyConnection();
+				rejects.close();
+			}
+		}
+
+		/**
+		 * Sends the encoded rows to the server and empties the buffer
+		 * 
+		 * @throws SQLException
+		 */
+		private void flush() throws SQLException {
+			if (encoder.getLength() > 0) {
+				long start = System.currentTimeMillis();
+				copy.writeToCopy(encoder.getData(), 0, encoder.getLength());
+
+				increment(batchCounter, 1);
+				increment(rowCounter, rowsInBatch);
+				increment(flushCounter, System.currentTimeMillis() - start);
+
+				encoder.reset();
+				rowsInBatch = 0;
+			}
+		}
+
+		/**
+		 * Opens a connection and starts the copy
+		 * 
+		 * @throws SQLException
+		 */
+		private void openCopy() throws SQLException {
+			Properties props = new Properties();
+
+			if (user != null && password != null) {
+				props.setProperty("user", user);
+				props.setProperty("password", password);
+			} else if (user != null ^ password != null) {
+				LOG.warn("User or password is set without the other. Continuing with no login auth");
+			}
+
+			client = DriverManager.getConnection(url, props);
+			client.setAutoCommit(false);
+			copy = ((PGConnection) client).getCopyAPI().copyIn(sqlStatement);
+			LOG.info("Opened client connection and started copy");
+		}
+
+		/**
+		 * Abandons the copy in progress, if any, after an error. The copy is
+		 * cancelled, the connection is closed, and the rows that were not sent
+		 * are discarded, so a later write starts a new copy from scratch.
+		 */
+		private void abortCopy() {
+			if (copy != null) {
+				try {
+					if (copy.isActive()) {
+						copy.cancelCopy();
+					}
+				} catch (SQLException e) {
+					LOG.warn("Failed to cancel copy", e);
+				}
+				copy = null;
+			}
+
+			if (client != null) {
+				try {
+					client.close();
+				} catch (SQLException e) {
+					LOG.warn("Failed to close client connection", e);
+				}
+				client = null;
+			}
+
+			encoder.reset();
+			rowsInBatch = 0;
+		}
+
+		/**
+		 * Destroys the current JDBC connection, if any.
+		 * 
+		 * @throws IOException
+		 */
+		private void destroyConnection() throws IOException {
+			if (client != null) {
+				try {
+					client.close();
+				} catch (SQLException e) {
+					throw new IOException(e);
+				} finally {
+					client = null;
+				}
+				LOG.info("Closed client connection");
+			}
+		}
+	}
+
+	private static void increment(Counter counter, long amount) {
+		if (counter != null) {
+			counter.increment(amount);
+		}
+	}
 }
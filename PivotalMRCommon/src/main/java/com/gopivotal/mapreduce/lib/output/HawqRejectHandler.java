@@ -0,0 +1,142 @@
+package com.gopivotal.mapreduce.lib.output;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.log4j.Logger;
+
+import com.gopivotal.mapreduce.lib.output.HawqOutputFormat.Counters;
+
+/**
+ * Handles the rows a HAWQ record writer cannot write, much like the
+ * <code>SEGMENT REJECT LIMIT</code> of a HAWQ external table. Rejects are
+ * enabled by setting {@link HawqOutputFormat#setRejectLimit(Job, int)}. Each
+ * rejected row is then counted and skipped, and the task fails once more rows
+ * than the limit have been rejected.<br>
+ * <br>
+ * If {@link HawqOutputFormat#setRejectDir(Job, Path)} is set, rejected rows are
+ * also written to a file in that directory named after the task attempt, one
+ * per line as the reason, a tab, and the row as it was given to the writer.<br>
+ * <br>
+ * When rejects are not enabled, rows with the wrong number of columns are
+ * skipped without being counted, and a field that cannot be converted fails
+ * the task.
+ */
+public class HawqRejectHandler implements Closeable {
+
+	private static final Logger LOG = Logger.getLogger(HawqRejectHandler.class);
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private Configuration conf = null;
+	private String name = null;
+	private int limit = -1;
+	private Path dir = null;
+	private Counter counter = null;
+	private long rejected = 0;
+	private FSDataOutputStream out = null;
+
+	/**
+	 * Creates a new handler that reports rejected rows under
+	 * {@link Counters#REJECTED_ROWS}
+	 *
+	 * @param context
+	 *            The context of the task
+	 */
+	public HawqRejectHandler(TaskAttemptContext context) {
+		this(context.getConfiguration());
+		name = context.getTaskAttemptID().toString();
+		counter = context.getCounter(Counters.REJECTED_ROWS);
+	}
+
+	/**
+	 * Creates a new handler
+	 *
+	 * @param conf
+	 *            The configuration of the task
+	 */
+	public HawqRejectHandler(Configuration conf) {
+		this.conf = conf;
+		name = conf.get("mapreduce.task.attempt.id", "rejects");
+		limit = HawqOutputFormat.getRejectLimit(conf);
+		dir = HawqOutputFormat.getRejectDir(conf);
+	}
+
+	/**
+	 * Gets whether rows that cannot be written are rejected, rather than
+	 * failing the task
+	 *
+	 * @return True if rejects are enabled
+	 */
+	public boolean isEnabled() {
+		return limit >= 0;
+	}
+
+	/**
+	 * Rejects a row. Does nothing if rejects are not enabled.
+	 *
+	 * @param row
+	 *            The row
+	 * @param reason
+	 *            Why the row was rejected
+	 * @throws IOException
+	 *             If the reject limit has been passed, or the row could not be
+	 *             saved
+	 */
+	public void reject(Text row, String reason) throws IOException {
+		if (!isEnabled()) {
+			return;
+		}
+
+		++rejected;
+		if (counter != null) {
+			counter.increment(1);
+		}
+
+		if (dir != null) {
+			if (out == null) {
+				Path file = new Path(dir, name);
+				out = file.getFileSystem(conf).create(file, true);
+				LOG.info("Writing rejected rows to " + file);
+			}
+
+			out.write(reason.replace('\t', ' ').replace('\n', ' ')
+					.getBytes(UTF8));
+			out.write('\t');
+			out.write(row.getBytes(), 0, row.getLength());
+			out.write('\n');
+		} else {
+			LOG.warn("Rejected row: " + reason);
+		}
+
+		if (rejected > limit) {
+			throw new IOException("Rejected " + rejected
+					+ " rows, which is over the reject limit of " + limit
+					+ ". Last reason: " + reason);
+		}
+	}
+
+	/**
+	 * Gets the number of rows rejected so far
+	 *
+	 * @return The number of rows
+	 */
+	public long getRejected() {
+		return rejected;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (out != null) {
+			out.close();
+			out = null;
+		}
+	}
+}
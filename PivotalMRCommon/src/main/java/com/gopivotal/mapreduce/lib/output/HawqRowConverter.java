@@ -0,0 +1,537 @@
+package com.gopivotal.mapreduce.lib.output;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.io.Text;
+
+/**
+ * Converts delimited rows of text into the parameters of a prepared INSERT
+ * statement. A converter for each column is chosen once from the column types,
+ * rather than switching on the type of every field.<br>
+ * <br>
+ * When the delimiter is a single ASCII character, which is the common case, the
+ * fields are found by scanning the bytes of the {@link Text} directly, and
+ * INTEGER, SMALLINT, BIGINT, NUMERIC, DATE, and TIMESTAMP fields are parsed
+ * from those bytes without creating a String. Fields these fast paths do not
+ * recognize are handed to the usual <code>valueOf</code> or <code>parse</code>
+ * method, so errors are reported exactly as before. Other delimiters are
+ * treated as regular expressions.<br>
+ * <br>
+ * Rows are split like {@link String#split(String)}, so trailing empty fields
+ * are dropped. A row with one column is never split.<br>
+ * <br>
+ * Columns can also be mapped to input fields by index, so a subset of the
+ * fields of a wide row can be written. A mapped row is valid if it has a field
+ * for every column, and its trailing empty fields are kept.
+ */
+public class HawqRowConverter {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private Converter[] converters = null;
+	private int delimiter = -1;
+	private Pattern pattern = null;
+	private int[] fields = null;
+	private int[] starts = null, ends = null;
+
+	/**
+	 * Creates a new converter
+	 *
+	 * @param delimiter
+	 *            The delimiter of the input rows, as a regular expression
+	 * @param types
+	 *            The {@link Types} of the columns
+	 */
+	public HawqRowConverter(String delimiter, Integer[] types) {
+		this(delimiter, types, null);
+	}
+
+	/**
+	 * Creates a new converter that takes each column from the given field of
+	 * the input rows
+	 *
+	 * @param delimiter
+	 *            The delimiter of the input rows, as a regular expression
+	 * @param types
+	 *            The {@link Types} of the columns
+	 * @param fields
+	 *            The zero-based index of the input field of each column, or
+	 *            null if the fields are the columns
+	 */
+	public HawqRowConverter(String delimiter, Integer[] types, int[] fields) {
+		this.delimiter = HawqCopyEncoder.toLiteral(delimiter);
+
+		if (this.delimiter < 0) {
+			pattern = Pattern.compile(delimiter);
+		}
+
+		converters = new Converter[types.length];
+		for (int i = 0; i < types.length; ++i) {
+			converters[i] = forType(types[i]);
+		}
+
+		int width = types.length;
+		if (fields != null) {
+			if (fields.length != types.length) {
+				throw new IllegalArgumentException("Expected " + types.length
+						+ " field indexes, not " + fields.length);
+			}
+
+			this.fields = fields;
+			width = 0;
+			for (int field : fields) {
+				if (field < 0) {
+					throw new IllegalArgumentException("Field index " + field
+							+ " is negative");
+				}
+
+				width = Math.max(width, field + 1);
+			}
+		}
+
+		starts = new int[width];
+		ends = new int[width];
+	}
+
+	/**
+	 * Sets the parameters of the statement from a row
+	 *
+	 * @param row
+	 *            The delimited row
+	 * @param stmt
+	 *            The statement to set the parameters of
+	 * @return True if the parameters were set, false if the row has the wrong
+	 *         number of fields
+	 * @throws SQLException
+	 * @throws IOException
+	 *             If a column type is not supported
+	 */
+	public boolean convert(Text row, PreparedStatement stmt)
+			throws SQLException, IOException {
+		final int numColumns = converters.length;
+		final byte[] bytes = row.getBytes();
+		final int end = row.getLength();
+
+		if (fields != null) {
+			return convertMapped(row, stmt);
+		}
+
+		if (numColumns == 1) {
+			converters[0].set(stmt, 1, bytes, 0, end);
+			return true;
+		}
+
+		if (delimiter < 0) {
+			String[] tokens = pattern.split(row.toString());
+			if (tokens.length != numColumns) {
+				return false;
+			}
+
+			for (int i = 0; i < numColumns; ++i) {
+				converters[i].set(stmt, i + 1, tokens[i]);
+			}
+
+			return true;
+		}
+
+		// find the fields, remembering the last non-empty one
+		int fields = 0, kept = 0, fieldStart = 0;
+		for (int i = 0; i <= end; ++i) {
+			if (i == end || bytes[i] == delimiter) {
+				if (fields < numColumns) {
+					starts[fields] = fieldStart;
+					ends[fields] = i;
+				}
+
+				++fields;
+				if (i > fieldStart) {
+					kept = fields;
+				}
+
+				fieldStart = i + 1;
+			}
+		}
+
+		// a row without a delimiter is a single field, even if it is empty
+		if (fields == 1) {
+			kept = 1;
+		}
+
+		if (kept != numColumns) {
+			return false;
+		}
+
+		for (int i = 0; i < numColumns; ++i) {
+			converters[i].set(stmt, i + 1, bytes, starts[i], ends[i]);
+		}
+
+		return true;
+	}
+
+	private boolean convertMapped(Text row, PreparedStatement stmt)
+			throws SQLException, IOException {
+		final int width = starts.length;
+
+		if (delimiter < 0) {
+			String[] tokens = pattern.split(row.toString(), -1);
+			if (tokens.length < width) {
+				return false;
+			}
+
+			for (int i = 0; i < converters.length; ++i) {
+				converters[i].set(stmt, i + 1, tokens[fields[i]]);
+			}
+
+			return true;
+		}
+
+		final byte[] bytes = row.getBytes();
+		final int end = row.getLength();
+
+		int field = 0, fieldStart = 0;
+		for (int i = 0; i <= end && field < width; ++i) {
+			if (i == end || bytes[i] == delimiter) {
+				starts[field] = fieldStart;
+				ends[field] = i;
+				++field;
+				fieldStart = i + 1;
+			}
+		}
+
+		if (field < width) {
+			return false;
+		}
+
+		for (int i = 0; i < converters.length; ++i) {
+			converters[i].set(stmt, i + 1, bytes, starts[fields[i]],
+					ends[fields[i]]);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Sets a parameter of a statement from a field, either as a String or
+	 * straight from its UTF-8 bytes
+	 */
+	private static abstract class Converter {
+
+		abstract void set(PreparedStatement stmt, int index, String field)
+				throws SQLException, IOException;
+
+		void set(PreparedStatement stmt, int index, byte[] bytes, int start,
+				int end) throws SQLException, IOException {
+			set(stmt, index, new String(bytes, start, end - start, UTF8));
+		}
+	}
+
+	private static Converter forType(final int type) {
+		switch (type) {
+		case Types.VARCHAR:
+		case Types.CHAR:
+			return new Converter() {
+				@Override
+				void set(PreparedStatement stmt, int index, String field)
+						throws SQLException {
+					stmt.setString(index, field);
+				}
+			};
+		case Types.NUMERIC:
+			return new Converter() {
+				private char[] chars = new char[32];
+
+				@Override
+				void set(PreparedStatement stmt, int index, String field)
+						throws SQLException {
+					stmt.setBigDecimal(index, new BigDecimal(field));
+				}
+
+				@Override
+				void set(PreparedStatement stmt, int index, byte[] bytes,
+						int start, int end) throws SQLException, IOException {
+					int length = end - start;
+					if (chars.length < length) {
+						chars = new char[Math.max(length, chars.length * 2)];
+					}
+
+					for (int i = 0; i < length; ++i) {
+						byte b = bytes[start + i];
+						if (b < 0) {
+							super.set(stmt, index, bytes, start, end);
+							return;
+						}
+						chars[i] = (char) b;
+					}
+
+					stmt.setBigDecimal(index, new BigDecimal(chars, 0, length));
+				}
+			};
+		case Types.INTEGER:
+			return new Converter() {
+				@Override
+				void set(PreparedStatement stmt, int index, String field)
+						throws SQLException {
+					stmt.setInt(index, Integer.parseInt(field));
+				}
+
+				@Override
+				void set(PreparedStatement stmt, int index, byte[] bytes,
+						int start, int end) throws SQLException {
+					stmt.setInt(index, parseInt(bytes, start, end));
+				}
+			};
+		case Types.SMALLINT:
+			return new Converter() {
+				@Override
+				void set(PreparedStatement stmt, int index, String field)
+						throws SQLException {
+					stmt.setShort(index, Short.parseShort(field));
+				}
+
+				@Override
+				void set(PreparedStatement stmt, int index, byte[] bytes,
+						int start, int end) throws SQLException {
+					stmt.setShort(index, parseShort(bytes, start, end));
+				}
+			};
+		case Types.BIGINT:
+			return new Converter() {
+				@Override
+				void set(PreparedStatement stmt, int index, String field)
+						throws SQLException {
+					stmt.setLong(index, Long.parseLong(field));
+				}
+
+				@Override
+				void set(PreparedStatement stmt, int index, byte[] bytes,
+						int start, int end) throws SQLException {
+					stmt.setLong(index, parseLong(bytes, start, end));
+				}
+			};
+		case Types.REAL:
+		case Types.FLOAT:
+			return new Converter() {
+				@Override
+				void set(PreparedStatement stmt, int index, String field)
+						throws SQLException {
+					stmt.setFloat(index, Float.parseFloat(field));
+				}
+			};
+		case Types.DOUBLE:
+			return new Converter() {
+				@Override
+				void set(PreparedStatement stmt, int index, String field)
+						throws SQLException {
+					stmt.setDouble(index, Double.parseDouble(field));
+				}
+			};
+		case Types.DATE:
+			return new Converter() {
+				@Override
+				void set(PreparedStatement stmt, int index, String field)
+						throws SQLException {
+					stmt.setDate(index, Date.valueOf(field));
+				}
+
+				@Override
+				void set(PreparedStatement stmt, int index, byte[] bytes,
+						int start, int end) throws SQLException {
+					stmt.setDate(index, parseDate(bytes, start, end));
+				}
+			};
+		case Types.TIME:
+			return new Converter() {
+				@Override
+				void set(PreparedStatement stmt, int index, String field)
+						throws SQLException {
+					stmt.setTime(index, Time.valueOf(field));
+				}
+			};
+		case Types.TIMESTAMP:
+			return new Converter() {
+				@Override
+				void set(PreparedStatement stmt, int index, String field)
+						throws SQLException {
+					stmt.setTimestamp(index, Timestamp.valueOf(field));
+				}
+
+				@Override
+				void set(PreparedStatement stmt, int index, byte[] bytes,
+						int start, int end) throws SQLException {
+					stmt.setTimestamp(index, parseTimestamp(bytes, start, end));
+				}
+			};
+		default:
+			return new Converter() {
+				@Override
+				void set(PreparedStatement stmt, int index, String field)
+						throws IOException {
+					throw new IOException("Type for " + field
+							+ " is not yet implemented");
+				}
+			};
+		}
+	}
+
+	/**
+	 * Parses an int like {@link Integer#parseInt(String)}
+	 */
+	static int parseInt(byte[] bytes, int start, int end) {
+		long value = parseDigits(bytes, start, end, 10);
+		if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+			return Integer.parseInt(decode(bytes, start, end));
+		}
+
+		return (int) value;
+	}
+
+	/**
+	 * Parses a short like {@link Short#parseShort(String)}
+	 */
+	static short parseShort(byte[] bytes, int start, int end) {
+		long value = parseDigits(bytes, start, end, 5);
+		if (value < Short.MIN_VALUE || value > Short.MAX_VALUE) {
+			return Short.parseShort(decode(bytes, start, end));
+		}
+
+		return (short) value;
+	}
+
+	/**
+	 * Parses a long like {@link Long#parseLong(String)}
+	 */
+	static long parseLong(byte[] bytes, int start, int end) {
+		long value = parseDigits(bytes, start, end, 18);
+		if (value == Long.MIN_VALUE) {
+			return Long.parseLong(decode(bytes, start, end));
+		}
+
+		return value;
+	}
+
+	/**
+	 * Parses an optionally signed run of at most the given number of ASCII
+	 * digits
+	 *
+	 * @return The value, or {@link Long#MIN_VALUE} if the field is anything
+	 *         else
+	 */
+	private static long parseDigits(byte[] bytes, int start, int end,
+			int maxDigits) {
+		boolean negative = false;
+		if (start < end && (bytes[start] == '-' || bytes[start] == '+')) {
+			negative = bytes[start] == '-';
+			++start;
+		}
+
+		if (start == end || end - start > maxDigits) {
+			return Long.MIN_VALUE;
+		}
+
+		long value = 0;
+		for (int i = start; i < end; ++i) {
+			int digit = bytes[i] - '0';
+			if (digit < 0 || digit > 9) {
+				return Long.MIN_VALUE;
+			}
+			value = value * 10 + digit;
+		}
+
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Parses a date like {@link Date#valueOf(String)}. Only
+	 * <code>yyyy-mm-dd</code> is parsed from the bytes.
+	 */
+	@SuppressWarnings("deprecation")
+	static Date parseDate(byte[] bytes, int start, int end) {
+		if (end - start == 10 && isDate(bytes, start)) {
+			return new Date(digits(bytes, start, 4) - 1900, digits(bytes,
+					start + 5, 2) - 1, digits(bytes, start + 8, 2));
+		}
+
+		return Date.valueOf(decode(bytes, start, end));
+	}
+
+	/**
+	 * Parses a timestamp like {@link Timestamp#valueOf(String)}. Only
+	 * <code>yyyy-mm-dd hh:mm:ss[.f...]</code> with up to nine fractional
+	 * digits is parsed from the bytes.
+	 */
+	@SuppressWarnings("deprecation")
+	static Timestamp parseTimestamp(byte[] bytes, int start, int end) {
+		int length = end - start;
+		boolean fraction = length > 20 && length <= 29
+				&& bytes[start + 19] == '.'
+				&& isDigits(bytes, start + 20, length - 20);
+
+		if ((length == 19 || fraction) && isDate(bytes, start)
+				&& bytes[start + 10] == ' ' && bytes[start + 13] == ':'
+				&& bytes[start + 16] == ':' && isDigits(bytes, start + 11, 2)
+				&& isDigits(bytes, start + 14, 2)
+				&& isDigits(bytes, start + 17, 2)) {
+
+			// the fraction is padded out to nanoseconds
+			int nanos = 0;
+			if (fraction) {
+				nanos = digits(bytes, start + 20, length - 20);
+				for (int i = length; i < 29; ++i) {
+					nanos *= 10;
+				}
+			}
+
+			return new Timestamp(digits(bytes, start, 4) - 1900, digits(bytes,
+					start + 5, 2) - 1, digits(bytes, start + 8, 2), digits(
+					bytes, start + 11, 2), digits(bytes, start + 14, 2),
+					digits(bytes, start + 17, 2), nanos);
+		}
+
+		return Timestamp.valueOf(decode(bytes, start, end));
+	}
+
+	/**
+	 * Checks for a valid <code>yyyy-mm-dd</code> date at the given offset
+	 */
+	private static boolean isDate(byte[] bytes, int start) {
+		if (bytes[start + 4] != '-' || bytes[start + 7] != '-'
+				|| !isDigits(bytes, start, 4) || !isDigits(bytes, start + 5, 2)
+				|| !isDigits(bytes, start + 8, 2)) {
+			return false;
+		}
+
+		int month = digits(bytes, start + 5, 2);
+		int day = digits(bytes, start + 8, 2);
+		return month >= 1 && month <= 12 && day >= 1 && day <= 31;
+	}
+
+	private static boolean isDigits(byte[] bytes, int start, int count) {
+		for (int i = start; i < start + count; ++i) {
+			if (bytes[i] < '0' || bytes[i] > '9') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int digits(byte[] bytes, int start, int count) {
+		int value = 0;
+		for (int i = start; i < start + count; ++i) {
+			value = value * 10 + bytes[i] - '0';
+		}
+		return value;
+	}
+
+	private static String decode(byte[] bytes, int start, int end) {
+		return new String(bytes, start, end - start, UTF8);
+	}
+}
@@ -0,0 +1,21 @@
+package com.gopivotal.mapreduce.lib.output;
+
+import java.io.IOException;
+
+/**
+ * A record that writes its own typed columns, so it can be written to HAWQ by
+ * the {@link HawqWritableOutputFormat} without first being formatted as
+ * delimited text and then parsed back.
+ */
+public interface HawqWritable {
+
+	/**
+	 * Writes the columns of this record, in the order of the columns of the
+	 * table
+	 * 
+	 * @param out
+	 *            The writer to write the columns to
+	 * @throws IOException
+	 */
+	public void writeColumns(HawqColumnWriter out) throws IOException;
+}
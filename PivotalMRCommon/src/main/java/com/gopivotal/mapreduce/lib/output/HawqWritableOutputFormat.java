@@ -0,0 +1,77 @@
+package com.gopivotal.mapreduce.lib.output;
+
+import java.io.IOException;
+
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.OutputCommitter;
+import org.apache.hadoop.mapreduce.OutputFormat;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+import com.gopivotal.mapreduce.lib.output.HawqOutputFormat.HawqCopyRecordWriter;
+
+/**
+ * A HAWQ output format for typed records. Each key is a {@link HawqWritable}
+ * that writes its own columns, which are encoded straight into a COPY stream,
+ * so upstream jobs holding typed values never format them as delimited text.
+ * The value is ignored.<br>
+ * <br>
+ * Configured through the static methods of {@link HawqOutputFormat}. Rows are
+ * always written with COPY, in the format set by
+ * {@link HawqOutputFormat#setCopyFormat(org.apache.hadoop.mapreduce.Job, HawqCopyEncoder.Format)}
+ * , and the delimiter and input fields are not used. HAWQ's COPY does not
+ * read the binary format, so values are sent in their exact text form.
+ */
+public class HawqWritableOutputFormat extends
+		OutputFormat<HawqWritable, Object> {
+
+	private HawqOutputFormat delegate = new HawqOutputFormat();
+
+	@Override
+	public void checkOutputSpecs(JobContext context) throws IOException,
+			InterruptedException {
+		delegate.checkOutputSpecs(context);
+	}
+
+	@Override
+	public OutputCommitter getOutputCommitter(TaskAttemptContext context)
+			throws IOException, InterruptedException {
+		return delegate.getOutputCommitter(context);
+	}
+
+	@Override
+	public RecordWriter<HawqWritable, Object> getRecordWriter(
+			TaskAttemptContext context) throws IOException,
+			InterruptedException {
+		if (HawqOutputFormat.isStaging(context.getConfiguration())) {
+			HawqOutputCommitter.createAttemptTable(context);
+		}
+
+		return new HawqWritableRecordWriter(context);
+	}
+
+	/**
+	 * Writes typed records through a {@link HawqCopyRecordWriter}
+	 */
+	public static class HawqWritableRecordWriter extends
+			RecordWriter<HawqWritable, Object> {
+
+		private HawqCopyRecordWriter writer = null;
+
+		public HawqWritableRecordWriter(TaskAttemptContext context) {
+			writer = new HawqCopyRecordWriter(context);
+		}
+
+		@Override
+		public void write(HawqWritable key, Object value) throws IOException,
+				InterruptedException {
+			writer.write(key);
+		}
+
+		@Override
+		public void close(TaskAttemptContext context) throws IOException,
+				InterruptedException {
+			writer.close(context);
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package com.gopivotal.mapreduce.util;
+
+import org.apache.hadoop.util.StringUtils;
+
+/**
+ * Describes a column of a HAWQ table, as read from the catalog by
+ * {@link HawqUtil}. Columns can be encoded into a String, so they can be passed
+ * to tasks through the job configuration instead of each task reading the
+ * catalog.
+ */
+public class HawqColumn {
+
+	private static final char ESCAPE = '\\';
+	private static final char FIELD_SEPARATOR = ':';
+	private static final char COLUMN_SEPARATOR = ',';
+	private static final char[] SEPARATORS = new char[] { FIELD_SEPARATOR,
+			COLUMN_SEPARATOR };
+
+	private String name = null;
+	private int type = 0;
+	private String typeName = null;
+	private int precision = 0;
+	private int scale = 0;
+	private boolean nullable = true;
+
+	/**
+	 * Creates a new column
+	 *
+	 * @param name
+	 *            The column name
+	 * @param type
+	 *            The SQL type, from {@link java.sql.Types}
+	 * @param typeName
+	 *            The name of the type in HAWQ, such as <code>int4</code>
+	 * @param precision
+	 *            The precision of numeric columns, or the length of character
+	 *            columns
+	 * @param scale
+	 *            The scale of numeric columns
+	 * @param nullable
+	 *            Whether the column may be NULL
+	 */
+	public HawqColumn(String name, int type, String typeName, int precision,
+			int scale, boolean nullable) {
+		this.name = name;
+		this.type = type;
+		this.typeName = typeName;
+		this.precision = precision;
+		this.scale = scale;
+		this.nullable = nullable;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getType() {
+		return type;
+	}
+
+	public String getTypeName() {
+		return typeName;
+	}
+
+	public int getPrecision() {
+		return precision;
+	}
+
+	public int getScale() {
+		return scale;
+	}
+
+	public boolean isNullable() {
+		return nullable;
+	}
+
+	@Override
+	public String toString() {
+		return name + " " + typeName + "(" + precision + "," + scale + ")"
+				+ (nullable ? "" : " NOT NULL");
+	}
+
+	/**
+	 * Encodes the columns into a String that can be set in a configuration
+	 *
+	 * @param columns
+	 *            The columns
+	 * @return The encoded columns
+	 */
+	public static String encode(HawqColumn... columns) {
+		StringBuilder bldr = new StringBuilder();
+		for (HawqColumn column : columns) {
+			if (bldr.length() != 0) {
+				bldr.append(COLUMN_SEPARATOR);
+			}
+
+			bldr.append(escape(column.name)).append(FIELD_SEPARATOR)
+					.append(column.type).append(FIELD_SEPARATOR)
+					.append(escape(column.typeName)).append(FIELD_SEPARATOR)
+					.append(column.precision).append(FIELD_SEPARATOR)
+					.append(column.scale).append(FIELD_SEPARATOR)
+					.append(column.nullable);
+		}
+
+		return bldr.toString();
+	}
+
+	/**
+	 * Decodes columns encoded by {@link #encode(HawqColumn...)}
+	 *
+	 * @param encoded
+	 *            The encoded columns
+	 * @return The columns
+	 * @throws IllegalArgumentException
+	 *             If the String is not a valid encoding
+	 */
+	public static HawqColumn[] decode(String encoded) {
+		String[] columns = StringUtils.split(encoded, ESCAPE, COLUMN_SEPARATOR);
+		HawqColumn[] retval = new HawqColumn[columns.length];
+
+		for (int i = 0; i < columns.length; ++i) {
+			String[] fields = StringUtils.split(columns[i], ESCAPE,
+					FIELD_SEPARATOR);
+			if (fields.length != 6) {
+				throw new IllegalArgumentException("Invalid column: "
+						+ columns[i]);
+			}
+
+			retval[i] = new HawqColumn(unescape(fields[0]),
+					Integer.parseInt(fields[1]), unescape(fields[2]),
+					Integer.parseInt(fields[3]), Integer.parseInt(fields[4]),
+					Boolean.parseBoolean(fields[5]));
+		}
+
+		return retval;
+	}
+
+	private static String escape(String s) {
+		return StringUtils.escapeString(s, ESCAPE, SEPARATORS);
+	}
+
+	private static String unescape(String s) {
+		return StringUtils.unEscapeString(s, ESCAPE, SEPARATORS);
+	}
+}
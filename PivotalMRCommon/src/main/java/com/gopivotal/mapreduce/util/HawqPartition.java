@@ -0,0 +1,83 @@
+package com.gopivotal.mapreduce.util;
+
+/**
+ * Describes a leaf partition of a partitioned HAWQ table, as read from the
+ * catalog by {@link HawqUtil}. The bounds of range partitions and the values
+ * of list partitions are evaluated by HAWQ, so they are JDBC objects of the
+ * partition key's type, such as {@link java.sql.Date} or {@link Integer}.
+ */
+public class HawqPartition {
+
+	private String name = null;
+	private boolean defaultPartition = false;
+	private Object start = null;
+	private boolean startInclusive = false;
+	private Object end = null;
+	private boolean endInclusive = false;
+	private Object[] values = null;
+
+	/**
+	 * Creates a new partition
+	 *
+	 * @param name
+	 *            The partition table, qualified by its schema
+	 * @param defaultPartition
+	 *            Whether this is the default partition, which holds the rows
+	 *            of no other partition
+	 * @param start
+	 *            The lower bound of a range partition, or null if unbounded
+	 * @param startInclusive
+	 *            Whether the lower bound is in the partition
+	 * @param end
+	 *            The upper bound of a range partition, or null if unbounded
+	 * @param endInclusive
+	 *            Whether the upper bound is in the partition
+	 * @param values
+	 *            The values of a list partition, or null for a range
+	 *            partition
+	 */
+	public HawqPartition(String name, boolean defaultPartition, Object start,
+			boolean startInclusive, Object end, boolean endInclusive,
+			Object[] values) {
+		this.name = name;
+		this.defaultPartition = defaultPartition;
+		this.start = start;
+		this.startInclusive = startInclusive;
+		this.end = end;
+		this.endInclusive = endInclusive;
+		this.values = values;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public boolean isDefault() {
+		return defaultPartition;
+	}
+
+	public Object getStart() {
+		return start;
+	}
+
+	public boolean isStartInclusive() {
+		return startInclusive;
+	}
+
+	public Object getEnd() {
+		return end;
+	}
+
+	public boolean isEndInclusive() {
+		return endInclusive;
+	}
+
+	public Object[] getValues() {
+		return values;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
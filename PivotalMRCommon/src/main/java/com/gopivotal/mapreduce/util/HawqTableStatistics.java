@@ -0,0 +1,155 @@
+package com.gopivotal.mapreduce.util;
+
+/**
+ * Describes the size and contents of a HAWQ table, as read from the catalog
+ * by {@link HawqUtil}. The numbers are those HAWQ keeps for its own planner,
+ * so they are as current as the last ANALYZE of the table. Statistics are
+ * immutable, so cached instances can be shared.
+ */
+public class HawqTableStatistics {
+
+	private final long rows;
+	private final long bytes;
+	private final ColumnStatistics[] columns;
+
+	/**
+	 * Creates new statistics
+	 *
+	 * @param rows
+	 *            The estimated number of rows
+	 * @param bytes
+	 *            The size of the table on disk
+	 * @param columns
+	 *            The statistics of the analyzed columns
+	 */
+	public HawqTableStatistics(long rows, long bytes,
+			ColumnStatistics[] columns) {
+		this.rows = rows;
+		this.bytes = bytes;
+		this.columns = columns.clone();
+	}
+
+	public long getRows() {
+		return rows;
+	}
+
+	public long getBytes() {
+		return bytes;
+	}
+
+	public ColumnStatistics[] getColumns() {
+		return columns.clone();
+	}
+
+	/**
+	 * Gets the statistics of a column
+	 *
+	 * @param name
+	 *            The column name
+	 * @return The statistics, or null if the column was not analyzed
+	 */
+	public ColumnStatistics getColumn(String name) {
+		for (ColumnStatistics column : columns) {
+			if (column.getName().equals(name)) {
+				return column;
+			}
+		}
+
+		return null;
+	}
+
+	@Override
+	public String toString() {
+		return rows + " rows, " + bytes + " bytes, " + columns.length
+				+ " analyzed columns";
+	}
+
+	/**
+	 * Describes the values of a column, from <code>pg_stats</code>. The
+	 * values are in their text form, so ordering them, such as to find the
+	 * range of the column, needs the type of the column.
+	 */
+	public static class ColumnStatistics {
+
+		private final String name;
+		private final float nullFraction;
+		private final long distinct;
+		private final String[] histogramBounds;
+		private final String[] mostCommonValues;
+
+		/**
+		 * Creates new column statistics
+		 *
+		 * @param name
+		 *            The column name
+		 * @param nullFraction
+		 *            The fraction of rows where the column is NULL
+		 * @param distinct
+		 *            The estimated number of distinct values, or -1 if unknown
+		 * @param histogramBounds
+		 *            The sorted bounds of the histogram of the values other
+		 *            than the most common ones, or null if there is none
+		 * @param mostCommonValues
+		 *            The most common values, or null if there are none
+		 */
+		public ColumnStatistics(String name, float nullFraction, long distinct,
+				String[] histogramBounds, String[] mostCommonValues) {
+			this.name = name;
+			this.nullFraction = nullFraction;
+			this.distinct = distinct;
+			this.histogramBounds = histogramBounds == null ? new String[0]
+					: histogramBounds.clone();
+			this.mostCommonValues = mostCommonValues == null ? new String[0]
+					: mostCommonValues.clone();
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public float getNullFraction() {
+			return nullFraction;
+		}
+
+		public long getDistinct() {
+			return distinct;
+		}
+
+		public String[] getHistogramBounds() {
+			return histogramBounds.clone();
+		}
+
+		public String[] getMostCommonValues() {
+			return mostCommonValues.clone();
+		}
+
+		/**
+		 * Gets the values that may be the smallest or largest of the column:
+		 * the ends of the histogram and every common value, which the
+		 * histogram leaves out
+		 *
+		 * @return The values, empty if the column has no histogram or common
+		 *         values
+		 */
+		public String[] getExtremeCandidates() {
+			int common = mostCommonValues.length;
+			int bounds = histogramBounds.length;
+			String[] candidates = new String[common + (bounds > 0 ? 2 : 0)];
+
+			System.arraycopy(mostCommonValues, 0, candidates, 0, common);
+			if (bounds > 0) {
+				candidates[common] = histogramBounds[0];
+				candidates[common + 1] = histogramBounds[bounds - 1];
+			}
+
+			return candidates;
+		}
+
+		@Override
+		public String toString() {
+			return name + " nulls=" + nullFraction + " distinct=" + distinct
+					+ " bounds=" + histogramBounds.length + " common="
+					+ mostCommonValues.length;
+		}
+	}
+}
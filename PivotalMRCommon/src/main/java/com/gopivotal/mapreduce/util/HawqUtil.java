@@ -3,20 +3,549 @@ package com.gopivotal.mapreduce.util;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.log4j.Logger;
 
+import com.gopivotal.mapreduce.util.HawqTableStatistics.ColumnStatistics;
+
+/**
+ * Reads table metadata from the HAWQ catalog. The columns and statistics of
+ * each table are cached, keyed by the URL, user, schema, and table, for
+ * {@link #setCacheTtl(long)} milliseconds, so a client that launches many jobs
+ * against the same tables reads the catalog once. Partitions are read each
+ * time, since they are added and dropped as data arrives.
+ */
 public class HawqUtil {
 
 	private static final Logger LOG = Logger.getLogger(HawqUtil.class);
 
-	public static Integer[] getColumnDefs(String url, String table, String user,
-			String password) throws SQLException {
+	private static final Map<String, CacheEntry<HawqColumn[]>> CACHE = new ConcurrentHashMap<String, CacheEntry<HawqColumn[]>>();
+	private static final Map<String, CacheEntry<HawqTableStatistics>> STATS_CACHE = new ConcurrentHashMap<String, CacheEntry<HawqTableStatistics>>();
+	private static volatile long cacheTtl = 5 * 60 * 1000;
+
+	private static class CacheEntry<T> {
+		private T value;
+		private long expires;
+
+		private CacheEntry(T value, long expires) {
+			this.value = value;
+			this.expires = expires;
+		}
+
+		private boolean isValid() {
+			return expires > System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * Sets how long the columns of a table are cached for. Zero disables the
+	 * cache.<br>
+	 * <br>
+	 * Default is five minutes.
+	 *
+	 * @param millis
+	 *            The time to live, in milliseconds
+	 */
+	public static void setCacheTtl(long millis) {
+		cacheTtl = millis;
+	}
+
+	/**
+	 * Removes all tables from the cache
+	 */
+	public static void clearCache() {
+		CACHE.clear();
+		STATS_CACHE.clear();
+	}
+
+	/**
+	 * Gets the SQL types of the columns of a table, in order
+	 *
+	 * @see #getColumns(String, String, String, String)
+	 */
+	public static Integer[] getColumnDefs(String url, String table,
+			String user, String password) throws SQLException {
+
+		HawqColumn[] columns = getColumns(url, table, user, password);
+		if (columns == null) {
+			return null;
+		}
+
+		Integer[] types = new Integer[columns.length];
+		for (int i = 0; i < columns.length; ++i) {
+			types[i] = columns[i].getType();
+		}
+
+		return types;
+	}
+
+	/**
+	 * Gets the columns of a table, in order
+	 *
+	 * @param url
+	 *            The JDBC URL of the database
+	 * @param table
+	 *            The table name, optionally qualified by a schema as
+	 *            <code>schema.table</code>. Without one, the current schema
+	 *            is used.
+	 * @param user
+	 *            The user to connect as, or null
+	 * @param password
+	 *            The password of the user, or null
+	 * @return The columns, or null if the table was not found
+	 * @throws SQLException
+	 */
+	public static HawqColumn[] getColumns(String url, String table,
+			String user, String password) throws SQLException {
+
+		String schema = null;
+		int dot = table.indexOf('.');
+		if (dot >= 0) {
+			schema = table.substring(0, dot);
+			table = table.substring(dot + 1);
+		}
+
+		String key = url + "\u0000" + user + "\u0000" + schema + "\u0000"
+				+ table;
+
+		CacheEntry<HawqColumn[]> entry = CACHE.get(key);
+		if (entry != null && entry.isValid()) {
+			return entry.value.clone();
+		}
+
+		HawqColumn[] columns = readColumns(url, schema, table, user, password);
+
+		if (cacheTtl > 0 && columns != null) {
+			CACHE.put(key, new CacheEntry<HawqColumn[]>(columns, System
+					.currentTimeMillis() + cacheTtl));
+			return columns.clone();
+		}
+
+		return columns;
+	}
+
+	private static HawqColumn[] readColumns(String url, String schema,
+			String table, String user, String password) throws SQLException {
+
+		Connection client = connect(url, user, password);
+		Statement stmt = null;
+		ResultSet set = null;
+		try {
+			// without a schema, use the one unqualified names are created in
+			if (schema == null) {
+				stmt = client.createStatement();
+				set = stmt.executeQuery("SELECT current_schema()");
+				schema = set.next() ? set.getString(1) : null;
+				set.close();
+				set = null;
+
+				if (schema == null) {
+					return null;
+				}
+			}
+
+			// the names are patterns to the catalog, so escape the wildcards,
+			// and only keep the columns of the table itself
+			DatabaseMetaData data = client.getMetaData();
+			String escape = data.getSearchStringEscape();
+			set = data.getColumns(null, escapePattern(schema, escape),
+					escapePattern(table, escape), null);
+
+			List<HawqColumn> columns = new ArrayList<HawqColumn>();
+			while (set.next()) {
+				if (!schema.equals(set.getString("TABLE_SCHEM"))
+						|| !table.equals(set.getString("TABLE_NAME"))) {
+					continue;
+				}
+
+				columns.add(new HawqColumn(set.getString("COLUMN_NAME"), set
+						.getInt("DATA_TYPE"), set.getString("TYPE_NAME"), set
+						.getInt("COLUMN_SIZE"), set.getInt("DECIMAL_DIGITS"),
+						set.getInt("NULLABLE") != DatabaseMetaData.columnNoNulls));
+			}
+
+			return columns.size() > 0 ? columns.toArray(new HawqColumn[0])
+					: null;
+		} finally {
+			close(set, stmt, client);
+		}
+	}
+
+	/**
+	 * Escapes the wildcards of a catalog search pattern, so it only matches
+	 * the given name
+	 * 
+	 * @param name
+	 *            The name
+	 * @param escape
+	 *            The search string escape of the database
+	 * @return The pattern
+	 */
+	static String escapePattern(String name, String escape) {
+		if (escape == null || escape.isEmpty()) {
+			return name;
+		}
+
+		return name.replace(escape, escape + escape)
+				.replace("_", escape + "_").replace("%", escape + "%");
+	}
+
+	/**
+	 * Gets the statistics of a table. The rows and size of a partitioned table
+	 * are those of all its partitions.
+	 *
+	 * @param url
+	 *            The JDBC URL of the database
+	 * @param table
+	 *            The table name, optionally qualified by a schema as
+	 *            <code>schema.table</code>. Without one, the current schema
+	 *            is used.
+	 * @param user
+	 *            The user to connect as, or null
+	 * @param password
+	 *            The password of the user, or null
+	 * @return The statistics, or null if the table does not exist or has not
+	 *         been analyzed
+	 * @throws SQLException
+	 */
+	public static HawqTableStatistics getTableStatistics(String url,
+			String table, String user, String password) throws SQLException {
+
+		String key = url + "\u0000" + user + "\u0000" + table;
+
+		CacheEntry<HawqTableStatistics> entry = STATS_CACHE.get(key);
+		if (entry != null && entry.isValid()) {
+			return entry.value;
+		}
+
+		HawqTableStatistics stats = readStatistics(url, table, user, password);
+
+		if (cacheTtl > 0) {
+			STATS_CACHE.put(key, new CacheEntry<HawqTableStatistics>(stats,
+					System.currentTimeMillis() + cacheTtl));
+		}
+
+		return stats;
+	}
+
+	private static HawqTableStatistics readStatistics(String url,
+			String table, String user, String password) throws SQLException {
+
+		String schema = null;
+		int dot = table.indexOf('.');
+		if (dot >= 0) {
+			schema = table.substring(0, dot);
+			table = table.substring(dot + 1);
+		}
+
+		String schemaMatch = schema == null ? "current_schema()" : "?";
+
+		Connection client = connect(url, user, password);
+		PreparedStatement stmt = null;
+		ResultSet set = null;
+		try {
+			// reltuples is ANALYZE's estimate of the rows. A partitioned
+			// table's rows are in its partitions.
+			stmt = client.prepareStatement("SELECT count(*), "
+					+ "coalesce(sum(c.reltuples), 0), "
+					+ "coalesce(sum(c.relpages), 0), "
+					+ "coalesce(sum(pg_relation_size(c.oid)), 0) "
+					+ "FROM pg_class c "
+					+ "JOIN pg_namespace n ON n.oid = c.relnamespace "
+					+ "WHERE (n.nspname = " + schemaMatch
+					+ " AND c.relname = ?) "
+					+ "OR (n.nspname, c.relname) IN (SELECT "
+					+ "partitionschemaname, partitiontablename "
+					+ "FROM pg_partitions WHERE schemaname = " + schemaMatch
+					+ " AND tablename = ?)");
+			bind(stmt, schema, table, 2);
+			set = stmt.executeQuery();
+			set.next();
+
+			long rows = (long) set.getDouble(2);
+			long bytes = set.getLong(4);
+
+			// A table never analyzed still has zero reltuples and relpages.
+			// It has no statistics, like an unknown table, rather than none
+			// of the rows Pig would size the job by.
+			if (set.getLong(1) == 0) {
+				LOG.info("No statistics for " + table + ", it was not found");
+				return null;
+			} else if (rows == 0 && set.getLong(3) == 0) {
+				LOG.info("No statistics for " + table
+						+ ", it has not been analyzed");
+				return null;
+			}
+
+			set.close();
+			stmt.close();
+
+			stmt = client.prepareStatement("SELECT attname, null_frac, "
+					+ "n_distinct, histogram_bounds, most_common_vals "
+					+ "FROM pg_stats WHERE schemaname = " + schemaMatch
+					+ " AND tablename = ?");
+			bind(stmt, schema, table, 1);
+			set = stmt.executeQuery();
+
+			List<ColumnStatistics> columns = new ArrayList<ColumnStatistics>();
+			while (set.next()) {
+				// A negative n_distinct is a fraction of the rows
+				float distinct = set.getFloat(3);
+				long numDistinct = distinct > 0 ? (long) distinct
+						: distinct < 0 ? (long) (-distinct * rows) : -1;
+
+				columns.add(new ColumnStatistics(set.getString(1), set
+						.getFloat(2), numDistinct, parseArray(set.getString(4)),
+						parseArray(set.getString(5))));
+			}
+
+			HawqTableStatistics stats = new HawqTableStatistics(rows, bytes,
+					columns.toArray(new ColumnStatistics[0]));
+			LOG.info("Read statistics of " + table + ": " + stats);
+			return stats;
+		} finally {
+			close(set, stmt, client);
+		}
+	}
+
+	/**
+	 * Binds a schema, or nothing if null, and a table name the given number of
+	 * times
+	 */
+	private static void bind(PreparedStatement stmt, String schema,
+			String table, int times) throws SQLException {
+		int idx = 1;
+		for (int i = 0; i < times; ++i) {
+			if (schema != null) {
+				stmt.setString(idx++, schema);
+			}
+			stmt.setString(idx++, table);
+		}
+	}
+
+	/**
+	 * Parses the text form of a one-dimensional array, such as
+	 * <code>{1,"a b",NULL}</code>
+	 *
+	 * @param literal
+	 *            The array, or null
+	 * @return The elements, with null for NULL, or null if the literal is null
+	 *         or not an array
+	 */
+	static String[] parseArray(String literal) {
+		if (literal == null || literal.length() < 2
+				|| literal.charAt(0) != '{'
+				|| literal.charAt(literal.length() - 1) != '}') {
+			return null;
+		}
+
+		List<String> elements = new ArrayList<String>();
+		if (literal.length() == 2) {
+			return new String[0];
+		}
+
+		StringBuilder bldr = new StringBuilder();
+		boolean quoted = false;
+		boolean inQuotes = false;
+		for (int i = 1; i < literal.length() - 1; ++i) {
+			char c = literal.charAt(i);
+			if (inQuotes) {
+				if (c == '\\') {
+					bldr.append(literal.charAt(++i));
+				} else if (c == '"') {
+					inQuotes = false;
+				} else {
+					bldr.append(c);
+				}
+			} else if (c == '"') {
+				inQuotes = true;
+				quoted = true;
+			} else if (c == ',') {
+				elements.add(element(bldr, quoted));
+				bldr.setLength(0);
+				quoted = false;
+			} else {
+				bldr.append(c);
+			}
+		}
+
+		elements.add(element(bldr, quoted));
+		return elements.toArray(new String[0]);
+	}
+
+	private static String element(StringBuilder bldr, boolean quoted) {
+		String value = bldr.toString();
+		return !quoted && value.equals("NULL") ? null : value;
+	}
+
+	/**
+	 * Gets the partition keys of a table, outermost level first
+	 *
+	 * @param url
+	 *            The JDBC URL of the database
+	 * @param table
+	 *            The table name, optionally qualified by a schema as
+	 *            <code>schema.table</code>. Without one, the current schema
+	 *            is used.
+	 * @param user
+	 *            The user to connect as, or null
+	 * @param password
+	 *            The password of the user, or null
+	 * @return The key columns, or null if the table is not partitioned
+	 * @throws SQLException
+	 */
+	public static String[] getPartitionKeys(String url, String table,
+			String user, String password) throws SQLException {
+
+		Connection client = connect(url, user, password);
+		PreparedStatement stmt = null;
+		ResultSet set = null;
+		try {
+			stmt = prepare(client,
+					"SELECT columnname FROM pg_partition_columns", table,
+					"ORDER BY partitionlevel, position_in_partition_key");
+			set = stmt.executeQuery();
+
+			List<String> keys = new ArrayList<String>();
+			while (set.next()) {
+				keys.add(set.getString(1));
+			}
+
+			return keys.size() > 0 ? keys.toArray(new String[0]) : null;
+		} finally {
+			close(set, stmt, client);
+		}
+	}
+
+	/**
+	 * Gets the leaf partitions of a table, which hold its rows, in partition
+	 * order
+	 *
+	 * @param url
+	 *            The JDBC URL of the database
+	 * @param table
+	 *            The table name, optionally qualified by a schema as
+	 *            <code>schema.table</code>. Without one, the current schema
+	 *            is used.
+	 * @param user
+	 *            The user to connect as, or null
+	 * @param password
+	 *            The password of the user, or null
+	 * @return The partitions, or null if the table is not partitioned
+	 * @throws SQLException
+	 */
+	public static HawqPartition[] getPartitions(String url, String table,
+			String user, String password) throws SQLException {
+
+		Connection client = connect(url, user, password);
+		PreparedStatement stmt = null;
+		Statement eval = null;
+		ResultSet set = null;
+		try {
+			stmt = prepare(client, "SELECT partitionlevel, "
+					+ "partitionschemaname, partitiontablename, "
+					+ "partitionisdefault, partitionrangestart, "
+					+ "partitionstartinclusive, partitionrangeend, "
+					+ "partitionendinclusive, partitionlistvalues "
+					+ "FROM pg_partitions", table,
+					"ORDER BY partitionlevel, partitionposition");
+			set = stmt.executeQuery();
+			eval = client.createStatement();
+
+			// The leaves are the partitions of the last level
+			List<HawqPartition> partitions = new ArrayList<HawqPartition>();
+			int leafLevel = -1;
+			while (set.next()) {
+				int level = set.getInt(1);
+				if (level != leafLevel) {
+					partitions.clear();
+					leafLevel = level;
+				}
+
+				// The bounds and values are SQL expressions, which HAWQ
+				// evaluates into values of the key's type
+				Object[] start = evaluate(eval, set.getString(5));
+				Object[] end = evaluate(eval, set.getString(7));
+
+				partitions.add(new HawqPartition(set.getString(2) + "."
+						+ set.getString(3), set.getBoolean(4),
+						start == null ? null : start[0], set.getBoolean(6),
+						end == null ? null : end[0], set.getBoolean(8),
+						evaluate(eval, set.getString(9))));
+			}
+
+			return partitions.size() > 0 ? partitions
+					.toArray(new HawqPartition[0]) : null;
+		} finally {
+			if (eval != null) {
+				eval.close();
+			}
+
+			close(set, stmt, client);
+		}
+	}
+
+	/**
+	 * Prepares a query of a partition catalog view, which has the schemaname
+	 * and tablename columns
+	 */
+	private static PreparedStatement prepare(Connection client, String select,
+			String table, String orderBy) throws SQLException {
+		String schema = null;
+		int dot = table.indexOf('.');
+		if (dot >= 0) {
+			schema = table.substring(0, dot);
+			table = table.substring(dot + 1);
+		}
+
+		PreparedStatement stmt = client.prepareStatement(select
+				+ " WHERE schemaname = "
+				+ (schema == null ? "current_schema()" : "?")
+				+ " AND tablename = ? " + orderBy);
+		bind(stmt, schema, table, 1);
+
+		return stmt;
+	}
+
+	/**
+	 * Evaluates a comma-separated list of SQL expressions
+	 *
+	 * @return The values, or null if there are no expressions
+	 */
+	private static Object[] evaluate(Statement stmt, String expressions)
+			throws SQLException {
+		if (expressions == null || expressions.trim().isEmpty()) {
+			return null;
+		}
+
+		ResultSet set = stmt.executeQuery("SELECT " + expressions);
+		try {
+			set.next();
+
+			ResultSetMetaData data = set.getMetaData();
+			Object[] values = new Object[data.getColumnCount()];
+			for (int i = 0; i < values.length; ++i) {
+				values[i] = set.getObject(i + 1);
+			}
+
+			return values;
+		} finally {
+			set.close();
+		}
+	}
+
+	private static Connection connect(String url, String user, String password)
+			throws SQLException {
 
 		try {
 			// Load JDBC driver for Postgres
@@ -35,16 +564,21 @@ public class HawqUtil {
 			LOG.warn("User or password is set without the other. Continuing with no login auth");
 		}
 
-		Connection client = DriverManager.getConnection(url, props);
+		return DriverManager.getConnection(url, props);
+	}
 
-		DatabaseMetaData data = client.getMetaData();
-		ResultSet set = data.getColumns(null, null, table, null);
+	private static void close(ResultSet set, Statement stmt, Connection client)
+			throws SQLException {
+		try {
+			if (set != null) {
+				set.close();
+			}
 
-		List<Integer> types = new ArrayList<Integer>();
-		while (set.next()) {
-			types.add(set.getInt(5));
+			if (stmt != null) {
+				stmt.close();
+			}
+		} finally {
+			client.close();
 		}
-
-		return types.size() > 0 ? types.toArray(new Integer[0]) : null;
 	}
 }
@@ -0,0 +1,718 @@
+package com.gopivotal.pig;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.util.Date;
+import java.util.regex.Pattern;
+
+import org.apache.pig.Expression;
+import org.apache.pig.Expression.BinaryExpression;
+import org.apache.pig.Expression.Column;
+import org.apache.pig.Expression.Const;
+import org.apache.pig.Expression.OpType;
+import org.apache.pig.Expression.UnaryExpression;
+import org.joda.time.DateTime;
+
+import com.gopivotal.mapreduce.util.HawqPartition;
+
+/**
+ * A predicate on the fields of a HAWQ record, compiled from a Pig partition
+ * filter {@link Expression}. Every operator Pig pushes down is supported:
+ * comparisons, <code>matches</code>, <code>is null</code>, NOT, AND, and OR,
+ * over fields, constants, and arithmetic on them.<br>
+ * <br>
+ * A filter is evaluated on each record before it is converted to a tuple, and
+ * on the bounds of each partition to skip those that cannot hold a matching
+ * row. Comparisons follow SQL: one with a null field is unknown, and only rows
+ * for which the filter is true are kept. Numbers of any type are compared by
+ * value, and dates and times, from either Pig or JDBC, by their instant.
+ * Filters are immutable and serializable, so they can be passed to tasks.
+ */
+public abstract class HawqFilter implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The value of a field that is not known, such as a field other than the
+	 * key of a list partition. Any expression of it is unknown.
+	 */
+	private static final Object UNKNOWN = new Object();
+
+	/**
+	 * The fields of a record, by their index in the schema
+	 */
+	public interface Row {
+		Object get(int field);
+	}
+
+	/**
+	 * Evaluates the filter
+	 *
+	 * @param row
+	 *            The fields of the record
+	 * @return True or false, or null if unknown
+	 */
+	public abstract Boolean eval(Row row);
+
+	/**
+	 * Checks whether a range of values of a field may hold rows that match the
+	 * filter. Comparisons on other fields may always match.
+	 *
+	 * @param field
+	 *            The index of the field
+	 * @param start
+	 *            The lower bound of the range, or null if unbounded
+	 * @param startInclusive
+	 *            Whether the lower bound is in the range
+	 * @param end
+	 *            The upper bound of the range, or null if unbounded
+	 * @param endInclusive
+	 *            Whether the upper bound is in the range
+	 * @return False if no row in the range matches
+	 */
+	protected abstract boolean mayMatch(int field, Object start,
+			boolean startInclusive, Object end, boolean endInclusive);
+
+	/**
+	 * Checks whether a partition, keyed by the given field, may hold rows that
+	 * match the filter. Default partitions always may.
+	 *
+	 * @param field
+	 *            The index of the partition key
+	 * @param partition
+	 *            The partition
+	 * @return False if no row in the partition matches
+	 */
+	public boolean mayMatch(final int field, HawqPartition partition) {
+		if (partition.isDefault()) {
+			return true;
+		}
+
+		if (partition.getValues() == null) {
+			return mayMatch(field, partition.getStart(),
+					partition.isStartInclusive(), partition.getEnd(),
+					partition.isEndInclusive());
+		}
+
+		for (final Object value : partition.getValues()) {
+			Boolean match = eval(new Row() {
+				@Override
+				public Object get(int f) {
+					return f == field ? value : UNKNOWN;
+				}
+			});
+
+			// other fields are unknown, so only false rules the value out
+			if (match == null || match) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Compiles a Pig partition filter
+	 *
+	 * @param expr
+	 *            The filter
+	 * @param fields
+	 *            The names of the fields of the record, in order
+	 * @return The compiled filter
+	 * @throws IOException
+	 *             If the filter is not supported or names an unknown field
+	 */
+	public static HawqFilter compile(Expression expr, String[] fields)
+			throws IOException {
+		return compile(expr, fields, false);
+	}
+
+	/**
+	 * Compiles a filter, or its negation. NOT is pushed down to the
+	 * comparisons, so partitions can be skipped by negated filters too.
+	 */
+	private static HawqFilter compile(Expression expr, String[] fields,
+			boolean negate) throws IOException {
+		switch (expr.getOpType()) {
+		case OP_NOT:
+			return compile(((UnaryExpression) expr).getExpression(), fields,
+					!negate);
+		case OP_AND:
+		case OP_OR:
+			// not (a and b) is (not a) or (not b)
+			BinaryExpression bin = (BinaryExpression) expr;
+			return new Logical((expr.getOpType() == OpType.OP_AND) != negate,
+					compile(bin.getLhs(), fields, negate), compile(
+							bin.getRhs(), fields, negate));
+		case OP_NULL:
+			return new IsNull(value(((UnaryExpression) expr).getExpression(),
+					fields), negate);
+		case OP_MATCH:
+			bin = (BinaryExpression) expr;
+			if (bin.getRhs() instanceof Const
+					&& ((Const) bin.getRhs()).getValue() instanceof String) {
+				return new Match(value(bin.getLhs(), fields),
+						(String) ((Const) bin.getRhs()).getValue(), negate);
+			}
+			break;
+		case OP_EQ:
+		case OP_NE:
+		case OP_GT:
+		case OP_GE:
+		case OP_LT:
+		case OP_LE:
+			bin = (BinaryExpression) expr;
+			return new Comparison(negate ? negate(expr.getOpType())
+					: expr.getOpType(), value(bin.getLhs(), fields), value(
+					bin.getRhs(), fields));
+		default:
+			break;
+		}
+
+		throw new IOException("Unsupported partition filter: " + expr);
+	}
+
+	/**
+	 * Compiles an operand of a comparison
+	 */
+	private static Value value(Expression expr, String[] fields)
+			throws IOException {
+		switch (expr.getOpType()) {
+		case TERM_COL:
+			return new Field(indexOf((Column) expr, fields));
+		case TERM_CONST:
+			return new Constant(((Const) expr).getValue());
+		case OP_PLUS:
+		case OP_MINUS:
+		case OP_TIMES:
+		case OP_DIV:
+		case OP_MOD:
+			BinaryExpression bin = (BinaryExpression) expr;
+			return new Arithmetic(expr.getOpType(),
+					value(bin.getLhs(), fields), value(bin.getRhs(), fields));
+		default:
+			throw new IOException("Unsupported partition filter operand: "
+					+ expr);
+		}
+	}
+
+	private static int indexOf(Column column, String[] fields)
+			throws IOException {
+		for (int i = 0; i < fields.length; ++i) {
+			if (fields[i].equals(column.getName())) {
+				return i;
+			}
+		}
+
+		throw new IOException("Unknown field in partition filter: "
+				+ column.getName());
+	}
+
+	private static OpType flip(OpType op) {
+		switch (op) {
+		case OP_GT:
+			return OpType.OP_LT;
+		case OP_GE:
+			return OpType.OP_LE;
+		case OP_LT:
+			return OpType.OP_GT;
+		case OP_LE:
+			return OpType.OP_GE;
+		default:
+			return op;
+		}
+	}
+
+	private static OpType negate(OpType op) {
+		switch (op) {
+		case OP_EQ:
+			return OpType.OP_NE;
+		case OP_NE:
+			return OpType.OP_EQ;
+		case OP_GT:
+			return OpType.OP_LE;
+		case OP_GE:
+			return OpType.OP_LT;
+		case OP_LT:
+			return OpType.OP_GE;
+		case OP_LE:
+			return OpType.OP_GT;
+		default:
+			return op;
+		}
+	}
+
+	/**
+	 * Compares two values
+	 *
+	 * @return The comparison, or null if either is null or they are of
+	 *         different kinds
+	 */
+	static Integer compare(Object a, Object b) {
+		a = normalize(a);
+		b = normalize(b);
+
+		if (a == null || b == null) {
+			return null;
+		}
+
+		if (a instanceof Number && b instanceof Number) {
+			return compare((Number) a, (Number) b);
+		}
+
+		if (a instanceof DateTime && b instanceof DateTime) {
+			return ((DateTime) a).compareTo((DateTime) b);
+		}
+
+		if (a instanceof String && b instanceof String) {
+			return ((String) a).compareTo((String) b);
+		}
+
+		if (a instanceof Boolean && b instanceof Boolean) {
+			return ((Boolean) a).compareTo((Boolean) b);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Compares two numbers by value. Numbers of the same type, and integers
+	 * of any size, are compared directly. Only other mixes of types are
+	 * compared as decimals, so that a float equals the double it was written
+	 * as.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static int compare(Number a, Number b) {
+		if (isFloating(a) && isFloating(b) && a.getClass() == b.getClass()) {
+			return compare(a.doubleValue(), b.doubleValue());
+		}
+
+		if (a.getClass() == b.getClass()) {
+			return ((Comparable) a).compareTo(b);
+		}
+
+		if (isIntegral(a) && isIntegral(b)) {
+			return Long.compare(a.longValue(), b.longValue());
+		}
+
+		// NaN and infinity have no decimal value
+		if (!isFinite(a) || !isFinite(b)) {
+			return compare(a.doubleValue(), b.doubleValue());
+		}
+
+		return toBigDecimal(a).compareTo(toBigDecimal(b));
+	}
+
+	/**
+	 * Compares two doubles as SQL does, where zero and negative zero are
+	 * equal and NaN is equal to itself and above every other value
+	 */
+	private static int compare(double a, double b) {
+		return a < b ? -1 : a > b ? 1 : a == b ? 0 : Double.compare(a, b);
+	}
+
+	private static boolean isIntegral(Number value) {
+		return value instanceof Integer || value instanceof Long
+				|| value instanceof Short || value instanceof Byte;
+	}
+
+	private static boolean isFloating(Number value) {
+		return value instanceof Double || value instanceof Float;
+	}
+
+	private static boolean isFinite(Number value) {
+		return !isFloating(value) || !Double.isNaN(value.doubleValue())
+				&& !Double.isInfinite(value.doubleValue());
+	}
+
+	private static BigDecimal toBigDecimal(Number value) {
+		if (value instanceof BigDecimal) {
+			return (BigDecimal) value;
+		} else if (isIntegral(value)) {
+			return BigDecimal.valueOf(value.longValue());
+		} else {
+			return new BigDecimal(value.toString());
+		}
+	}
+
+	private static Object normalize(Object value) {
+		// java.sql.Date, Time and Timestamp, as returned by JDBC
+		if (value instanceof Date) {
+			return new DateTime(((Date) value).getTime());
+		}
+
+		// Pig has no char type, and converts HAWQ's to a String
+		if (value instanceof Character) {
+			return value.toString();
+		}
+
+		return value;
+	}
+
+	private static class Logical extends HawqFilter {
+
+		private static final long serialVersionUID = 1L;
+
+		private final boolean and;
+		private final HawqFilter lhs;
+		private final HawqFilter rhs;
+
+		private Logical(boolean and, HawqFilter lhs, HawqFilter rhs) {
+			this.and = and;
+			this.lhs = lhs;
+			this.rhs = rhs;
+		}
+
+		@Override
+		public Boolean eval(Row row) {
+			Boolean l = lhs.eval(row);
+
+			// short circuit on false for AND, true for OR
+			if (l != null && l != and) {
+				return l;
+			}
+
+			Boolean r = rhs.eval(row);
+			if (r != null && r != and) {
+				return r;
+			}
+
+			return l == null || r == null ? null : and;
+		}
+
+		@Override
+		protected boolean mayMatch(int field, Object start,
+				boolean startInclusive, Object end, boolean endInclusive) {
+			boolean l = lhs.mayMatch(field, start, startInclusive, end,
+					endInclusive);
+			if (and ? !l : l) {
+				return l;
+			}
+
+			return rhs.mayMatch(field, start, startInclusive, end,
+					endInclusive);
+		}
+
+		@Override
+		public String toString() {
+			return "(" + lhs + (and ? " AND " : " OR ") + rhs + ")";
+		}
+	}
+
+	private static class Comparison extends HawqFilter {
+
+		private static final long serialVersionUID = 1L;
+
+		private final OpType op;
+		private final Value lhs;
+		private final Value rhs;
+
+		private Comparison(OpType op, Value lhs, Value rhs) {
+			this.op = op;
+			this.lhs = lhs;
+			this.rhs = rhs;
+		}
+
+		@Override
+		public Boolean eval(Row row) {
+			Integer cmp = compare(lhs.get(row), rhs.get(row));
+			if (cmp == null) {
+				return null;
+			}
+
+			switch (op) {
+			case OP_EQ:
+				return cmp == 0;
+			case OP_NE:
+				return cmp != 0;
+			case OP_GT:
+				return cmp > 0;
+			case OP_GE:
+				return cmp >= 0;
+			case OP_LT:
+				return cmp < 0;
+			case OP_LE:
+				return cmp <= 0;
+			default:
+				return null;
+			}
+		}
+
+		@Override
+		protected boolean mayMatch(int field, Object start,
+				boolean startInclusive, Object end, boolean endInclusive) {
+			// only a field compared with a constant, in either order, can
+			// rule a range out
+			if (lhs.isField(field) && rhs instanceof Constant) {
+				return mayMatch(op, ((Constant) rhs).value, start,
+						startInclusive, end, endInclusive);
+			} else if (rhs.isField(field) && lhs instanceof Constant) {
+				// c < x is x > c
+				return mayMatch(flip(op), ((Constant) lhs).value, start,
+						startInclusive, end, endInclusive);
+			}
+
+			return true;
+		}
+
+		private static boolean mayMatch(OpType op, Object value, Object start,
+				boolean startInclusive, Object end, boolean endInclusive) {
+			// how the value compares to each bound, null if unbounded
+			Integer toStart = compare(value, start);
+			Integer toEnd = compare(value, end);
+
+			switch (op) {
+			case OP_EQ:
+				return (toStart == null || toStart > 0 || toStart == 0
+						&& startInclusive)
+						&& (toEnd == null || toEnd < 0 || toEnd == 0
+								&& endInclusive);
+			case OP_GT:
+				return toEnd == null || toEnd < 0;
+			case OP_GE:
+				return toEnd == null || toEnd < 0 || toEnd == 0
+						&& endInclusive;
+			case OP_LT:
+				return toStart == null || toStart > 0;
+			case OP_LE:
+				return toStart == null || toStart > 0 || toStart == 0
+						&& startInclusive;
+			default:
+				return true;
+			}
+		}
+
+		@Override
+		public String toString() {
+			return lhs + " " + op + " " + rhs;
+		}
+	}
+
+	private static class IsNull extends HawqFilter {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Value value;
+		private final boolean negate;
+
+		private IsNull(Value value, boolean negate) {
+			this.value = value;
+			this.negate = negate;
+		}
+
+		@Override
+		public Boolean eval(Row row) {
+			Object v = value.get(row);
+			if (v == UNKNOWN) {
+				return null;
+			}
+
+			return (v == null) != negate;
+		}
+
+		@Override
+		protected boolean mayMatch(int field, Object start,
+				boolean startInclusive, Object end, boolean endInclusive) {
+			// a null key is only ever in the default partition
+			return negate || !value.isField(field);
+		}
+
+		@Override
+		public String toString() {
+			return value + (negate ? " IS NOT NULL" : " IS NULL");
+		}
+	}
+
+	private static class Match extends HawqFilter {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Value value;
+		private final Pattern pattern;
+		private final boolean negate;
+
+		private Match(Value value, String regex, boolean negate) {
+			this.value = value;
+			this.pattern = Pattern.compile(regex);
+			this.negate = negate;
+		}
+
+		@Override
+		public Boolean eval(Row row) {
+			Object v = value.get(row);
+			if (v == null || v == UNKNOWN) {
+				return null;
+			}
+
+			// Pig matches the whole value, cast to a chararray
+			return pattern.matcher(normalize(v).toString()).matches() != negate;
+		}
+
+		@Override
+		protected boolean mayMatch(int field, Object start,
+				boolean startInclusive, Object end, boolean endInclusive) {
+			return true;
+		}
+
+		@Override
+		public String toString() {
+			return value + (negate ? " NOT MATCHES '" : " MATCHES '")
+					+ pattern + "'";
+		}
+	}
+
+	/**
+	 * An operand of a comparison
+	 */
+	private static abstract class Value implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		abstract Object get(Row row);
+
+		boolean isField(int field) {
+			return false;
+		}
+	}
+
+	private static class Field extends Value {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int field;
+
+		private Field(int field) {
+			this.field = field;
+		}
+
+		@Override
+		Object get(Row row) {
+			return row.get(field);
+		}
+
+		@Override
+		boolean isField(int field) {
+			return field == this.field;
+		}
+
+		@Override
+		public String toString() {
+			return "$" + field;
+		}
+	}
+
+	private static class Constant extends Value {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Object value;
+
+		private Constant(Object value) {
+			this.value = value;
+		}
+
+		@Override
+		Object get(Row row) {
+			return value;
+		}
+
+		@Override
+		public String toString() {
+			return String.valueOf(value);
+		}
+	}
+
+	private static class Arithmetic extends Value {
+
+		private static final long serialVersionUID = 1L;
+
+		private final OpType op;
+		private final Value lhs;
+		private final Value rhs;
+
+		private Arithmetic(OpType op, Value lhs, Value rhs) {
+			this.op = op;
+			this.lhs = lhs;
+			this.rhs = rhs;
+		}
+
+		@Override
+		Object get(Row row) {
+			Object a = lhs.get(row);
+			Object b = rhs.get(row);
+
+			if (a == UNKNOWN || b == UNKNOWN) {
+				return UNKNOWN;
+			}
+
+			if (!(a instanceof Number) || !(b instanceof Number)) {
+				return null;
+			}
+
+			Number x = (Number) a, y = (Number) b;
+			if (isIntegral(x) && isIntegral(y)) {
+				return apply(x.longValue(), y.longValue());
+			} else if (x instanceof BigDecimal || y instanceof BigDecimal
+					|| x instanceof BigInteger || y instanceof BigInteger) {
+				return apply(toBigDecimal(x), toBigDecimal(y));
+			} else {
+				return apply(x.doubleValue(), y.doubleValue());
+			}
+		}
+
+		// Pig returns null rather than failing on a division by zero
+		private Long apply(long x, long y) {
+			switch (op) {
+			case OP_PLUS:
+				return x + y;
+			case OP_MINUS:
+				return x - y;
+			case OP_TIMES:
+				return x * y;
+			case OP_DIV:
+				return y == 0 ? null : x / y;
+			default:
+				return y == 0 ? null : x % y;
+			}
+		}
+
+		private Double apply(double x, double y) {
+			switch (op) {
+			case OP_PLUS:
+				return x + y;
+			case OP_MINUS:
+				return x - y;
+			case OP_TIMES:
+				return x * y;
+			case OP_DIV:
+				return y == 0 ? null : x / y;
+			default:
+				return y == 0 ? null : x % y;
+			}
+		}
+
+		private BigDecimal apply(BigDecimal x, BigDecimal y) {
+			switch (op) {
+			case OP_PLUS:
+				return x.add(y);
+			case OP_MINUS:
+				return x.subtract(y);
+			case OP_TIMES:
+				return x.multiply(y);
+			case OP_DIV:
+				return y.signum() == 0 ? null : x.divide(y,
+						MathContext.DECIMAL128);
+			default:
+				return y.signum() == 0 ? null : x.remainder(y);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "(" + lhs + " " + op + " " + rhs + ")";
+		}
+	}
+}
@@ -1,23 +1,40 @@
 package com.gopivotal.pig;
 
 import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Properties;
 
 import org.apache.hadoop.mapreduce.InputFormat;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.util.StringUtils;
 import org.apache.log4j.Logger;
 import org.apache.pig.Expression;
 import org.apache.pig.LoadFunc;
 import org.apache.pig.LoadMetadata;
+import org.apache.pig.LoadPushDown;
 import org.apache.pig.ResourceSchema;
+import org.apache.pig.ResourceSchema.ResourceFieldSchema;
 import org.apache.pig.ResourceStatistics;
+import org.apache.pig.ResourceStatistics.ResourceFieldStatistics;
 import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigSplit;
+import org.apache.pig.data.DataType;
 import org.apache.pig.data.Tuple;
-import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.logicalLayer.FrontendException;
+import org.apache.pig.impl.util.ObjectSerializer;
 import org.apache.pig.impl.util.UDFContext;
+import org.joda.time.DateTime;
 
-import com.pivotal.hawq.mapreduce.HAWQInputFormat;
+import com.gopivotal.mapreduce.lib.input.HawqPartitionInputFormat;
+import com.gopivotal.mapreduce.util.HawqPartition;
+import com.gopivotal.mapreduce.util.HawqTableStatistics;
+import com.gopivotal.mapreduce.util.HawqTableStatistics.ColumnStatistics;
+import com.gopivotal.mapreduce.util.HawqUtil;
 import com.pivotal.hawq.mapreduce.HAWQRecord;
 import com.pivotal.hawq.mapreduce.conf.HAWQConfiguration;
 import com.pivotal.hawq.mapreduce.metadata.MetadataAccessor;
@@ -53,6 +70,25 @@ import com.pivotal.hawq.mapreduce.metadata.MetadataAccessor;
  * STORE C INTO '$output';
  * </pre>
  * 
+ * Only the columns a script uses are converted into tuples. Pig pushes the
+ * projection down to the loader, so a script that uses two columns of a wide
+ * table builds two-field tuples. The HAWQInputFormat still reads whole
+ * rows.<br>
+ * <br>
+ * The partition keys of a partitioned table are its Pig partition keys. A
+ * filter on them that Pig pushes down is used twice. Leaf partitions whose
+ * bounds or values cannot match are not read at all, and the rows of the
+ * remaining partitions are filtered before they are converted to tuples.
+ * Any filter Pig pushes down is supported, including <code>is null</code>,
+ * <code>matches</code>, and NOT. Partitions are only skipped for tables with a
+ * single partition key.
+ * <br>
+ * <br>
+ * Statistics come from the HAWQ catalog, as of the last ANALYZE of the table,
+ * so Pig can size reducers and check that a replicated join fits in memory.
+ * A table that was never analyzed has none. They are cached by
+ * {@link HawqUtil}.<br>
+ * <br>
  * Below is a table describing the mappings from HAWQ to Java to Pig types. <br>
  * <br>
  * <table>
@@ -217,22 +253,37 @@ import com.pivotal.hawq.mapreduce.metadata.MetadataAccessor;
  * </tbody>
  * </table>
  */
-public class HawqLoader extends LoadFunc implements LoadMetadata {
+public class HawqLoader extends LoadFunc implements LoadMetadata,
+		LoadPushDown {
 
 	private static final Logger LOG = Logger.getLogger(HawqLoader.class);
-	private static final String NUM_FIELDS = "hawq.loader.num.fields";
+	private static final String REQUIRED_FIELDS = "hawq.loader.required.fields";
+	private static final String FILTER = "hawq.loader.partition.filter";
+	private static final String FILTER_KEY = "hawq.loader.partition.filter.key";
+	private static final String READ_TABLE = "hawq.loader.read.table";
+	private static final String PARTITIONS = "hawq.loader.partitions";
 
 	private RecordReader<Object, HAWQRecord> rdr = null;
 	private ResourceSchema schema = null;
+	private HawqPigDataConverter converter = null;
+	private HawqFilter filter = null;
+	private String[] partitionKeys = null;
+	private boolean partitionKeysRead = false;
 
-	private TupleFactory tf = TupleFactory.getInstance();
+	// The record the filter is evaluated on
+	private HAWQRecord current = null;
+	private HawqFilter.Row row = new HawqFilter.Row() {
+		@Override
+		public Object get(int field) {
+			return converter.convert(current, field + 1);
+		}
+	};
 
 	private String dbUrl = null;
 	private String tablename = null;
 	private String username = null;
 	private String password = null;
-
-	private int fieldCount = -1;
+	private String signature = null;
 
 	/**
 	 * 
@@ -258,7 +309,7 @@ public class HawqLoader extends LoadFunc implements LoadMetadata {
 	@SuppressWarnings("rawtypes")
 	@Override
 	public InputFormat getInputFormat() throws IOException {
-		return new HAWQInputFormat();
+		return new HawqPartitionInputFormat();
 	}
 
 	@SuppressWarnings({ "rawtypes", "unchecked" })
@@ -267,36 +318,106 @@ public class HawqLoader extends LoadFunc implements LoadMetadata {
 			throws IOException {
 		// Save the reader
 		this.rdr = (RecordReader<Object, HAWQRecord>) rdr;
-		// Get the number of fields from our set parameter
-		fieldCount = Integer.parseInt(UDFContext.getUDFContext()
-				.getClientSystemProps().getProperty(NUM_FIELDS));
+
+		// Compile the table schema once, so each row is converted without
+		// looking up the type of each field
+		try {
+			converter = new HawqPigDataConverter(
+					HAWQConfiguration.getInputTableSchema(UDFContext
+							.getUDFContext().getJobConf()),
+					getRequiredFields());
+		} catch (Exception e) {
+			throw new IOException("Failed to read table schema", e);
+		}
+
+		String value = getUDFProperties().getProperty(FILTER);
+		filter = value == null ? null : (HawqFilter) ObjectSerializer
+				.deserialize(value);
+	}
+
+	/**
+	 * Gets the fields pushed down by {@link #pushProjection(RequiredFieldList)}
+	 * 
+	 * @return The indexes of the fields, or null for all of them
+	 */
+	private int[] getRequiredFields() {
+		String value = getUDFProperties().getProperty(REQUIRED_FIELDS);
+		if (value == null) {
+			return null;
+		}
+
+		String[] tokens = value.split(",");
+		int[] fields = new int[tokens.length];
+		for (int i = 0; i < tokens.length; ++i) {
+			fields[i] = Integer.parseInt(tokens[i]);
+		}
+
+		return fields;
+	}
+
+	private Properties getUDFProperties() {
+		return UDFContext.getUDFContext().getUDFProperties(getClass(),
+				new String[] { signature });
 	}
 
 	@Override
-	public Tuple getNext() throws IOException {
-		synchronized (this) {
-			try {
-				if (rdr.nextKeyValue()) {
-					// Create the new tuple
-					Tuple retval = tf.newTuple(fieldCount);
+	public void setUDFContextSignature(String signature) {
+		this.signature = signature;
+	}
 
-					HAWQRecord record = rdr.getCurrentValue();
+	@Override
+	public List<OperatorSet> getFeatures() {
+		return Arrays.asList(OperatorSet.PROJECTION);
+	}
 
-					// start at 1...
-					for (int i = 1; i <= fieldCount; ++i) {
-						// Set the field of the tuple to the converted pig value
-						retval.set(i - 1,
-								HawqPigDataConverter.toPigValue(record, i));
-					}
+	@Override
+	public RequiredFieldResponse pushProjection(
+			RequiredFieldList requiredFieldList) throws FrontendException {
+		if (requiredFieldList == null
+				|| requiredFieldList.getFields() == null) {
+			return new RequiredFieldResponse(false);
+		}
 
-					return retval;
-				} else {
-					return null;
+		// Save the field indexes for the backend, where the converter is
+		// compiled for just these fields
+		StringBuilder bldr = new StringBuilder();
+		for (RequiredField field : requiredFieldList.getFields()) {
+			if (bldr.length() != 0) {
+				bldr.append(',');
+			}
+
+			bldr.append(field.getIndex());
+		}
+
+		LOG.info("Projecting fields " + bldr);
+		getUDFProperties().setProperty(REQUIRED_FIELDS, bldr.toString());
+		return new RequiredFieldResponse(true);
+	}
+
+	@Override
+	public Tuple getNext() throws IOException {
+		// Pig calls getNext from a single thread per loader, so no lock
+		try {
+			while (rdr.nextKeyValue()) {
+				HAWQRecord record = rdr.getCurrentValue();
+
+				// Pig dropped the pushed down filter from the plan, so skip
+				// the records it rules out before converting them
+				if (filter != null) {
+					current = record;
+					if (!Boolean.TRUE.equals(filter.eval(row))) {
+						continue;
+					}
 				}
-			} catch (InterruptedException e) {
-				LOG.error("Caught error during getNext()", e);
-				throw new IOException(e);
+
+				// Convert the record into a tuple sized to the schema
+				return converter.toTuple(record);
 			}
+
+			return null;
+		} catch (InterruptedException e) {
+			LOG.error("Caught error during getNext()", e);
+			throw new IOException(e);
 		}
 	}
 
@@ -304,24 +425,83 @@ public class HawqLoader extends LoadFunc implements LoadMetadata {
 	public void setLocation(String location, Job job) throws IOException {
 		this.dbUrl = location.replaceAll("hawq://", "");
 
+		// The partitions to read are found once, on the frontend, and passed
+		// to the backend
+		Properties props = getUDFProperties();
+		if (props.getProperty(READ_TABLE) == null) {
+			findPartitions(props);
+		}
+
+		String value = props.getProperty(PARTITIONS);
+		String[] partitions = null;
+		if (value != null) {
+			partitions = value.isEmpty() ? new String[0] : value.split(",");
+		}
+
+		// Set job parameters here using configuration
+		HawqPartitionInputFormat.setInput(job.getConfiguration(), dbUrl,
+				username, password, props.getProperty(READ_TABLE), partitions);
+	}
+
+	/**
+	 * Finds the leaf partitions of the table that the partition filter does
+	 * not rule out, and the table to read the schema from
+	 */
+	private void findPartitions(Properties props) throws IOException {
+		HawqPartition[] leaves = null;
 		try {
-			// Set job parameters here using configuration
-			HAWQInputFormat.setInput(job.getConfiguration(), dbUrl, username,
-					password, tablename);
+			if (getPartitionKeys() != null) {
+				leaves = HawqUtil.getPartitions(getJdbcUrl(), tablename,
+						username, password);
+			}
+		} catch (SQLException e) {
+			throw new IOException("Failed to read partitions", e);
+		}
 
-			// Set the number of fields from the schema so we can get it on the
-			// backend
-			Properties props = new Properties();
-			props.setProperty(
-					NUM_FIELDS,
-					Integer.toString(HAWQConfiguration.getInputTableSchema(
-							job.getConfiguration()).getFieldCount()));
+		if (leaves == null) {
+			props.setProperty(READ_TABLE, tablename);
+			props.remove(PARTITIONS);
+			return;
+		}
 
-			UDFContext.getUDFContext().setClientSystemProps(props);
+		String value = props.getProperty(FILTER);
+		HawqFilter pruner = value == null ? null : (HawqFilter) ObjectSerializer
+				.deserialize(value);
+		int key = Integer.parseInt(props.getProperty(FILTER_KEY, "-1"));
 
-		} catch (Exception e) {
-			throw new IOException(e);
+		List<String> partitions = new ArrayList<String>();
+		for (HawqPartition partition : leaves) {
+			if (pruner == null || key < 0 || pruner.mayMatch(key, partition)) {
+				partitions.add(partition.getName());
+			}
+		}
+
+		LOG.info("Reading " + partitions.size() + " of " + leaves.length
+				+ " partitions of " + tablename);
+
+		// Every leaf has the schema of the table
+		props.setProperty(READ_TABLE, leaves[0].getName());
+		props.setProperty(PARTITIONS, StringUtils.arrayToString(partitions
+				.toArray(new String[0])));
+	}
+
+	private String[] getPartitionKeys() throws IOException {
+		if (!partitionKeysRead) {
+			try {
+				partitionKeys = HawqUtil.getPartitionKeys(getJdbcUrl(),
+						tablename, username, password);
+			} catch (SQLException e) {
+				throw new IOException("Failed to read partition keys", e);
+			}
+
+			partitionKeysRead = true;
 		}
+
+		return partitionKeys;
+	}
+
+	private String getJdbcUrl() {
+		return "jdbc:postgresql://" + dbUrl;
 	}
 
 	@Override
@@ -357,16 +537,166 @@ public class HawqLoader extends LoadFunc implements LoadMetadata {
 	@Override
 	public ResourceStatistics getStatistics(String location, Job job)
 			throws IOException {
-		return null;
+		this.dbUrl = location.replaceAll("hawq://", "");
+
+		// Statistics are optional, so the script runs without them
+		HawqTableStatistics table = null;
+		try {
+			table = HawqUtil.getTableStatistics(getJdbcUrl(), tablename,
+					username, password);
+		} catch (SQLException e) {
+			LOG.warn("Failed to read statistics of " + tablename, e);
+			return null;
+		}
+
+		// An unknown or unanalyzed table has no statistics, which Pig treats
+		// as unknown rather than empty
+		if (table == null) {
+			return null;
+		}
+
+		ResourceStatistics stats = new ResourceStatistics();
+		stats.setNumRecords(table.getRows());
+		stats.setSizeInBytes(table.getBytes());
+
+		ResourceSchema resourceSchema = getSchema(location, job);
+		if (resourceSchema == null) {
+			return stats;
+		}
+
+		// Pig expects the field statistics in the order of the schema
+		ResourceFieldSchema[] fields = resourceSchema.getFields();
+		ResourceFieldStatistics[] fieldStats = new ResourceFieldStatistics[fields.length];
+		for (int i = 0; i < fields.length; ++i) {
+			fieldStats[i] = new ResourceFieldStatistics();
+
+			ColumnStatistics column = table.getColumn(fields[i].getName());
+			if (column == null) {
+				continue;
+			}
+
+			if (column.getDistinct() >= 0) {
+				fieldStats[i].setNumDistinctValues(column.getDistinct());
+			}
+
+			Object[] range = getRange(column, fields[i].getType());
+			if (range != null) {
+				fieldStats[i].setMin(range[0]);
+				fieldStats[i].setMax(range[1]);
+			}
+		}
+
+		stats.setFields(fieldStats);
+		return stats;
+	}
+
+	/**
+	 * Finds the smallest and largest values of a column among the ends of its
+	 * histogram and its most common values, which the histogram leaves out
+	 * 
+	 * @return The smallest and largest values, or null if a value could not
+	 *         be converted, so the range would be too narrow
+	 */
+	private static Object[] getRange(ColumnStatistics column, byte type) {
+		Object min = null, max = null;
+		for (String text : column.getExtremeCandidates()) {
+			Object value = toPigValue(text, type);
+			if (value == null) {
+				return null;
+			}
+
+			Integer toMin = min == null ? -1 : HawqFilter.compare(value, min);
+			Integer toMax = max == null ? 1 : HawqFilter.compare(value, max);
+			if (toMin == null || toMax == null) {
+				return null;
+			}
+
+			if (toMin < 0) {
+				min = value;
+			}
+
+			if (toMax > 0) {
+				max = value;
+			}
+		}
+
+		return min == null ? null : new Object[] { min, max };
+	}
+
+	/**
+	 * Converts a value from its HAWQ text form into the given Pig type
+	 * 
+	 * @return The value, or null if it could not be converted
+	 */
+	private static Object toPigValue(String text, byte type) {
+		if (text == null) {
+			return null;
+		}
+
+		try {
+			switch (type) {
+			case DataType.BOOLEAN:
+				return text.equals("t");
+			case DataType.INTEGER:
+				return Integer.valueOf(text);
+			case DataType.LONG:
+				return Long.valueOf(text);
+			case DataType.FLOAT:
+				return Float.valueOf(text);
+			case DataType.DOUBLE:
+				return Double.valueOf(text);
+			case DataType.BIGDECIMAL:
+				return new BigDecimal(text);
+			case DataType.CHARARRAY:
+				return text;
+			case DataType.DATETIME:
+				// Dates have no time, and times with a zone are skipped
+				return new DateTime(text.length() == 10 ? java.sql.Date
+						.valueOf(text).getTime() : Timestamp.valueOf(text)
+						.getTime());
+			default:
+				return null;
+			}
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
 	}
 
 	@Override
-	public String[] getPartitionKeys(String arg0, Job arg1) throws IOException {
-		return null;
+	public String[] getPartitionKeys(String location, Job job)
+			throws IOException {
+		this.dbUrl = location.replaceAll("hawq://", "");
+		return getPartitionKeys();
 	}
 
 	@Override
-	public void setPartitionFilter(Expression arg0) throws IOException {
+	public void setPartitionFilter(Expression partitionFilter)
+			throws IOException {
+		if (schema == null) {
+			throw new IOException("Schema is not known");
+		}
+
+		ResourceFieldSchema[] fields = schema.getFields();
+		String[] names = new String[fields.length];
+		for (int i = 0; i < fields.length; ++i) {
+			names[i] = fields[i].getName();
+		}
+
+		HawqFilter compiled = HawqFilter.compile(partitionFilter, names);
+		LOG.info("Pushed down partition filter " + compiled);
+
+		// Partitions can be skipped by a single key
+		int key = -1;
+		String[] keys = getPartitionKeys();
+		if (keys != null && keys.length == 1) {
+			key = Arrays.asList(names).indexOf(keys[0]);
+		}
+
+		Properties props = getUDFProperties();
+		props.setProperty(FILTER, ObjectSerializer.serialize(compiled));
+		props.setProperty(FILTER_KEY, Integer.toString(key));
 
+		// The partitions to read are found again with the filter
+		props.remove(READ_TABLE);
 	}
 }
@@ -11,6 +11,7 @@ import org.apache.log4j.Logger;
 import org.apache.pig.ResourceSchema;
 import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
 import org.apache.pig.data.DataByteArray;
 import org.apache.pig.data.DataType;
 import org.apache.pig.data.Tuple;
@@ -35,15 +36,137 @@ import com.pivotal.hawq.mapreduce.schema.HAWQField;
 
 /**
  * A utility for converting HAWQ column definitions and data to their related
- * counterparts for Pig.
+ * counterparts for Pig.<br>
+ * <br>
+ * An instance converts the records of one {@link HAWQSchema}. When it is
+ * created, it compiles the schema into a converter for each field, chosen by
+ * the field's type, so converting a record is one call per field with no
+ * schema lookups or type switches. It is immutable afterwards, so a single
+ * instance can be shared by any number of threads without locking. The static
+ * methods are also thread-safe, but look up the type of the field on every
+ * call.
  */
 public class HawqPigDataConverter {
 
 	private static final Logger LOG = Logger
 			.getLogger(HawqPigDataConverter.class);
 	private static final Map<PrimitiveType, Byte> hawqToPigType = new HashMap<PrimitiveType, Byte>();
-	private static TupleFactory TF = TupleFactory.getInstance();
-	private static BagFactory BF = BagFactory.getInstance();
+	private static final TupleFactory TF = TupleFactory.getInstance();
+	private static final BagFactory BF = BagFactory.getInstance();
+
+	private final HAWQSchema schema;
+	private final Column[] columns;
+
+	// The fields put in each tuple, and their indexes in the record
+	private final Column[] plan;
+	private final int[] indexes;
+
+	/**
+	 * Creates a converter for records of the given schema
+	 * 
+	 * @param schema
+	 *            The schema of the records
+	 * @throws UnsupportedOperationException
+	 *             If the schema has an array field
+	 */
+	public HawqPigDataConverter(HAWQSchema schema) {
+		this(schema, null);
+	}
+
+	/**
+	 * Creates a converter for records of the given schema that only converts
+	 * some of their fields into tuples
+	 * 
+	 * @param schema
+	 *            The schema of the records
+	 * @param fields
+	 *            The fields to put in each tuple, in order, as indexes into
+	 *            the schema starting at 0, or null for all of them
+	 * @throws UnsupportedOperationException
+	 *             If the schema has an array field
+	 * @throws IllegalArgumentException
+	 *             If a field is not in the schema
+	 */
+	public HawqPigDataConverter(HAWQSchema schema, int[] fields) {
+		this.schema = schema;
+
+		columns = new Column[schema.getFieldCount()];
+		for (int i = 0; i < columns.length; ++i) {
+			HAWQField hField = schema.getField(i + 1);
+			if (!hField.isPrimitive()) {
+				throw new UnsupportedOperationException(
+						"Array types are not supported");
+			}
+
+			columns[i] = compile(hField.asPrimitive().getType());
+		}
+
+		if (fields == null) {
+			plan = columns;
+			indexes = new int[columns.length];
+			for (int i = 0; i < indexes.length; ++i) {
+				indexes[i] = i + 1;
+			}
+		} else {
+			plan = new Column[fields.length];
+			indexes = new int[fields.length];
+			for (int i = 0; i < fields.length; ++i) {
+				if (fields[i] < 0 || fields[i] >= columns.length) {
+					throw new IllegalArgumentException("Field " + fields[i]
+							+ " is not in the schema");
+				}
+
+				plan[i] = columns[fields[i]];
+				indexes[i] = fields[i] + 1;
+			}
+		}
+	}
+
+	/**
+	 * @return The schema of the records this converter converts
+	 */
+	public HAWQSchema getSchema() {
+		return schema;
+	}
+
+	/**
+	 * @return The number of fields in each tuple
+	 */
+	public int getFieldCount() {
+		return plan.length;
+	}
+
+	/**
+	 * Converts the field at the given index of the record into a Pig value
+	 * 
+	 * @param record
+	 *            The record to get the field from, of this converter's schema
+	 * @param idx
+	 *            The index of the field, starting at 1
+	 * @return The Pig object or null on error
+	 * @see #toPigValue(HAWQRecord, int)
+	 */
+	public Object convert(HAWQRecord record, int idx) {
+		return get(columns[idx - 1], record, idx);
+	}
+
+	/**
+	 * Converts the fields of the record that this converter was created with
+	 * into a new tuple, sized to them. Other fields are not converted.
+	 * 
+	 * @param record
+	 *            The record to convert, of this converter's schema
+	 * @return The tuple, with null for each field that failed to convert
+	 * @throws ExecException
+	 */
+	public Tuple toTuple(HAWQRecord record) throws ExecException {
+		Tuple retval = TF.newTuple(plan.length);
+		for (int i = 0; i < plan.length; ++i) {
+			retval.set(i, get(plan[i], record, indexes[i]));
+		}
+
+		return retval;
+	}
 
 	public static FieldSchema toPigField(HAWQField hField)
 			throws FrontendException {
@@ -123,7 +246,7 @@ public class HawqPigDataConverter {
 	 * @param schema
 	 * @return The Pig schema or null if an exception was thrown
 	 */
-	public static synchronized ResourceSchema toPigSchema(HAWQSchema schema) {
+	public static ResourceSchema toPigSchema(HAWQSchema schema) {
 
 		List<HAWQField> hawqFields = schema.getFields();
 		List<FieldSchema> pigFields = new ArrayList<FieldSchema>();
@@ -157,169 +280,330 @@ public class HawqPigDataConverter {
 	 *            The index of the field
 	 * @return The Pig object or null on error
 	 */
-	public static synchronized Object toPigValue(HAWQRecord record, int idx) {
-		Object retval = null;
-		PrimitiveType hawqType = record.getSchema().getField(idx).asPrimitive()
-				.getType();
+	public static Object toPigValue(HAWQRecord record, int idx) {
+		return get(compile(record.getSchema().getField(idx).asPrimitive()
+				.getType()), record, idx);
+	}
+
+	private static Object get(Column column, HAWQRecord record, int idx) {
 		try {
-			switch (hawqType) {
-			case BIT:
-				return record.getBit(idx).toString();
-			case BOOL:
-				return record.getBoolean(idx);
-			case BOX:
-				HAWQBox box = record.getBox(idx);
-				HAWQPoint pt1 = box.getPoint1();
-				HAWQPoint pt2 = box.getPoint2();
-
-				Tuple pigBox = TF.newTuple(2);
-				Tuple tPt1 = TF.newTuple(2);
-				Tuple tPt2 = TF.newTuple(2);
-
-				tPt1.set(0, pt1.getX());
-				tPt1.set(1, pt1.getY());
-				tPt2.set(0, pt2.getX());
-				tPt2.set(1, pt2.getY());
-
-				pigBox.set(0, tPt1);
-				pigBox.set(1, tPt2);
-
-				return pigBox;
-			case BPCHAR:
-				return record.getString(idx);
-			case BYTEA:
-				return new DataByteArray(record.getBytes(idx));
-			case CHAR:
-				// this case will never get called cause CHAR -> BPCHAR
-				return (char) record.getChar(idx);
-			case CIDR:
-				return record.getCidr(idx).toString();
-			case CIRCLE:
-				HAWQCircle cirle = record.getCircle(idx);
-				Tuple tCircle = TF.newTuple(3);
-
-				tCircle.set(0, cirle.getCenter().getX());
-				tCircle.set(1, cirle.getCenter().getY());
-				tCircle.set(2, cirle.getRadius());
-
-				return tCircle;
-			case DATE:
-				return new DateTime(record.getDate(idx).getTime());
-			case FLOAT4:
-				return record.getFloat(idx);
-			case FLOAT8:
-				return record.getDouble(idx);
-			case INET:
-				return record.getInet(idx).toString();
-			case INT2:
-				return record.getShort(idx);
-			case INT4:
-				return record.getInt(idx);
-			case INT8:
-				return record.getLong(idx);
-			case INTERVAL:
-				return record.getInterval(idx).toString();
-			case LSEG:
-				HAWQLseg lseg = record.getLseg(idx);
-				pt1 = lseg.getPoint1();
-				pt2 = lseg.getPoint2();
-
-				Tuple tLSeg = TF.newTuple(2);
-				tPt1 = TF.newTuple(2);
-				tPt2 = TF.newTuple(2);
-
-				tPt1.set(0, pt1.getX());
-				tPt1.set(1, pt1.getY());
-				tPt2.set(0, pt2.getX());
-				tPt2.set(1, pt2.getY());
-
-				tLSeg.set(0, tPt1);
-				tLSeg.set(1, tPt2);
-				return tLSeg;
-			case MACADDR:
-				return record.getMacaddr(idx).toString();
-			case NUMERIC:
-				return record.getBigDecimal(idx);
-			case PATH:
-				HAWQPath path = record.getPath(idx);
-				List<Tuple> points = new ArrayList<Tuple>();
-
-				for (HAWQPoint p : path.getPoints()) {
-					Tuple tPoint = TF.newTuple(2);
-					tPoint.set(0, p.getX());
-					tPoint.set(1, p.getY());
-					points.add(tPoint);
-				}
+			return column.get(record, idx);
+		} catch (HAWQException | ExecException e) {
+			LOG.error("Error when converting object", e);
+			return null;
+		}
+	}
 
-				Tuple tPath = TF.newTuple(2);
-
-				tPath.set(0, path.isOpen());
-				tPath.set(1, BF.newDefaultBag(points));
-
-				return tPath;
-			case POINT:
-				HAWQPoint pt = record.getPoint(idx);
-				Tuple tPoint = TF.newTuple(2);
-				tPoint.set(0, pt.getX());
-				tPoint.set(1, pt.getY());
-				return tPoint;
-			case POLYGON:
-				Tuple tPoly = TF.newTuple(2);
-
-				HAWQPolygon poly = record.getPolygon(idx);
-				points = new ArrayList<Tuple>();
-
-				for (HAWQPoint p : poly.getPoints()) {
-					tPoint = TF.newTuple(2);
-					tPoint.set(0, p.getX());
-					tPoint.set(1, p.getY());
-					points.add(tPoint);
-				}
+	/**
+	 * Gets the converter for fields of the given type
+	 */
+	private static Column compile(PrimitiveType hawqType) {
+		switch (hawqType) {
+		case BIT:
+			return BIT;
+		case BOOL:
+			return BOOL;
+		case BOX:
+			return BOX;
+		case BPCHAR:
+		case TEXT:
+		case VARCHAR:
+		case XML:
+			return STRING;
+		case BYTEA:
+			return BYTEA;
+		case CHAR:
+			// this case will never get called cause CHAR -> BPCHAR
+			return CHAR;
+		case CIDR:
+			return CIDR;
+		case CIRCLE:
+			return CIRCLE;
+		case DATE:
+			return DATE;
+		case FLOAT4:
+			return FLOAT4;
+		case FLOAT8:
+			return FLOAT8;
+		case INET:
+			return INET;
+		case INT2:
+			return INT2;
+		case INT4:
+			return INT4;
+		case INT8:
+			return INT8;
+		case INTERVAL:
+			return INTERVAL;
+		case LSEG:
+			return LSEG;
+		case MACADDR:
+			return MACADDR;
+		case NUMERIC:
+			return NUMERIC;
+		case PATH:
+			return PATH;
+		case POINT:
+			return POINT;
+		case POLYGON:
+			return POLYGON;
+		case TIME:
+		case TIMETZ:
+			return TIME;
+		case TIMESTAMP:
+		case TIMESTAMPTZ:
+			return TIMESTAMP;
+		case VARBIT:
+			return VARBIT;
+		default:
+			return UNSUPPORTED;
+		}
+	}
 
-				box = poly.getBoundbox();
-				pt1 = box.getPoint1();
-				pt2 = box.getPoint2();
-
-				pigBox = TF.newTuple(2);
-				tPt1 = TF.newTuple(2);
-				tPt2 = TF.newTuple(2);
-
-				tPt1.set(0, pt1.getX());
-				tPt1.set(1, pt1.getY());
-				tPt2.set(0, pt2.getX());
-				tPt2.set(1, pt2.getY());
-
-				pigBox.set(0, tPt1);
-				pigBox.set(1, tPt2);
-
-				tPoly.set(0, BF.newDefaultBag(points));
-				tPoly.set(1, pigBox);
-
-				return tPoly;
-			case TEXT:
-				return record.getString(idx);
-			case TIME:
-			case TIMETZ:
-				return new DateTime(record.getTime(idx).getTime());
-			case TIMESTAMP:
-			case TIMESTAMPTZ:
-				return new DateTime(record.getTimestamp(idx).getTime());
-			case VARBIT:
-				return record.getVarbit(idx).toString();
-			case VARCHAR:
-				return record.getString(idx);
-			case XML:
-				return record.getString(idx);
-			default:
-				break;
+	/**
+	 * Converts a field of one HAWQ type into a Pig value. Implementations are
+	 * stateless.
+	 */
+	private static abstract class Column {
+		abstract Object get(HAWQRecord record, int idx) throws HAWQException,
+				ExecException;
+	}
 
-			}
-		} catch (HAWQException | ExecException e) {
-			LOG.error("Error when converting object", e);
+	private static final Column BIT = new Column() {
+		@Override
+		Object get(HAWQRecord record, int idx) throws HAWQException {
+			return record.getBit(idx).toString();
+		}
+	};
+
+	private static final Column BOOL = new Column() {
+		@Override
+		Object get(HAWQRecord record, int idx) throws HAWQException {
+			return record.getBoolean(idx);
+		}
+	};
+
+	private static final Column BOX = new Column() {
+		@Override
+		Object get(HAWQRecord record, int idx) throws HAWQException,
+				ExecException {
+			return toPigBox(record.getBox(idx));
+		}
+	};
+
+	private static final Column STRING = new Column() {
+		@Override
+		Object get(HAWQRecord record, int idx) throws HAWQException {
+			return record.getString(idx);
+		}
+	};
+
+	private static final Column BYTEA = new Column() {
+		@Override
+		Object get(HAWQRecord record, int idx) throws HAWQException {
+			return new DataByteArray(record.getBytes(idx));
+		}
+	};
+
+	private static final Column CHAR = new Column() {
+		@Override
+		Object get(HAWQRecord record, int idx) throws HAWQException {
+			return (char) record.getChar(idx);
+		}
+	};
+
+	private static final Column CIDR = new Column() {
+		@Override
+		Object get(HAWQRecord record, int idx) throws HAWQException {
+			return record.getCidr(idx).toString();
+		}
+	};
+
+	private static final Column CIRCLE = new Column() {
+		@Override
+		Object get(HAWQRecord record, int idx) throws HAWQException,
+				ExecException {
+			HAWQCircle cirle = record.getCircle(idx);
+			Tuple tCircle = TF.newTuple(3);
+
+			tCircle.set(0, cirle.getCenter().getX());
+			tCircle.set(1, cirle.getCenter().getY());
+			tCircle.set(2, cirle.getRadius());
+
+			return tCircle;
+		}
+	};
+
+	private static final Column DATE = new Column() {
+		@Override
+		Object get(HAWQRecord record, int idx) throws HAWQException {
+			return new DateTime(record.getDate(idx).getTime());
+		}
+	};
+
+	private static final Column FLOAT4 = new Column() {
+		@Override
+		Object get(HAWQRecord record, int idx) throws HAWQException {
+			return record.getFloat(idx);
+		}
+	};
+
+	private static final Column FLOAT8 = new Column() {
+		@Override
+		Object get(HAWQRecord record, int idx) throws HAWQException {
+			return record.getDouble(idx);
+		}
+	};
+
+	private static final Column INET = new Column() {
+		@Override
+		Object get(HAWQRecord record, int idx) throws HAWQException {
+			return record.getInet(idx).toString();
+		}
+	};
+
+	private static final Column INT2 = new Column() {
+		@Override
+		Object get(HAWQRecord record, int idx) throws HAWQException {
+			return record.getShort(idx);
+		}
+	};
+
+	private static final Column INT4 = new Column() {
+		@Override
+		Object get(HAWQRecord record, int idx) throws HAWQException {
+			return record.getInt(idx);
+		}
+	};
+
+	private static final Column INT8 = new Column() {
+		@Override
+		Object get(HAWQRecord record, int idx) throws HAWQException {
+			return record.getLong(idx);
+		}
+	};
+
+	private static final Column INTERVAL = new Column() {
+		@Override
+		Object get(HAWQRecord record, int idx) throws HAWQException {
+			return record.getInterval(idx).toString();
+		}
+	};
+
+	private static final Column LSEG = new Column() {
+		@Override
+		Object get(HAWQRecord record, int idx) throws HAWQException,
+				ExecException {
+			HAWQLseg lseg = record.getLseg(idx);
+			Tuple tLSeg = TF.newTuple(2);
+
+			tLSeg.set(0, toPigPoint(lseg.getPoint1()));
+			tLSeg.set(1, toPigPoint(lseg.getPoint2()));
+
+			return tLSeg;
+		}
+	};
+
+	private static final Column MACADDR = new Column() {
+		@Override
+		Object get(HAWQRecord record, int idx) throws HAWQException {
+			return record.getMacaddr(idx).toString();
+		}
+	};
+
+	private static final Column NUMERIC = new Column() {
+		@Override
+		Object get(HAWQRecord record, int idx) throws HAWQException {
+			return record.getBigDecimal(idx);
+		}
+	};
+
+	private static final Column PATH = new Column() {
+		@Override
+		Object get(HAWQRecord record, int idx) throws HAWQException,
+				ExecException {
+			HAWQPath path = record.getPath(idx);
+			Tuple tPath = TF.newTuple(2);
+
+			tPath.set(0, path.isOpen());
+			tPath.set(1, toPigBag(path.getPoints()));
+
+			return tPath;
+		}
+	};
+
+	private static final Column POINT = new Column() {
+		@Override
+		Object get(HAWQRecord record, int idx) throws HAWQException,
+				ExecException {
+			return toPigPoint(record.getPoint(idx));
+		}
+	};
+
+	private static final Column POLYGON = new Column() {
+		@Override
+		Object get(HAWQRecord record, int idx) throws HAWQException,
+				ExecException {
+			HAWQPolygon poly = record.getPolygon(idx);
+			Tuple tPoly = TF.newTuple(2);
+
+			tPoly.set(0, toPigBag(poly.getPoints()));
+			tPoly.set(1, toPigBox(poly.getBoundbox()));
+
+			return tPoly;
+		}
+	};
+
+	private static final Column TIME = new Column() {
+		@Override
+		Object get(HAWQRecord record, int idx) throws HAWQException {
+			return new DateTime(record.getTime(idx).getTime());
+		}
+	};
+
+	private static final Column TIMESTAMP = new Column() {
+		@Override
+		Object get(HAWQRecord record, int idx) throws HAWQException {
+			return new DateTime(record.getTimestamp(idx).getTime());
+		}
+	};
+
+	private static final Column VARBIT = new Column() {
+		@Override
+		Object get(HAWQRecord record, int idx) throws HAWQException {
+			return record.getVarbit(idx).toString();
+		}
+	};
+
+	private static final Column UNSUPPORTED = new Column() {
+		@Override
+		Object get(HAWQRecord record, int idx) {
 			return null;
 		}
+	};
 
-		return retval;
+	private static Tuple toPigPoint(HAWQPoint pt) throws ExecException {
+		Tuple tPoint = TF.newTuple(2);
+		tPoint.set(0, pt.getX());
+		tPoint.set(1, pt.getY());
+		return tPoint;
+	}
+
+	private static Tuple toPigBox(HAWQBox box) throws ExecException {
+		Tuple pigBox = TF.newTuple(2);
+		pigBox.set(0, toPigPoint(box.getPoint1()));
+		pigBox.set(1, toPigPoint(box.getPoint2()));
+		return pigBox;
+	}
+
+	private static DataBag toPigBag(Iterable<HAWQPoint> pts)
+			throws ExecException {
+		List<Tuple> points = new ArrayList<Tuple>();
+		for (HAWQPoint p : pts) {
+			points.add(toPigPoint(p));
+		}
+
+		return BF.newDefaultBag(points);
 	}
 
 	/**
@@ -329,7 +613,7 @@ public class HawqPigDataConverter {
 	 *            The HAWQ Type
 	 * @return The Pig type or null if not found in the internal map
 	 */
-	public static synchronized byte getPigDataType(PrimitiveType hawqType) {
+	public static byte getPigDataType(PrimitiveType hawqType) {
 		return hawqToPigType.get(hawqType);
 	}
 
@@ -340,7 +624,7 @@ public class HawqPigDataConverter {
 	 *            The Pig type
 	 * @return The HAWQ type or null if not found
 	 */
-	public static synchronized PrimitiveType getHawqDataType(byte pigType) {
+	public static PrimitiveType getHawqDataType(byte pigType) {
 
 		for (Entry<PrimitiveType, Byte> entry : hawqToPigType.entrySet()) {
 			if (entry.getValue() == pigType) {
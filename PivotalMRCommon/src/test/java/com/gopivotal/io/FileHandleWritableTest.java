@@ -0,0 +1,72 @@
+package com.gopivotal.io;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileHandleWritableTest {
+
+	private File file = null;
+	private byte[] contents = "0123456789abcdef".getBytes();
+
+	@Before
+	public void setup() throws IOException {
+		file = File.createTempFile("file-handle-writable", ".bin");
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(contents);
+		out.close();
+	}
+
+	@After
+	public void cleanup() {
+		file.delete();
+	}
+
+	@Test
+	public void testOpenAndSeek() throws IOException {
+		FileHandleWritable handle = new FileHandleWritable();
+		handle.set(new Path(file.toURI()), file.length(), new Configuration());
+
+		FSDataInputStream strm = handle.open();
+		Assert.assertSame(strm, handle.open());
+
+		strm.seek(10);
+		Assert.assertEquals('a', strm.read());
+
+		handle.close();
+	}
+
+	@Test
+	public void testWritable() throws IOException {
+		FileHandleWritable handle = new FileHandleWritable();
+		handle.set(new Path(file.toURI()), file.length(), new Configuration());
+
+		DataOutputBuffer out = new DataOutputBuffer();
+		handle.write(out);
+
+		DataInputBuffer in = new DataInputBuffer();
+		in.reset(out.getData(), out.getLength());
+
+		FileHandleWritable copy = new FileHandleWritable();
+		copy.readFields(in);
+
+		Assert.assertEquals(handle.getPath(), copy.getPath());
+		Assert.assertEquals(contents.length, copy.getLength());
+
+		byte[] bytes = new byte[contents.length];
+		copy.open().readFully(0, bytes);
+		Assert.assertArrayEquals(contents, bytes);
+
+		copy.close();
+	}
+}
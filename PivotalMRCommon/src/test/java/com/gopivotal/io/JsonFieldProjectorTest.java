@@ -0,0 +1,67 @@
+package com.gopivotal.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class JsonFieldProjectorTest {
+
+	private static final Text TWEET = new Text("{\"created_at\": \"Mon Jan 06\", "
+			+ "\"entities\": {\"urls\": [{\"id\": 9}]}, \"id\": 42, "
+			+ "\"user\": {\"name\": \"} {\", \"id\": 7}, \"coordinates\": null, "
+			+ "\"place\": {\"bbox\": [1, 2]}}");
+
+	@Test
+	public void testProjection() {
+		JsonFieldProjector projector = new JsonFieldProjector("id", "user.id",
+				"created_at", "missing", "coordinates", "place.bbox");
+		JsonTupleWritable tuple = new JsonTupleWritable();
+
+		Assert.assertTrue(projector.project(TWEET, tuple));
+		Assert.assertEquals(6, tuple.size());
+		Assert.assertEquals(42L, tuple.getLong(0));
+		Assert.assertEquals(7L, tuple.getLong(1));
+		Assert.assertEquals("Mon Jan 06", tuple.getString(2));
+		Assert.assertTrue(tuple.isNull(3));
+		Assert.assertTrue(tuple.isNull(4));
+		Assert.assertEquals("[1,2]", tuple.getString(5));
+	}
+
+	@Test
+	public void testMalformedRecord() {
+		JsonFieldProjector projector = new JsonFieldProjector("id", "text");
+		JsonTupleWritable tuple = new JsonTupleWritable();
+
+		Assert.assertFalse(projector.project(new Text("{\"id\": }"), tuple));
+		Assert.assertFalse(projector.project(new Text("[1, 2]"), tuple));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testOverlappingPaths() {
+		new JsonFieldProjector("user.id", "user");
+	}
+
+	@Test
+	public void testSerialization() throws IOException {
+		JsonFieldProjector projector = new JsonFieldProjector("user.id",
+				"missing", "created_at");
+		JsonTupleWritable tuple = new JsonTupleWritable();
+		Assert.assertTrue(projector.project(TWEET, tuple));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		tuple.write(new DataOutputStream(bytes));
+
+		JsonTupleWritable copy = new JsonTupleWritable();
+		copy.readFields(new DataInputStream(new ByteArrayInputStream(bytes
+				.toByteArray())));
+
+		Assert.assertEquals(tuple.toString(), copy.toString());
+		Assert.assertEquals("7\t\tMon Jan 06", copy.toString());
+	}
+}
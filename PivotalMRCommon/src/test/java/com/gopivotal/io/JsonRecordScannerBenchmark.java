@@ -0,0 +1,84 @@
+package com.gopivotal.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+
+/**
+ * A simple throughput comparison of the {@link JsonStreamReader} and the
+ * {@link JsonRecordScanner} over an in-memory, pretty-printed JSON feed. Run
+ * the main method with an optional number of records.
+ */
+public class JsonRecordScannerBenchmark {
+
+	private static final String IDENTIFIER = "\"status\"";
+	private static final int ITERATIONS = 5;
+
+	public static void main(String[] args) throws IOException {
+		int numRecords = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		byte[] data = buildFeed(numRecords);
+
+		System.out.println("Feed is " + data.length + " bytes, " + numRecords
+				+ " records");
+
+		for (int i = 0; i < ITERATIONS; ++i) {
+			report("JsonStreamReader", data, timeStreamReader(data));
+			report("JsonRecordScanner", data, timeScanner(data));
+		}
+	}
+
+	private static long timeStreamReader(byte[] data) throws IOException {
+		JsonStreamReader rdr = new JsonStreamReader(IDENTIFIER,
+				new ByteArrayInputStream(data));
+
+		long start = System.nanoTime();
+		while (rdr.getJsonRecord() != null) {
+		}
+		long elapsed = System.nanoTime() - start;
+		rdr.close();
+		return elapsed;
+	}
+
+	private static long timeScanner(byte[] data) throws IOException {
+		JsonRecordScanner rdr = new JsonRecordScanner(IDENTIFIER,
+				new ByteArrayInputStream(data));
+		Text record = new Text();
+
+		long start = System.nanoTime();
+		while (rdr.next(record)) {
+		}
+		long elapsed = System.nanoTime() - start;
+		rdr.close();
+		return elapsed;
+	}
+
+	private static void report(String name, byte[] data, long nanos) {
+		double seconds = nanos / 1e9;
+		System.out.println(String.format("%-20s %8.1f ms %8.1f MB/s", name,
+				nanos / 1e6, data.length / seconds / (1024 * 1024)));
+	}
+
+	private static byte[] buildFeed(int numRecords) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		StringBuilder bldr = new StringBuilder();
+		for (int i = 0; i < numRecords; ++i) {
+			bldr.setLength(0);
+			bldr.append("{\n  \"metadata\" : {\n    \"sequence\" : ")
+					.append(i)
+					.append(",\n    \"padding\" : \"");
+			for (int j = 0; j < 512; ++j) {
+				bldr.append((char) ('a' + j % 26));
+			}
+
+			bldr.append("\"\n  },\n  ").append(IDENTIFIER)
+					.append(" : {\n    \"id\" : ").append(i)
+					.append(",\n    \"user\" : {\n      \"id\" : ")
+					.append(i % 1000)
+					.append("\n    },\n    \"text\" : \"hello world\"\n  }\n}\n");
+			out.write(bldr.toString().getBytes("UTF-8"));
+		}
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,100 @@
+package com.gopivotal.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JsonRecordScannerTest {
+
+	private JsonRecordScanner rdr = null;
+
+	private static final String FILE = "src/test/resources/sample.json";
+
+	@Before
+	public void setup() throws FileNotFoundException {
+		rdr = new JsonRecordScanner("menuitem", new FileInputStream(FILE));
+	}
+
+	@Test
+	public void testReadRecords() throws IOException {
+		int count = 0;
+		Text record = new Text();
+		while (rdr.next(record)) {
+			++count;
+			System.out.println(record);
+		}
+
+		Assert.assertEquals(3, count);
+	}
+
+	@Test
+	public void testMatchesStreamReader() throws IOException {
+		JsonStreamReader expected = new JsonStreamReader("menuitem",
+				new FileInputStream(FILE));
+
+		Text record = new Text();
+		String str = null;
+		while ((str = expected.getJsonRecord()) != null) {
+			Assert.assertTrue(rdr.next(record));
+			Assert.assertEquals(str, record.toString());
+		}
+
+		Assert.assertFalse(rdr.next(record));
+		expected.close();
+	}
+
+	@Test
+	public void testRecordsSpanningBuffers() throws IOException {
+		String json = "[{\"item\" :\n  {\"a\": {\"b\": 1}}},\n"
+				+ " {\"iitem\": {\"c\": 2}},\n {\"item\": {\"d\": \"\u00e9\"}}]";
+
+		// a tiny buffer forces both the identifier and records to span reads
+		rdr = new JsonRecordScanner("\"item\"", new ByteArrayInputStream(
+				json.getBytes("UTF-8")), 3);
+
+		Text record = new Text();
+		Assert.assertTrue(rdr.next(record));
+		Assert.assertEquals("{\"a\": {\"b\": 1}}", record.toString());
+		Assert.assertTrue(rdr.next(record));
+		Assert.assertEquals("{\"d\": \"\u00e9\"}", record.toString());
+		Assert.assertFalse(rdr.next(record));
+		Assert.assertEquals(json.getBytes("UTF-8").length, rdr.getBytesRead());
+	}
+
+	@Test
+	public void testTruncatedRecordIsDiscarded() throws IOException {
+		rdr = new JsonRecordScanner("item", new ByteArrayInputStream(
+				"{\"item\": {\"a\": {\"b\": 1}".getBytes("UTF-8")));
+
+		Text record = new Text();
+		Assert.assertFalse(rdr.next(record));
+		Assert.assertEquals(0, record.getLength());
+	}
+
+	@Test
+	public void testBracesInsideStrings() throws IOException {
+		String first = "{\"text\": \"a } brace, a \\\" quote { and \\\\\", "
+				+ "\"n\": {\"x\": \"\\u00e9}\"}}";
+		String second = "{\"text\": \"\u00e9\u65e5 }}}\"}";
+		String json = "{\"item\": " + first + "}\n{\"item\": " + second + "}";
+
+		// every buffer size puts the escape and quotes at a different offset
+		for (int size = 1; size < 16; ++size) {
+			rdr = new JsonRecordScanner("\"item\"", new ByteArrayInputStream(
+					json.getBytes("UTF-8")), size);
+
+			Text record = new Text();
+			Assert.assertTrue(rdr.next(record));
+			Assert.assertEquals(first, record.toString());
+			Assert.assertTrue(rdr.next(record));
+			Assert.assertEquals(second, record.toString());
+			Assert.assertFalse(rdr.next(record));
+		}
+	}
+}
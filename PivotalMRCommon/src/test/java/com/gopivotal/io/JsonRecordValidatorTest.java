@@ -0,0 +1,49 @@
+package com.gopivotal.io;
+
+import org.apache.hadoop.io.Text;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.gopivotal.io.JsonRecordValidator.Mode;
+
+public class JsonRecordValidatorTest {
+
+	private static final Text VALID = new Text(
+			"{\"id\": 1, \"user\": {\"id\": 2}, \"text\": \"} {\"}");
+	private static final Text MALFORMED = new Text(
+			"{\"id\": 1, \"user\": {\"id\": }, \"text\": \"\"}");
+
+	@Test
+	public void testNone() {
+		JsonRecordValidator validator = new JsonRecordValidator(Mode.NONE);
+		Assert.assertTrue(validator.isValid(VALID));
+		Assert.assertTrue(validator.isValid(MALFORMED));
+	}
+
+	@Test
+	public void testStreaming() {
+		JsonRecordValidator validator = new JsonRecordValidator(
+				Mode.STREAMING);
+		Assert.assertTrue(validator.isValid(VALID));
+		Assert.assertFalse(validator.isValid(MALFORMED));
+		Assert.assertFalse(validator.isValid(new Text("")));
+	}
+
+	@Test
+	public void testFull() {
+		JsonRecordValidator validator = new JsonRecordValidator(Mode.FULL);
+		Assert.assertTrue(validator.isValid(VALID));
+		Assert.assertFalse(validator.isValid(MALFORMED));
+	}
+
+	@Test
+	public void testValidatesRange() {
+		JsonRecordValidator validator = new JsonRecordValidator(
+				Mode.STREAMING);
+
+		// a reused Text may have stale bytes past its length
+		Text record = new Text("{\"a\": [1, 2, 3]} trailing garbage");
+		record.set(record.getBytes(), 0, 16);
+		Assert.assertTrue(validator.isValid(record));
+	}
+}
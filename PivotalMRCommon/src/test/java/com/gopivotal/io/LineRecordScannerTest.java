@@ -0,0 +1,109 @@
+package com.gopivotal.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.io.Text;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LineRecordScannerTest {
+
+	@Test
+	public void testDefaultDelimiters() throws IOException {
+		String input = "one\ntwo\r\nthree\rfour\r\n\r\nsix\n\nlast";
+		List<String> expected = Arrays.asList("one", "two", "three", "four",
+				"", "six", "", "last");
+
+		for (int bufferSize = 1; bufferSize <= input.length() + 1; ++bufferSize) {
+			Assert.assertEquals("Buffer size " + bufferSize, expected,
+					readAll(input, bufferSize, null));
+		}
+	}
+
+	@Test
+	public void testTrailingCR() throws IOException {
+		for (int bufferSize = 1; bufferSize <= 8; ++bufferSize) {
+			Assert.assertEquals(Arrays.asList("a", "b"),
+					readAll("a\rb\r", bufferSize, null));
+		}
+	}
+
+	@Test
+	public void testCustomDelimiter() throws IOException {
+		String input = "a||b|c|||d||";
+		List<String> expected = Arrays.asList("a", "b|c", "|d");
+
+		for (int bufferSize = 1; bufferSize <= input.length() + 1; ++bufferSize) {
+			Assert.assertEquals("Buffer size " + bufferSize, expected,
+					readAll(input, bufferSize, "||"));
+		}
+	}
+
+	@Test
+	public void testSelfOverlappingDelimiter() throws IOException {
+		// partial matches of "aab" must not lose or duplicate bytes
+		String input = "xaaabyaabaaaab" + "aa";
+		List<String> expected = Arrays.asList("xa", "y", "aa", "aa");
+
+		for (int bufferSize = 1; bufferSize <= input.length() + 1; ++bufferSize) {
+			Assert.assertEquals("Buffer size " + bufferSize, expected,
+					readAll(input, bufferSize, "aab"));
+		}
+	}
+
+	@Test
+	public void testMaxLineLength() throws IOException {
+		LineRecordScanner scanner = new LineRecordScanner(
+				new ByteArrayInputStream("abcdef\ngh\n".getBytes("UTF-8")), 3,
+				null);
+		Text line = new Text();
+
+		Assert.assertEquals(7, scanner.readLine(line, 4, Integer.MAX_VALUE));
+		Assert.assertEquals("abcd", line.toString());
+		Assert.assertEquals(3, scanner.readLine(line, 4, Integer.MAX_VALUE));
+		Assert.assertEquals("gh", line.toString());
+		Assert.assertEquals(0, scanner.readLine(line, 4, Integer.MAX_VALUE));
+	}
+
+	@Test
+	public void testReset() throws IOException {
+		LineRecordScanner scanner = new LineRecordScanner(
+				new ByteArrayInputStream("one\ntwo\n".getBytes("UTF-8")), 64,
+				null);
+		Text line = new Text();
+
+		scanner.readLine(line);
+		Assert.assertEquals("one", line.toString());
+
+		// the buffered remainder of the first stream is dropped
+		scanner.reset(new ByteArrayInputStream("three\n".getBytes("UTF-8")));
+		Assert.assertEquals(6, scanner.readLine(line));
+		Assert.assertEquals("three", line.toString());
+		Assert.assertEquals(0, scanner.readLine(line));
+	}
+
+	private List<String> readAll(String input, int bufferSize,
+			String delimiter) throws IOException {
+		byte[] bytes = input.getBytes("UTF-8");
+		LineRecordScanner scanner = new LineRecordScanner(
+				new ByteArrayInputStream(bytes), bufferSize,
+				delimiter == null ? null : delimiter.getBytes("UTF-8"));
+
+		List<String> lines = new ArrayList<String>();
+		Text line = new Text();
+		long consumed = 0;
+		int n;
+		while ((n = scanner.readLine(line)) > 0) {
+			lines.add(line.toString());
+			consumed += n;
+		}
+
+		scanner.close();
+		Assert.assertEquals(bytes.length, consumed);
+		return lines;
+	}
+}
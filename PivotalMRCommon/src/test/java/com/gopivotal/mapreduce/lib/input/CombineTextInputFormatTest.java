@@ -0,0 +1,107 @@
+package com.gopivotal.mapreduce.lib.input;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileSplit;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.gopivotal.mapreduce.lib.input.CombineTextInputFormat.CombineLineRecordReader;
+
+public class CombineTextInputFormatTest {
+
+	private static final int NUM_FILES = 7;
+	private static final int NUM_LINES = 25;
+
+	private List<File> files = new ArrayList<File>();
+	private List<String> expected = new ArrayList<String>();
+
+	@Before
+	public void setup() throws IOException {
+		for (int i = 0; i < NUM_FILES; ++i) {
+			StringBuilder bldr = new StringBuilder();
+			for (int j = 0; j < NUM_LINES; ++j) {
+				String line = "file " + i + " line " + j;
+				expected.add(line);
+				bldr.append(line).append('\n');
+			}
+
+			File file = File.createTempFile("combine-text-input-format",
+					".txt");
+			FileOutputStream out = new FileOutputStream(file);
+			out.write(bldr.toString().getBytes("UTF-8"));
+			out.close();
+			files.add(file);
+		}
+	}
+
+	@After
+	public void cleanup() {
+		for (File file : files) {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testWithoutPrefetching() throws Exception {
+		Assert.assertEquals(expected, read(new Configuration()));
+	}
+
+	@Test
+	public void testPrefetching() throws Exception {
+		for (int numFiles = 1; numFiles <= NUM_FILES + 1; ++numFiles) {
+			Configuration conf = new Configuration();
+			conf.setInt(CombineFilePrefetcher.NUM_FILES, numFiles);
+			conf.setInt(CombineFilePrefetcher.NUM_THREADS, 3);
+
+			// small enough that no file fits in its prefetch buffer
+			conf.setLong(CombineFilePrefetcher.BYTE_BUDGET, 64);
+
+			Assert.assertEquals("Prefetching " + numFiles + " files",
+					expected, read(conf));
+		}
+	}
+
+	/**
+	 * Reads every file as two chunks, cut in the middle of a line, from a
+	 * single combined split.
+	 */
+	private List<String> read(Configuration conf) throws Exception {
+		Path[] paths = new Path[NUM_FILES * 2];
+		long[] starts = new long[NUM_FILES * 2];
+		long[] lengths = new long[NUM_FILES * 2];
+
+		for (int i = 0; i < NUM_FILES; ++i) {
+			File file = files.get(i);
+			long cut = file.length() / 2 + 3;
+
+			paths[i * 2] = paths[i * 2 + 1] = new Path(file.toURI());
+			starts[i * 2] = 0;
+			lengths[i * 2] = cut;
+			starts[i * 2 + 1] = cut;
+			lengths[i * 2 + 1] = file.length() - cut;
+		}
+
+		CombineLineRecordReader rdr = new CombineLineRecordReader();
+		rdr.initialize(new CombineFileSplit(paths, starts, lengths, null),
+				new TaskAttemptContextImpl(conf, new TaskAttemptID()));
+
+		List<String> lines = new ArrayList<String>();
+		while (rdr.nextKeyValue()) {
+			lines.add(rdr.getCurrentValue().toString());
+		}
+
+		rdr.close();
+		return lines;
+	}
+}
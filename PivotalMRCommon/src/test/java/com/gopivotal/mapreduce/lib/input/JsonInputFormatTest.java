@@ -0,0 +1,173 @@
+package com.gopivotal.mapreduce.lib.input;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.gopivotal.mapreduce.lib.input.JsonInputFormat.JsonRecordReader;
+import com.gopivotal.mapreduce.lib.input.JsonInputFormat.SimpleJsonRecordReader;
+
+public class JsonInputFormatTest {
+
+	private static final String IDENTIFIER = "\"tweet\"";
+	private static final int NUM_RECORDS = 12;
+
+	private File file = null;
+	private long fileLength = 0;
+	private List<String> expected = new ArrayList<String>();
+	private TaskAttemptContext context = null;
+
+	@Before
+	public void setup() throws IOException {
+		StringBuilder bldr = new StringBuilder();
+		for (int i = 0; i < NUM_RECORDS; ++i) {
+			String record = "{\n    \"id\" : " + i
+					+ ",\n    \"text\" : \"a } brace and a \\\" quote {\"\n  }";
+			expected.add(record);
+			bldr.append("{\n  ").append(IDENTIFIER).append(" : ")
+					.append(record).append("\n}\n");
+		}
+
+		file = File.createTempFile("json-input-format", ".json");
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(bldr.toString().getBytes("UTF-8"));
+		out.close();
+		fileLength = file.length();
+
+		Configuration conf = new Configuration();
+		conf.set(JsonInputFormat.RECORD_IDENTIFIER, IDENTIFIER);
+		context = new TaskAttemptContextImpl(conf, new TaskAttemptID());
+	}
+
+	@After
+	public void cleanup() {
+		file.delete();
+	}
+
+	@Test
+	public void testSingleSplit() throws Exception {
+		Assert.assertEquals(expected, readSplit(0, fileLength));
+	}
+
+	@Test
+	public void testTwoSplitsAtEveryOffset() throws Exception {
+		for (long cut = 0; cut <= fileLength; ++cut) {
+			List<String> actual = readSplit(0, cut);
+			actual.addAll(readSplit(cut, fileLength - cut));
+			Assert.assertEquals("Cut at " + cut, expected, actual);
+		}
+	}
+
+	@Test
+	public void testManySplitsOfEverySize() throws Exception {
+		for (long size = 1; size <= fileLength; ++size) {
+			List<String> actual = new ArrayList<String>();
+			for (long start = 0; start < fileLength; start += size) {
+				actual.addAll(readSplit(start,
+						Math.min(size, fileLength - start)));
+			}
+			Assert.assertEquals("Split size " + size, expected, actual);
+		}
+	}
+
+	@Test
+	public void testNestedIdentifier() throws Exception {
+		// the second record nests the identifier, as in a retweet
+		String inner = "{ \"id\" : 0 }";
+		String nested = "{ \"id\" : 1, " + IDENTIFIER + " : " + inner + " }";
+		String[] records = new String[] { "{ \"id\" : 0 }", nested,
+				"{ \"id\" : 2 }" };
+
+		StringBuilder bldr = new StringBuilder();
+		for (String record : records) {
+			bldr.append("{ ").append(IDENTIFIER).append(" : ").append(record)
+					.append(" }\n");
+		}
+
+		String data = bldr.toString();
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(data.getBytes("UTF-8"));
+		out.close();
+
+		long length = file.length();
+		int outer = data.lastIndexOf(IDENTIFIER, data.indexOf(nested));
+		int inside = data.indexOf(IDENTIFIER, data.indexOf(nested));
+
+		for (long cut = 0; cut <= length; ++cut) {
+			List<String> actual = readSplit(0, cut);
+			actual.addAll(readSplit(cut, length - cut));
+
+			// a split starting between the two occurrences cannot tell the
+			// nested one from a root, and returns the nested object too
+			List<String> expected = new ArrayList<String>();
+			expected.add(records[0]);
+			expected.add(records[1]);
+			if (cut > outer && cut <= inside) {
+				expected.add(inner);
+			}
+			expected.add(records[2]);
+
+			Assert.assertEquals("Cut at " + cut, expected, actual);
+		}
+	}
+
+	@Test
+	public void testRecordDelimiter() throws Exception {
+		StringBuilder bldr = new StringBuilder();
+		for (String record : expected) {
+			bldr.append('\u001e').append(record.replace('\n', ' '));
+		}
+
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(bldr.toString().getBytes("UTF-8"));
+		out.close();
+
+		Configuration conf = new Configuration();
+		conf.set(JsonInputFormat.RECORD_DELIMITER, "\\u001e");
+		conf.setInt(JsonInputFormat.BUFFER_SIZE, 7);
+
+		SimpleJsonRecordReader rdr = new SimpleJsonRecordReader();
+		rdr.initialize(new FileSplit(new Path(file.toURI()), 0,
+				file.length(), null), new TaskAttemptContextImpl(conf,
+				new TaskAttemptID()));
+
+		List<String> records = new ArrayList<String>();
+		while (rdr.nextKeyValue()) {
+			records.add(rdr.getCurrentKey().toString());
+		}
+		rdr.close();
+
+		Assert.assertEquals(expected.size(), records.size());
+		for (int i = 0; i < expected.size(); ++i) {
+			Assert.assertEquals(expected.get(i).replace('\n', ' '),
+					records.get(i));
+		}
+	}
+
+	private List<String> readSplit(long start, long length) throws Exception {
+		JsonRecordReader rdr = new JsonRecordReader();
+		rdr.initialize(new FileSplit(new Path(file.toURI()), start, length,
+				null), context);
+
+		List<String> records = new ArrayList<String>();
+		while (rdr.nextKeyValue()) {
+			records.add(rdr.getCurrentKey().toString());
+		}
+
+		rdr.close();
+		return records;
+	}
+}
@@ -0,0 +1,98 @@
+package com.gopivotal.mapreduce.lib.input;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.LineRecordReader;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+
+import com.gopivotal.mapreduce.lib.input.JsonInputFormat.SimpleJsonRecordReader;
+
+/**
+ * A simple records/sec comparison of reading newline-delimited JSON with a
+ * copy of every line, as the {@link SimpleJsonRecordReader} used to do, and
+ * without one. Run the main method with an optional number of records and
+ * buffer size.
+ */
+public class SimpleJsonRecordReaderBenchmark {
+
+	private static final int ITERATIONS = 5;
+
+	public static void main(String[] args) throws Exception {
+		int numRecords = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int bufferSize = args.length > 1 ? Integer.parseInt(args[1]) : 65536;
+
+		File file = File.createTempFile("simple-json-benchmark", ".json");
+		file.deleteOnExit();
+		writeRecords(file, numRecords);
+
+		Configuration conf = new Configuration();
+		conf.setInt(JsonInputFormat.BUFFER_SIZE, bufferSize);
+		TaskAttemptContext context = new TaskAttemptContextImpl(conf,
+				new TaskAttemptID());
+		FileSplit split = new FileSplit(new Path(file.toURI()), 0,
+				file.length(), null);
+
+		for (int i = 0; i < ITERATIONS; ++i) {
+			report("Copy", numRecords, timeCopy(split, context));
+			report("Zero-copy", numRecords, timeZeroCopy(split, context));
+		}
+	}
+
+	private static long timeCopy(FileSplit split, TaskAttemptContext context)
+			throws IOException, InterruptedException {
+		LineRecordReader rdr = new LineRecordReader();
+		rdr.initialize(split, context);
+		Text outkey = new Text();
+
+		long start = System.nanoTime();
+		while (rdr.nextKeyValue()) {
+			outkey.set(rdr.getCurrentValue());
+		}
+		long elapsed = System.nanoTime() - start;
+		rdr.close();
+		return elapsed;
+	}
+
+	private static long timeZeroCopy(FileSplit split,
+			TaskAttemptContext context) throws IOException,
+			InterruptedException {
+		RecordReader<Text, ?> rdr = new SimpleJsonRecordReader();
+		rdr.initialize(split, context);
+
+		long start = System.nanoTime();
+		while (rdr.nextKeyValue()) {
+			rdr.getCurrentKey();
+		}
+		long elapsed = System.nanoTime() - start;
+		rdr.close();
+		return elapsed;
+	}
+
+	private static void report(String name, int numRecords, long nanos) {
+		System.out.println(String.format("%-10s %8.1f ms %12.0f records/s",
+				name, nanos / 1e6, numRecords / (nanos / 1e9)));
+	}
+
+	private static void writeRecords(File file, int numRecords)
+			throws IOException {
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+		for (int i = 0; i < numRecords; ++i) {
+			out.write(("{\"id\": " + i + ", \"user\": {\"id\": " + (i % 1000)
+					+ "}, \"text\": \"the quick brown fox jumps over the "
+					+ "lazy dog\", \"created_at\": \"Mon Jan 06 12:00:00 "
+					+ "+0000 2014\"}\n").getBytes("UTF-8"));
+		}
+		out.close();
+	}
+}
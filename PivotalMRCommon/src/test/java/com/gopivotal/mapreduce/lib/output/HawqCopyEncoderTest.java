@@ -0,0 +1,353 @@
+package com.gopivotal.mapreduce.lib.output;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.io.Text;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.gopivotal.mapreduce.lib.output.HawqCopyEncoder.Format;
+
+public class HawqCopyEncoderTest {
+
+	@Test
+	public void testText() throws Exception {
+		HawqCopyEncoder encoder = new HawqCopyEncoder(Format.TEXT, "\\|", 3);
+
+		Assert.assertTrue(encoder.encode(new Text("1||two")));
+		Assert.assertTrue(encoder.encode(new Text("a\\b|c\td|e")));
+		Assert.assertEquals("1\t\ttwo\na\\\\b\tc\\td\te\n", decode(encoder));
+	}
+
+	@Test
+	public void testCsv() throws Exception {
+		HawqCopyEncoder encoder = new HawqCopyEncoder(Format.CSV, "\\|", 3);
+
+		Assert.assertTrue(encoder.encode(new Text("1||two, three")));
+		Assert.assertTrue(encoder.encode(new Text("say \"hi\"|\\.|x")));
+		Assert.assertEquals(
+				"1,,\"two, three\"\n\"say \"\"hi\"\"\",\"\\.\",x\n",
+				decode(encoder));
+	}
+
+	@Test
+	public void testWrongNumberOfColumns() throws Exception {
+		HawqCopyEncoder encoder = new HawqCopyEncoder(Format.TEXT, "\\|", 2);
+
+		Assert.assertTrue(encoder.encode(new Text("a|b")));
+		Assert.assertFalse(encoder.encode(new Text("a|b|c")));
+		Assert.assertFalse(encoder.encode(new Text("a")));
+
+		// trailing empty fields are dropped, like String.split
+		Assert.assertFalse(encoder.encode(new Text("a|")));
+		Assert.assertTrue(encoder.encode(new Text("c|d||")));
+		Assert.assertTrue(encoder.encode(new Text("|e")));
+		Assert.assertEquals("a\tb\nc\td\n\te\n", decode(encoder));
+	}
+
+	@Test
+	public void testSameRowsAsInsert() throws Exception {
+		String[] rows = new String[] { "a|b|", "a|b|c|", "a||c", "|b|c",
+				"a|b|c||", "a|b", "", "||", "a|b|c|d" };
+
+		for (String delimiter : new String[] { "\\|", "\\|+|;" }) {
+			HawqCopyEncoder encoder = new HawqCopyEncoder(Format.TEXT,
+					delimiter, 3);
+			HawqRowConverter converter = new HawqRowConverter(delimiter,
+					new Integer[] { Types.VARCHAR, Types.VARCHAR,
+							Types.VARCHAR });
+
+			for (String row : rows) {
+				Assert.assertEquals(delimiter + " " + row,
+						converter.convert(new Text(row), statement()),
+						encoder.encode(new Text(row)));
+			}
+		}
+	}
+
+	@Test
+	public void testSingleColumnIsNotSplit() throws Exception {
+		HawqCopyEncoder encoder = new HawqCopyEncoder(Format.TEXT, "\\|", 1);
+
+		Assert.assertTrue(encoder.encode(new Text("a|b\tc")));
+		Assert.assertEquals("a|b\\tc\n", decode(encoder));
+	}
+
+	@Test
+	public void testRegexDelimiter() throws Exception {
+		HawqCopyEncoder encoder = new HawqCopyEncoder(Format.TEXT, "\\s*;\\s*",
+				3);
+
+		Assert.assertTrue(encoder.encode(new Text("a ; b;\u00e9")));
+		Assert.assertEquals("a\tb\t\u00e9\n", decode(encoder));
+	}
+
+	@Test
+	public void testInputFields() throws Exception {
+		HawqCopyEncoder encoder = new HawqCopyEncoder(Format.TEXT, "\\|",
+				new int[] { 2, 0 });
+
+		Assert.assertTrue(encoder.encode(new Text("a|b|c|d")));
+		Assert.assertTrue(encoder.encode(new Text("x|y|")));
+		Assert.assertFalse(encoder.encode(new Text("a|b")));
+		Assert.assertEquals("c\ta\n\tx\n", decode(encoder));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeInputField() {
+		new HawqCopyEncoder(Format.TEXT, "\\|", new int[] { 0, -1 });
+	}
+
+	@Test
+	public void testTypedText() throws Exception {
+		HawqCopyEncoder encoder = new HawqCopyEncoder(Format.TEXT, "\\|", 8);
+
+		encoder.startRow();
+		encoder.writeInt(-42);
+		encoder.writeLong(Long.MIN_VALUE);
+		encoder.writeBigDecimal(new BigDecimal("1E+3"));
+		encoder.writeTimestamp(Timestamp.valueOf("2014-03-09 12:34:56.123456"));
+		encoder.writeDate(Date.valueOf("2014-03-09"));
+		encoder.writeBoolean(true);
+		encoder.writeString("a\tb");
+		encoder.writeText(null);
+		Assert.assertTrue(encoder.endRow());
+
+		Assert.assertEquals("-42\t-9223372036854775808\t1000\t"
+				+ "2014-03-09 12:34:56.123456\t2014-03-09\tt\ta\\tb\t\\N\n",
+				decode(encoder));
+	}
+
+	@Test
+	public void testDiscardRow() throws Exception {
+		HawqCopyEncoder encoder = new HawqCopyEncoder(Format.TEXT, "\\|", 2);
+
+		encoder.startRow();
+		encoder.writeInt(1);
+		encoder.writeString("a");
+		Assert.assertTrue(encoder.endRow());
+
+		// a row whose writer failed after its first column
+		encoder.startRow();
+		encoder.writeInt(2);
+		encoder.discardRow();
+
+		encoder.startRow();
+		encoder.writeInt(3);
+		encoder.writeString("c");
+		Assert.assertTrue(encoder.endRow());
+
+		Assert.assertEquals("1\ta\n3\tc\n", decode(encoder));
+	}
+
+	@Test
+	public void testTypedCsv() throws Exception {
+		HawqCopyEncoder encoder = new HawqCopyEncoder(Format.CSV, "\\|", 3);
+
+		encoder.startRow();
+		encoder.writeString("");
+		encoder.writeNull();
+		encoder.writeDouble(0.5);
+		Assert.assertTrue(encoder.endRow());
+
+		// too few columns
+		encoder.startRow();
+		encoder.writeLong(0);
+		Assert.assertFalse(encoder.endRow());
+
+		Assert.assertEquals("\"\",,0.5\n", decode(encoder));
+	}
+
+	@Test
+	public void testTextRoundTrip() throws Exception {
+		// every character COPY treats specially, in every position
+		String[][] rows = new String[][] {
+				{ "tab\there", "line\nbreak", "carriage\rreturn" },
+				{ "back\\slash", "\\N", "\\." },
+				{ "", "café, \"quoted\"", "\\" }, { "\t", "\n\n", "x\\" } };
+
+		HawqCopyEncoder encoder = new HawqCopyEncoder(Format.TEXT, "\\|", 3);
+		for (String[] row : rows) {
+			Assert.assertTrue(encoder.encode(new Text(join(row))));
+		}
+
+		// empty text fields are empty strings, not NULL
+		Assert.assertEquals(toList(rows), parseText(decode(encoder)));
+	}
+
+	@Test
+	public void testCsvRoundTrip() throws Exception {
+		String[][] rows = new String[][] {
+				{ "comma, here", "say \"hi\"", "line\nbreak" },
+				{ "\\.", "\\N", "back\\slash" }, { "a\tb", "\r", "\"" } };
+
+		HawqCopyEncoder encoder = new HawqCopyEncoder(Format.CSV, "\\|", 3);
+		for (String[] row : rows) {
+			Assert.assertTrue(encoder.encode(new Text(join(row))));
+		}
+
+		Assert.assertEquals(toList(rows), parseCsv(decode(encoder)));
+
+		// an empty CSV field is NULL, but a typed empty string is not
+		encoder.reset();
+		Assert.assertTrue(encoder.encode(new Text("|x|y")));
+		encoder.startRow();
+		encoder.writeString("");
+		encoder.writeNull();
+		encoder.writeString("\\.");
+		Assert.assertTrue(encoder.endRow());
+
+		Assert.assertEquals(
+				Arrays.asList(Arrays.asList(null, "x", "y"),
+						Arrays.asList("", null, "\\.")),
+				parseCsv(decode(encoder)));
+	}
+
+	@Test
+	public void testTypedTextRoundTrip() throws Exception {
+		HawqCopyEncoder encoder = new HawqCopyEncoder(Format.TEXT, "\\|", 3);
+
+		encoder.startRow();
+		encoder.writeString("a\\b\tc\nd");
+		encoder.writeNull();
+		encoder.writeText(new Text("\\N"));
+		Assert.assertTrue(encoder.endRow());
+
+		Assert.assertEquals(
+				Arrays.asList(Arrays.asList("a\\b\tc\nd", null, "\\N")),
+				parseText(decode(encoder)));
+	}
+
+	@Test
+	public void testToLiteral() {
+		Assert.assertEquals('|', HawqCopyEncoder.toLiteral("\\|"));
+		Assert.assertEquals(',', HawqCopyEncoder.toLiteral(","));
+		Assert.assertEquals('\t', HawqCopyEncoder.toLiteral("\t"));
+		Assert.assertEquals(-1, HawqCopyEncoder.toLiteral("|"));
+		Assert.assertEquals(-1, HawqCopyEncoder.toLiteral("\\t"));
+		Assert.assertEquals(-1, HawqCopyEncoder.toLiteral("::"));
+	}
+
+	private PreparedStatement statement() {
+		return (PreparedStatement) Proxy.newProxyInstance(getClass()
+				.getClassLoader(), new Class<?>[] { PreparedStatement.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) {
+						return null;
+					}
+				});
+	}
+
+	private static String join(String[] fields) {
+		StringBuilder bldr = new StringBuilder();
+		for (int i = 0; i < fields.length; ++i) {
+			bldr.append(i == 0 ? "" : "|").append(fields[i]);
+		}
+		return bldr.toString();
+	}
+
+	private static List<List<String>> toList(String[][] rows) {
+		List<List<String>> list = new ArrayList<List<String>>();
+		for (String[] row : rows) {
+			list.add(Arrays.asList(row));
+		}
+		return list;
+	}
+
+	/**
+	 * Parses COPY text format as the server does: rows end at a newline,
+	 * fields at a tab, a field of \N is NULL, and a backslash escapes the next
+	 * character
+	 */
+	private static List<List<String>> parseText(String data) {
+		List<List<String>> rows = new ArrayList<List<String>>();
+		for (String line : data.split("\n")) {
+			Assert.assertFalse("End of data marker", line.equals("\\."));
+
+			List<String> fields = new ArrayList<String>();
+			for (String raw : line.split("\t", -1)) {
+				if (raw.equals("\\N")) {
+					fields.add(null);
+					continue;
+				}
+
+				StringBuilder field = new StringBuilder();
+				for (int i = 0; i < raw.length(); ++i) {
+					char c = raw.charAt(i);
+					if (c != '\\') {
+						field.append(c);
+						continue;
+					}
+
+					c = raw.charAt(++i);
+					field.append(c == 't' ? '\t' : c == 'n' ? '\n'
+							: c == 'r' ? '\r' : c);
+				}
+				fields.add(field.toString());
+			}
+			rows.add(fields);
+		}
+		return rows;
+	}
+
+	/**
+	 * Parses COPY CSV format as the server does: an unquoted empty field is
+	 * NULL, and a quoted field may hold commas, quotes doubled, and newlines
+	 */
+	private static List<List<String>> parseCsv(String data) {
+		List<List<String>> rows = new ArrayList<List<String>>();
+		List<String> fields = new ArrayList<String>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false, inQuotes = false;
+
+		for (int i = 0; i < data.length(); ++i) {
+			char c = data.charAt(i);
+			if (inQuotes) {
+				if (c == '"' && i + 1 < data.length()
+						&& data.charAt(i + 1) == '"') {
+					field.append('"');
+					++i;
+				} else if (c == '"') {
+					inQuotes = false;
+				} else {
+					field.append(c);
+				}
+			} else if (c == '"') {
+				quoted = inQuotes = true;
+			} else if (c == ',' || c == '\n') {
+				String value = field.toString();
+				Assert.assertFalse("End of data marker", !quoted
+						&& fields.isEmpty() && c == '\n'
+						&& value.equals("\\."));
+
+				fields.add(value.isEmpty() && !quoted ? null : value);
+				field.setLength(0);
+				quoted = false;
+
+				if (c == '\n') {
+					rows.add(fields);
+					fields = new ArrayList<String>();
+				}
+			} else {
+				field.append(c);
+			}
+		}
+		return rows;
+	}
+
+	private String decode(HawqCopyEncoder encoder) throws Exception {
+		return new String(encoder.getData(), 0, encoder.getLength(), "UTF-8");
+	}
+}
@@ -0,0 +1,117 @@
+package com.gopivotal.mapreduce.lib.output;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.JobID;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.TaskType;
+import org.apache.hadoop.mapreduce.task.JobContextImpl;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HawqOutputCommitterTest {
+
+	private static final String JT = "1400000000000";
+
+	private Configuration conf = null;
+
+	@Before
+	public void setup() {
+		conf = new Configuration();
+	}
+
+	@Test
+	public void testAttemptTable() {
+		conf.set(HawqOutputFormat.TABLE, "sales.orders");
+
+		Assert.assertEquals("sales.orders_att_1400000000000_7_m12_3",
+				HawqOutputCommitter.getAttemptTable(conf, new TaskAttemptID(
+						JT, 7, TaskType.MAP, 12, 3)));
+		Assert.assertEquals("sales.orders_att_1400000000000_7_r0_0",
+				HawqOutputCommitter.getAttemptTable(conf, new TaskAttemptID(
+						JT, 7, TaskType.REDUCE, 0, 0)));
+	}
+
+	@Test
+	public void testTaskTable() {
+		conf.set(HawqOutputFormat.TABLE, "orders");
+
+		// every attempt of a task shares its task table
+		Assert.assertEquals("orders_stg_1400000000000_7_m12",
+				HawqOutputCommitter.getTaskTable(conf, new TaskAttemptID(JT,
+						7, TaskType.MAP, 12, 0)));
+		Assert.assertEquals("orders_stg_1400000000000_7_m12",
+				HawqOutputCommitter.getTaskTable(conf, new TaskAttemptID(JT,
+						7, TaskType.MAP, 12, 5)));
+	}
+
+	@Test
+	public void testUnqualified() {
+		Assert.assertEquals("orders",
+				HawqOutputCommitter.unqualified("sales.orders"));
+		Assert.assertEquals("orders",
+				HawqOutputCommitter.unqualified("orders"));
+	}
+
+	@Test
+	public void testFits() {
+		String name = repeat("a", HawqOutputCommitter.MAX_IDENTIFIER_LENGTH);
+
+		Assert.assertTrue(HawqOutputCommitter.fits(name));
+		Assert.assertFalse(HawqOutputCommitter.fits(name + "a"));
+
+		// the schema is not part of the identifier
+		Assert.assertTrue(HawqOutputCommitter.fits("sales." + name));
+	}
+
+	@Test
+	public void testMultibyteName() throws IOException {
+		TaskAttemptID id = new TaskAttemptID(JT, 7, TaskType.MAP, 12, 3);
+
+		// 37 bytes of name and 26 of suffix fill the identifier exactly
+		conf.set(HawqOutputFormat.TABLE, "donn\u00e9es."
+				+ repeat("\u00e9", 18) + "a");
+		HawqOutputCommitter.checkLength(HawqOutputCommitter.getAttemptTable(
+				conf, id));
+
+		// one byte more is too long, though it is far fewer characters
+		conf.set(HawqOutputFormat.TABLE, "donn\u00e9es."
+				+ repeat("\u00e9", 19));
+		String table = HawqOutputCommitter.getAttemptTable(conf, id);
+		Assert.assertTrue(HawqOutputCommitter.unqualified(table).length()
+				< HawqOutputCommitter.MAX_IDENTIFIER_LENGTH);
+
+		try {
+			HawqOutputCommitter.checkLength(table);
+			Assert.fail("Name longer than the identifier limit was accepted");
+		} catch (IOException e) {
+		}
+	}
+
+	@Test
+	public void testSetupJobLeavesRoomForAttempts() throws IOException {
+		JobID job = new JobID(JT, 7);
+
+		// 36 bytes of name fit with a three-digit attempt ID
+		conf.set(HawqOutputFormat.TABLE, repeat("a", 36));
+		new HawqOutputCommitter().setupJob(new JobContextImpl(conf, job));
+
+		// 37 bytes only fit while the attempt ID is below 100
+		conf.set(HawqOutputFormat.TABLE, repeat("a", 37));
+		try {
+			new HawqOutputCommitter().setupJob(new JobContextImpl(conf, job));
+			Assert.fail("Job was set up without room for more attempts");
+		} catch (IOException e) {
+		}
+	}
+
+	private static String repeat(String s, int count) {
+		StringBuilder bldr = new StringBuilder();
+		for (int i = 0; i < count; ++i) {
+			bldr.append(s);
+		}
+		return bldr.toString();
+	}
+}
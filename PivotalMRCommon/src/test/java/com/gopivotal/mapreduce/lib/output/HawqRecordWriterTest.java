@@ -0,0 +1,196 @@
+package com.gopivotal.mapreduce.lib.output;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.gopivotal.mapreduce.lib.output.HawqOutputFormat.HawqRecordWriter;
+
+public class HawqRecordWriterTest {
+
+	private Configuration conf = null;
+	private Connection client = null;
+
+	// calls made on the connection, in order
+	private List<String> calls = Collections
+			.synchronizedList(new ArrayList<String>());
+
+	// each executed batch takes a permit, so batches block until released
+	private Semaphore permits = new Semaphore(Integer.MAX_VALUE);
+	private AtomicInteger executed = new AtomicInteger();
+	private volatile boolean failBatches = false;
+
+	@Before
+	public void setup() {
+		conf = new Configuration();
+		conf.set(HawqOutputFormat.TABLE, "t");
+		conf.set(HawqOutputFormat.TYPES, String.valueOf(Types.VARCHAR));
+		conf.setInt(HawqOutputFormat.BATCH_ROWS, 1);
+		conf.set("mapreduce.task.attempt.id", "attempt_1_0001_m_000000_0");
+
+		final InvocationHandler statement = new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args)
+					throws Throwable {
+				if (method.getName().equals("executeBatch")) {
+					permits.acquire();
+					if (failBatches) {
+						throw new SQLException("Batch failed");
+					}
+
+					executed.incrementAndGet();
+					return new int[] { 1 };
+				}
+
+				return null;
+			}
+		};
+
+		client = (Connection) Proxy.newProxyInstance(getClass()
+				.getClassLoader(), new Class<?>[] { Connection.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) {
+						String name = method.getName();
+						if (name.equals("prepareStatement")) {
+							return Proxy.newProxyInstance(getClass()
+									.getClassLoader(),
+									new Class<?>[] { PreparedStatement.class },
+									statement);
+						} else if (name.equals("isClosed")) {
+							return false;
+						}
+
+						calls.add(name);
+						return null;
+					}
+				});
+	}
+
+	private HawqRecordWriter newWriter(int asyncBatches) {
+		conf.setInt(HawqOutputFormat.ASYNC_BATCHES, asyncBatches);
+
+		return new HawqRecordWriter(conf) {
+			@Override
+			Connection connect() {
+				return client;
+			}
+		};
+	}
+
+	@Test
+	public void testBackPressure() throws Exception {
+		final HawqRecordWriter writer = newWriter(2);
+		permits.drainPermits();
+
+		// two batches may be in flight without blocking the task
+		writer.write(new Text("a"), null);
+		writer.write(new Text("b"), null);
+
+		final List<Throwable> errors = new ArrayList<Throwable>();
+		Thread third = new Thread() {
+			@Override
+			public void run() {
+				try {
+					writer.write(new Text("c"), null);
+				} catch (Throwable t) {
+					errors.add(t);
+				}
+			}
+		};
+		third.start();
+
+		// the third batch waits for the oldest to finish
+		third.join(500);
+		Assert.assertTrue("Write did not wait for a batch", third.isAlive());
+		Assert.assertEquals(0, executed.get());
+
+		permits.release();
+		third.join(5000);
+		Assert.assertFalse("Write still waiting", third.isAlive());
+		Assert.assertTrue(errors.isEmpty());
+
+		permits.release(Integer.MAX_VALUE / 2);
+		writer.close(null);
+
+		Assert.assertEquals(3, executed.get());
+		Assert.assertTrue(calls.contains("commit"));
+		Assert.assertFalse(calls.contains("rollback"));
+	}
+
+	@Test
+	public void testFailureSurfacesOnWrite() throws Exception {
+		HawqRecordWriter writer = newWriter(1);
+		failBatches = true;
+
+		// the first batch fails in the background
+		writer.write(new Text("a"), null);
+
+		try {
+			// waiting for room for the second batch reports the failure
+			writer.write(new Text("b"), null);
+			Assert.fail("Failed batch was not reported");
+		} catch (IOException e) {
+			Assert.assertTrue(e.getCause() instanceof SQLException);
+		}
+
+		try {
+			writer.close(null);
+			Assert.fail("Failed writer was committed");
+		} catch (IOException e) {
+		}
+
+		Assert.assertFalse(calls.contains("commit"));
+		Assert.assertTrue(calls.contains("rollback"));
+	}
+
+	@Test
+	public void testFailureSurfacesOnClose() throws Exception {
+		HawqRecordWriter writer = newWriter(1);
+		failBatches = true;
+
+		writer.write(new Text("a"), null);
+
+		try {
+			writer.close(null);
+			Assert.fail("Failed batch was not reported");
+		} catch (IOException e) {
+			Assert.assertTrue(e.getCause() instanceof SQLException);
+		}
+
+		Assert.assertFalse(calls.contains("commit"));
+		Assert.assertTrue(calls.contains("rollback"));
+	}
+
+	@Test
+	public void testSynchronousBatches() throws Exception {
+		HawqRecordWriter writer = newWriter(0);
+
+		writer.write(new Text("a"), null);
+		Assert.assertEquals(1, executed.get());
+
+		writer.write(new Text("b"), null);
+		writer.close(null);
+
+		Assert.assertEquals(2, executed.get());
+		Assert.assertEquals("commit", calls.get(calls.size() - 2));
+		Assert.assertEquals("close", calls.get(calls.size() - 1));
+	}
+}
@@ -0,0 +1,79 @@
+package com.gopivotal.mapreduce.lib.output;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HawqRejectHandlerTest {
+
+	private File dir = null;
+	private Configuration conf = null;
+
+	@Before
+	public void setup() throws IOException {
+		dir = File.createTempFile("hawq-rejects", "");
+		dir.delete();
+
+		conf = new Configuration();
+		conf.set(HawqOutputFormat.REJECT_DIR, dir.toURI().toString());
+		conf.set("mapreduce.task.attempt.id", "attempt_1_0001_m_000000_0");
+	}
+
+	@After
+	public void cleanup() {
+		if (dir.exists()) {
+			for (File f : dir.listFiles()) {
+				f.delete();
+			}
+			dir.delete();
+		}
+	}
+
+	@Test
+	public void testRejectsUpToTheLimit() throws IOException {
+		conf.setInt(HawqOutputFormat.REJECT_LIMIT, 2);
+		HawqRejectHandler rejects = new HawqRejectHandler(conf);
+		Assert.assertTrue(rejects.isEnabled());
+
+		rejects.reject(new Text("a|b"), "Expected 3 columns");
+		rejects.reject(new Text("x|y|z"), "java.lang.NumberFormatException:\tx");
+
+		try {
+			rejects.reject(new Text("c"), "Expected 3 columns");
+			Assert.fail("Reject limit was not enforced");
+		} catch (IOException e) {
+		}
+
+		rejects.close();
+		Assert.assertEquals(3, rejects.getRejected());
+
+		BufferedReader rdr = new BufferedReader(new FileReader(new File(dir,
+				"attempt_1_0001_m_000000_0")));
+		Assert.assertEquals("Expected 3 columns\ta|b", rdr.readLine());
+		Assert.assertEquals("java.lang.NumberFormatException: x\tx|y|z",
+				rdr.readLine());
+		Assert.assertEquals("Expected 3 columns\tc", rdr.readLine());
+		Assert.assertNull(rdr.readLine());
+		rdr.close();
+	}
+
+	@Test
+	public void testDisabled() throws IOException {
+		HawqRejectHandler rejects = new HawqRejectHandler(conf);
+		Assert.assertFalse(rejects.isEnabled());
+
+		rejects.reject(new Text("a|b"), "Expected 3 columns");
+		rejects.close();
+
+		Assert.assertEquals(0, rejects.getRejected());
+		Assert.assertFalse(dir.exists());
+	}
+}
@@ -0,0 +1,99 @@
+package com.gopivotal.mapreduce.lib.output;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+
+import org.apache.hadoop.io.Text;
+
+/**
+ * Compares the rows per second of the {@link HawqRowConverter} against
+ * splitting each row with a regular expression and switching on the column
+ * types, as the {@link HawqOutputFormat} used to. The statement discards its
+ * parameters, so only the conversion is measured.<br>
+ * <br>
+ * Usage: HawqRowConverterBenchmark [rows] [rounds]
+ */
+public class HawqRowConverterBenchmark {
+
+	private static final Integer[] TYPES = new Integer[] { Types.INTEGER,
+			Types.BIGINT, Types.VARCHAR, Types.NUMERIC, Types.DATE,
+			Types.TIMESTAMP };
+
+	public static void main(String[] args) throws Exception {
+		int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		Text[] data = new Text[1024];
+		for (int i = 0; i < data.length; ++i) {
+			data[i] = new Text(i + "|" + (i * 1000000007L) + "|name-" + i + "|"
+					+ i + ".25|2014-03-" + (10 + i % 18) + "|2014-03-09 12:"
+					+ (10 + i % 50) + ":56.125");
+		}
+
+		PreparedStatement stmt = (PreparedStatement) Proxy.newProxyInstance(
+				HawqRowConverterBenchmark.class.getClassLoader(),
+				new Class<?>[] { PreparedStatement.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) {
+						return null;
+					}
+				});
+
+		HawqRowConverter converter = new HawqRowConverter("\\|", TYPES);
+
+		for (int round = 0; round < rounds; ++round) {
+			long start = System.nanoTime();
+			for (int i = 0; i < rows; ++i) {
+				split(data[i & 1023], "\\|", stmt);
+			}
+			report("split", rows, System.nanoTime() - start);
+
+			start = System.nanoTime();
+			for (int i = 0; i < rows; ++i) {
+				converter.convert(data[i & 1023], stmt);
+			}
+			report("converter", rows, System.nanoTime() - start);
+		}
+	}
+
+	private static void split(Text key, String delimiter, PreparedStatement stmt)
+			throws SQLException {
+		String[] tokens = key.toString().split(delimiter);
+		for (int i = 1; i <= tokens.length; ++i) {
+			switch (TYPES[i - 1]) {
+			case Types.VARCHAR:
+				stmt.setString(i, tokens[i - 1]);
+				break;
+			case Types.NUMERIC:
+				stmt.setBigDecimal(i, new BigDecimal(tokens[i - 1]));
+				break;
+			case Types.INTEGER:
+				stmt.setInt(i, Integer.parseInt(tokens[i - 1]));
+				break;
+			case Types.BIGINT:
+				stmt.setLong(i, Long.parseLong(tokens[i - 1]));
+				break;
+			case Types.DATE:
+				stmt.setDate(i, Date.valueOf(tokens[i - 1]));
+				break;
+			case Types.TIMESTAMP:
+				stmt.setTimestamp(i, Timestamp.valueOf(tokens[i - 1]));
+				break;
+			}
+		}
+	}
+
+	private static void report(String name, int rows, long nanos) {
+		System.out.println(String.format("%-10s %,12.0f rows/sec", name, rows
+				/ (nanos / 1e9)));
+	}
+}
@@ -0,0 +1,154 @@
+package com.gopivotal.mapreduce.lib.output;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.io.Text;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HawqRowConverterTest {
+
+	private Map<Integer, Object> params = new HashMap<Integer, Object>();
+	private PreparedStatement stmt = null;
+
+	@Before
+	public void setup() {
+		stmt = (PreparedStatement) Proxy.newProxyInstance(getClass()
+				.getClassLoader(), new Class<?>[] { PreparedStatement.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) {
+						params.put((Integer) args[0], args[1]);
+						return null;
+					}
+				});
+	}
+
+	@Test
+	public void testTypes() throws Exception {
+		HawqRowConverter converter = new HawqRowConverter("\\|", new Integer[] {
+				Types.VARCHAR, Types.INTEGER, Types.BIGINT, Types.NUMERIC,
+				Types.DATE, Types.TIMESTAMP, Types.SMALLINT });
+
+		Assert.assertTrue(converter.convert(new Text("caf\u00e9|-42|9000000000"
+				+ "|12.50|2014-03-09|2014-03-09 12:34:56.5|7"), stmt));
+
+		Assert.assertEquals("caf\u00e9", params.get(1));
+		Assert.assertEquals(-42, params.get(2));
+		Assert.assertEquals(9000000000L, params.get(3));
+		Assert.assertEquals(new BigDecimal("12.50"), params.get(4));
+		Assert.assertEquals(Date.valueOf("2014-03-09"), params.get(5));
+		Assert.assertEquals(Timestamp.valueOf("2014-03-09 12:34:56.5"),
+				params.get(6));
+		Assert.assertEquals((short) 7, params.get(7));
+	}
+
+	@Test
+	public void testWrongNumberOfColumns() throws Exception {
+		HawqRowConverter converter = new HawqRowConverter("\\|", new Integer[] {
+				Types.VARCHAR, Types.VARCHAR });
+
+		Assert.assertFalse(converter.convert(new Text("a|b|c"), stmt));
+		Assert.assertFalse(converter.convert(new Text("a"), stmt));
+
+		// trailing empty fields are dropped, like String.split
+		Assert.assertFalse(converter.convert(new Text("a|"), stmt));
+		Assert.assertTrue(converter.convert(new Text("a|b||"), stmt));
+		Assert.assertEquals("b", params.get(2));
+
+		// but leading and inner ones are kept
+		Assert.assertTrue(converter.convert(new Text("|b"), stmt));
+		Assert.assertEquals("", params.get(1));
+	}
+
+	@Test
+	public void testRegexDelimiter() throws Exception {
+		HawqRowConverter converter = new HawqRowConverter("\\s*;\\s*",
+				new Integer[] { Types.INTEGER, Types.DATE });
+
+		Assert.assertTrue(converter.convert(new Text("1 ; 2014-3-9"), stmt));
+		Assert.assertEquals(1, params.get(1));
+		Assert.assertEquals(Date.valueOf("2014-3-9"), params.get(2));
+	}
+
+	@Test
+	public void testInputFields() throws Exception {
+		HawqRowConverter converter = new HawqRowConverter("\\|", new Integer[] {
+				Types.INTEGER, Types.VARCHAR }, new int[] { 3, 1 });
+
+		Assert.assertTrue(converter.convert(new Text("a|b|c|4|e"), stmt));
+		Assert.assertEquals(4, params.get(1));
+		Assert.assertEquals("b", params.get(2));
+
+		// trailing empty fields are kept, but short rows are not
+		Assert.assertTrue(converter.convert(new Text("a||c|4"), stmt));
+		Assert.assertEquals("", params.get(2));
+		Assert.assertFalse(converter.convert(new Text("a|b|c"), stmt));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeInputField() {
+		new HawqRowConverter("\\|", new Integer[] { Types.INTEGER,
+				Types.VARCHAR }, new int[] { 0, -1 });
+	}
+
+	@Test
+	public void testParseIntegers() {
+		Assert.assertEquals(Integer.MAX_VALUE, parseInt("2147483647"));
+		Assert.assertEquals(Integer.MIN_VALUE, parseInt("-2147483648"));
+		Assert.assertEquals(5, parseInt("+5"));
+		Assert.assertEquals(Long.MIN_VALUE, HawqRowConverter.parseLong(
+				bytes("-9223372036854775808"), 0, 20));
+
+		for (String bad : new String[] { "", "-", "2147483648", "1.0", "x" }) {
+			try {
+				parseInt(bad);
+				Assert.fail(bad);
+			} catch (NumberFormatException e) {
+			}
+		}
+	}
+
+	@Test
+	public void testParseDates() {
+		for (String s : new String[] { "2014-03-09", "1999-12-31", "2014-3-9" }) {
+			Assert.assertEquals(Date.valueOf(s),
+					HawqRowConverter.parseDate(bytes(s), 0, s.length()));
+		}
+
+		for (String s : new String[] { "2014-03-09 00:00:00",
+				"2014-03-09 23:59:59.123456789", "2014-03-09 01:02:03.04",
+				"2014-3-9 1:2:3" }) {
+			Assert.assertEquals(Timestamp.valueOf(s),
+					HawqRowConverter.parseTimestamp(bytes(s), 0, s.length()));
+		}
+
+		for (String bad : new String[] { "2014-13-09", "2014-00-01",
+				"20140309" }) {
+			try {
+				HawqRowConverter.parseDate(bytes(bad), 0, bad.length());
+				Assert.fail(bad);
+			} catch (IllegalArgumentException e) {
+			}
+		}
+	}
+
+	private int parseInt(String s) {
+		return HawqRowConverter.parseInt(bytes(s), 0, s.length());
+	}
+
+	private byte[] bytes(String s) {
+		return s.getBytes();
+	}
+}
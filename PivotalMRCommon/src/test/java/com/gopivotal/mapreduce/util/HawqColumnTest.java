@@ -0,0 +1,38 @@
+package com.gopivotal.mapreduce.util;
+
+import java.sql.Types;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HawqColumnTest {
+
+	@Test
+	public void testEncodeDecode() {
+		HawqColumn[] columns = new HawqColumn[] {
+				new HawqColumn("id", Types.INTEGER, "int4", 10, 0, false),
+				new HawqColumn("price", Types.NUMERIC, "numeric", 12, 2, true),
+				new HawqColumn("odd:name,\\", Types.VARCHAR, "varchar", 64, 0,
+						true) };
+
+		HawqColumn[] decoded = HawqColumn.decode(HawqColumn.encode(columns));
+		Assert.assertEquals(columns.length, decoded.length);
+
+		for (int i = 0; i < columns.length; ++i) {
+			Assert.assertEquals(columns[i].getName(), decoded[i].getName());
+			Assert.assertEquals(columns[i].getType(), decoded[i].getType());
+			Assert.assertEquals(columns[i].getTypeName(),
+					decoded[i].getTypeName());
+			Assert.assertEquals(columns[i].getPrecision(),
+					decoded[i].getPrecision());
+			Assert.assertEquals(columns[i].getScale(), decoded[i].getScale());
+			Assert.assertEquals(columns[i].isNullable(),
+					decoded[i].isNullable());
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalid() {
+		HawqColumn.decode("id:4:int4");
+	}
+}
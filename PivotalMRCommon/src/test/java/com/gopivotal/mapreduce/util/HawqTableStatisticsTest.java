@@ -0,0 +1,32 @@
+package com.gopivotal.mapreduce.util;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.gopivotal.mapreduce.util.HawqTableStatistics.ColumnStatistics;
+
+public class HawqTableStatisticsTest {
+
+	@Test
+	public void testExtremeCandidates() {
+		// the histogram leaves out the common values, which may be extremes
+		ColumnStatistics column = new ColumnStatistics("id", 0, 10,
+				new String[] { "3", "5", "7" }, new String[] { "1", "9", "4" });
+
+		Assert.assertEquals(Arrays.asList("1", "9", "4", "3", "7"),
+				Arrays.asList(column.getExtremeCandidates()));
+	}
+
+	@Test
+	public void testExtremeCandidatesWithoutHistogram() {
+		ColumnStatistics column = new ColumnStatistics("flag", 0, 2, null,
+				new String[] { "t", "f" });
+
+		Assert.assertEquals(Arrays.asList("t", "f"),
+				Arrays.asList(column.getExtremeCandidates()));
+		Assert.assertEquals(0, new ColumnStatistics("empty", 1, -1, null,
+				null).getExtremeCandidates().length);
+	}
+}
@@ -0,0 +1,42 @@
+package com.gopivotal.mapreduce.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HawqUtilTest {
+
+	@Test
+	public void testParseArray() {
+		String[] elements = HawqUtil.parseArray("{1,5,9}");
+		Assert.assertEquals(3, elements.length);
+		Assert.assertEquals("1", elements[0]);
+		Assert.assertEquals("9", elements[2]);
+
+		elements = HawqUtil.parseArray("{\"a, b\",NULL,\"NULL\",\"q\\\"t\"}");
+		Assert.assertEquals(4, elements.length);
+		Assert.assertEquals("a, b", elements[0]);
+		Assert.assertNull(elements[1]);
+		Assert.assertEquals("NULL", elements[2]);
+		Assert.assertEquals("q\"t", elements[3]);
+
+		elements = HawqUtil
+				.parseArray("{\"2014-04-10 00:00:00\",\"2014-04-11 00:00:00\"}");
+		Assert.assertEquals("2014-04-10 00:00:00", elements[0]);
+	}
+
+	@Test
+	public void testParseEmptyArray() {
+		Assert.assertEquals(0, HawqUtil.parseArray("{}").length);
+		Assert.assertNull(HawqUtil.parseArray(null));
+		Assert.assertNull(HawqUtil.parseArray("1,2"));
+	}
+
+	@Test
+	public void testEscapePattern() {
+		Assert.assertEquals("a\\_b", HawqUtil.escapePattern("a_b", "\\"));
+		Assert.assertEquals("100\\%\\\\x",
+				HawqUtil.escapePattern("100%\\x", "\\"));
+		Assert.assertEquals("plain", HawqUtil.escapePattern("plain", "\\"));
+		Assert.assertEquals("a_b", HawqUtil.escapePattern("a_b", ""));
+	}
+}
@@ -0,0 +1,230 @@
+package com.gopivotal.pig;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.Date;
+
+import org.apache.pig.Expression;
+import org.apache.pig.Expression.BinaryExpression;
+import org.apache.pig.Expression.Column;
+import org.apache.pig.Expression.Const;
+import org.apache.pig.Expression.OpType;
+import org.apache.pig.Expression.UnaryExpression;
+import org.joda.time.DateTime;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.gopivotal.mapreduce.util.HawqPartition;
+
+public class HawqFilterTest {
+
+	private static final String[] FIELDS = new String[] { "id", "dt",
+			"region" };
+
+	private static Expression compare(String column, OpType op, Object value) {
+		return new BinaryExpression(new Column(column), new Const(value), op);
+	}
+
+	private static HawqFilter.Row row(final Object... values) {
+		return new HawqFilter.Row() {
+			@Override
+			public Object get(int field) {
+				return values[field];
+			}
+		};
+	}
+
+	@Test
+	public void testEval() throws IOException {
+		// id >= 10 and id < 20L, mixing integer types
+		HawqFilter filter = HawqFilter.compile(new BinaryExpression(compare(
+				"id", OpType.OP_GE, 10), compare("id", OpType.OP_LT, 20L),
+				OpType.OP_AND), FIELDS);
+
+		Assert.assertEquals(true, filter.eval(row(10, null, null)));
+		Assert.assertEquals(true, filter.eval(row(19L, null, null)));
+		Assert.assertEquals(false, filter.eval(row(20, null, null)));
+		Assert.assertEquals(false, filter.eval(row(9, null, null)));
+		Assert.assertNull(filter.eval(row(null, null, null)));
+	}
+
+	@Test
+	public void testEvalConstantFirst() throws IOException {
+		// 'us' < region is region > 'us'
+		HawqFilter filter = HawqFilter.compile(new BinaryExpression(
+				new Const("us"), new Column("region"), OpType.OP_LT), FIELDS);
+
+		Assert.assertEquals(true, filter.eval(row(null, null, "uz")));
+		Assert.assertEquals(false, filter.eval(row(null, null, "us")));
+	}
+
+	@Test
+	public void testEvalOr() throws IOException {
+		HawqFilter filter = HawqFilter.compile(new BinaryExpression(compare(
+				"region", OpType.OP_EQ, "us"), compare("id", OpType.OP_EQ, 1),
+				OpType.OP_OR), FIELDS);
+
+		Assert.assertEquals(true, filter.eval(row(null, null, "us")));
+		Assert.assertEquals(true, filter.eval(row(1, null, "eu")));
+		Assert.assertEquals(false, filter.eval(row(2, null, "eu")));
+		Assert.assertNull(filter.eval(row(null, null, "eu")));
+	}
+
+	@Test
+	public void testRangePartitions() throws IOException {
+		long day = 24L * 60 * 60 * 1000;
+		long start = 1397088000000L;
+
+		// dt == start + 1 day
+		HawqFilter filter = HawqFilter.compile(
+				compare("dt", OpType.OP_EQ, new DateTime(start + day)), FIELDS);
+
+		// [start, start + 1 day), [start + 1 day, start + 2 days), default
+		HawqPartition first = new HawqPartition("s.t_1_prt_1", false,
+				new Date(start), true, new Date(start + day), false, null);
+		HawqPartition second = new HawqPartition("s.t_1_prt_2", false,
+				new Date(start + day), true, new Date(start + 2 * day), false,
+				null);
+		HawqPartition other = new HawqPartition("s.t_1_prt_other", true,
+				null, false, null, false, null);
+
+		Assert.assertFalse(filter.mayMatch(1, first));
+		Assert.assertTrue(filter.mayMatch(1, second));
+		Assert.assertTrue(filter.mayMatch(1, other));
+
+		// dt < start + 1 day
+		filter = HawqFilter.compile(
+				compare("dt", OpType.OP_LT, new DateTime(start + day)), FIELDS);
+
+		Assert.assertTrue(filter.mayMatch(1, first));
+		Assert.assertFalse(filter.mayMatch(1, second));
+
+		// Comparisons of other fields do not rule partitions out
+		filter = HawqFilter.compile(compare("id", OpType.OP_EQ, 1), FIELDS);
+
+		Assert.assertTrue(filter.mayMatch(1, first));
+	}
+
+	@Test
+	public void testListPartitions() throws IOException {
+		HawqFilter filter = HawqFilter.compile(
+				compare("region", OpType.OP_EQ, "us"), FIELDS);
+
+		HawqPartition americas = new HawqPartition("s.t_1_prt_am", false,
+				null, false, null, false, new Object[] { "ca", "us" });
+		HawqPartition europe = new HawqPartition("s.t_1_prt_eu", false, null,
+				false, null, false, new Object[] { "de", "fr" });
+
+		Assert.assertTrue(filter.mayMatch(2, americas));
+		Assert.assertFalse(filter.mayMatch(2, europe));
+	}
+
+	@Test
+	public void testDateKey() throws IOException {
+		long day = 24L * 60 * 60 * 1000;
+		long start = 1397088000000L;
+
+		// dt is not null and not (dt < ToDate(start + 1 day))
+		Expression notNull = new UnaryExpression(new UnaryExpression(
+				new Column("dt"), OpType.OP_NULL), OpType.OP_NOT);
+		Expression notBefore = new UnaryExpression(compare("dt",
+				OpType.OP_LT, new DateTime(start + day)), OpType.OP_NOT);
+		HawqFilter filter = HawqFilter.compile(new BinaryExpression(notNull,
+				notBefore, OpType.OP_AND), FIELDS);
+
+		Assert.assertEquals(true,
+				filter.eval(row(null, new DateTime(start + day), null)));
+		Assert.assertEquals(false,
+				filter.eval(row(null, new DateTime(start), null)));
+		Assert.assertEquals(false, filter.eval(row(null, null, null)));
+
+		HawqPartition first = new HawqPartition("s.t_1_prt_1", false,
+				new Date(start), true, new Date(start + day), false, null);
+		HawqPartition second = new HawqPartition("s.t_1_prt_2", false,
+				new Date(start + day), true, new Date(start + 2 * day), false,
+				null);
+
+		Assert.assertFalse(filter.mayMatch(1, first));
+		Assert.assertTrue(filter.mayMatch(1, second));
+
+		// null keys are only in the default partition
+		filter = HawqFilter.compile(new UnaryExpression(new Column("dt"),
+				OpType.OP_NULL), FIELDS);
+		Assert.assertFalse(filter.mayMatch(1, first));
+		Assert.assertTrue(filter.mayMatch(1, new HawqPartition(
+				"s.t_1_prt_other", true, null, false, null, false, null)));
+	}
+
+	@Test
+	public void testMatch() throws IOException {
+		HawqFilter filter = HawqFilter.compile(new BinaryExpression(
+				new Column("region"), new Const("u.*"), OpType.OP_MATCH),
+				FIELDS);
+
+		Assert.assertEquals(true, filter.eval(row(null, null, "us")));
+		Assert.assertEquals(false, filter.eval(row(null, null, "eu")));
+		Assert.assertEquals(false, filter.eval(row(null, null, "aus")));
+		Assert.assertNull(filter.eval(row(null, null, null)));
+
+		HawqPartition americas = new HawqPartition("s.t_1_prt_am", false,
+				null, false, null, false, new Object[] { "ca", "us" });
+		HawqPartition europe = new HawqPartition("s.t_1_prt_eu", false, null,
+				false, null, false, new Object[] { "de", "fr" });
+
+		Assert.assertTrue(filter.mayMatch(2, americas));
+		Assert.assertFalse(filter.mayMatch(2, europe));
+
+		// not matches, or another field that is unknown for the partition
+		filter = HawqFilter.compile(new BinaryExpression(new UnaryExpression(
+				new BinaryExpression(new Column("region"), new Const("e.*"),
+						OpType.OP_MATCH), OpType.OP_NOT), new UnaryExpression(
+				new UnaryExpression(new Column("id"), OpType.OP_NULL),
+				OpType.OP_NOT), OpType.OP_OR), FIELDS);
+
+		Assert.assertEquals(true, filter.eval(row(null, null, "us")));
+		Assert.assertEquals(true, filter.eval(row(1, null, "eu")));
+		Assert.assertEquals(false, filter.eval(row(null, null, "eu")));
+		Assert.assertTrue(filter.mayMatch(2, americas));
+		Assert.assertTrue(filter.mayMatch(2, europe));
+	}
+
+	@Test
+	public void testArithmetic() throws IOException {
+		// id % 2 == 0
+		HawqFilter filter = HawqFilter.compile(new BinaryExpression(
+				new BinaryExpression(new Column("id"), new Const(2),
+						OpType.OP_MOD), new Const(0), OpType.OP_EQ), FIELDS);
+
+		Assert.assertEquals(true, filter.eval(row(4, null, null)));
+		Assert.assertEquals(false, filter.eval(row(5L, null, null)));
+		Assert.assertNull(filter.eval(row(null, null, null)));
+	}
+
+	@Test
+	public void testCompareNumbers() {
+		Assert.assertEquals(0, (int) HawqFilter.compare(3, 3L));
+		Assert.assertEquals(-1, (int) HawqFilter.compare(2.5, 3));
+		Assert.assertEquals(0, (int) HawqFilter.compare(0.1f, 0.1));
+		Assert.assertEquals(0, (int) HawqFilter.compare(0.0, -0.0));
+		Assert.assertEquals(0,
+				(int) HawqFilter.compare(new BigDecimal("1.50"), 1.5));
+
+		// NaN is above every other value, as in HAWQ
+		Assert.assertEquals(0, (int) HawqFilter.compare(Double.NaN,
+				Double.NaN));
+		Assert.assertEquals(1, (int) HawqFilter.compare(Float.NaN, 1));
+		Assert.assertEquals(-1, (int) HawqFilter.compare(1.0,
+				Double.POSITIVE_INFINITY));
+	}
+
+	@Test(expected = IOException.class)
+	public void testUnsupported() throws IOException {
+		HawqFilter.compile(new BinaryExpression(new Column("id"), new Const(
+				1), OpType.OP_PLUS), FIELDS);
+	}
+
+	@Test(expected = IOException.class)
+	public void testUnknownField() throws IOException {
+		HawqFilter.compile(compare("missing", OpType.OP_EQ, 1), FIELDS);
+	}
+}
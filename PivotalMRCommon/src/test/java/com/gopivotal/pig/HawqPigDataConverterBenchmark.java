@@ -0,0 +1,158 @@
+package com.gopivotal.pig;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+
+import com.pivotal.hawq.mapreduce.HAWQRecord;
+import com.pivotal.hawq.mapreduce.ao.io.HAWQAORecord;
+import com.pivotal.hawq.mapreduce.schema.HAWQField;
+import com.pivotal.hawq.mapreduce.schema.HAWQPrimitiveField;
+import com.pivotal.hawq.mapreduce.schema.HAWQPrimitiveField.PrimitiveType;
+import com.pivotal.hawq.mapreduce.schema.HAWQSchema;
+
+/**
+ * Measures the fields per second converted by a shared
+ * {@link HawqPigDataConverter} as threads are added, on a 64 column AO record.
+ * Each thread converts its own record into a tuple. The "locked" runs call the
+ * static methods under one monitor per field, as they used to be, the
+ * "static" runs call them without it, and the "compiled" runs use the
+ * converter's per-column plan.<br>
+ * <br>
+ * Usage: HawqPigDataConverterBenchmark [rows per thread] [max threads]
+ */
+public class HawqPigDataConverterBenchmark {
+
+	private static final PrimitiveType[] TYPES = new PrimitiveType[] {
+			PrimitiveType.INT4, PrimitiveType.INT8, PrimitiveType.TEXT,
+			PrimitiveType.FLOAT8, PrimitiveType.NUMERIC, PrimitiveType.DATE,
+			PrimitiveType.TIMESTAMP, PrimitiveType.BOOL };
+
+	private static final int COLUMNS = 64;
+
+	private static final Object LOCK = new Object();
+	private static final TupleFactory TF = TupleFactory.getInstance();
+
+	private enum Mode {
+		LOCKED, STATIC, COMPILED
+	}
+
+	public static void main(String[] args) throws Exception {
+		int rows = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime
+				.getRuntime().availableProcessors();
+
+		HAWQField[] fields = new HAWQField[COLUMNS];
+		for (int i = 0; i < COLUMNS; ++i) {
+			fields[i] = new HAWQPrimitiveField(false, "c" + i, TYPES[i
+					% TYPES.length], false);
+		}
+
+		HAWQSchema schema = new HAWQSchema("wide", fields);
+		HawqPigDataConverter converter = new HawqPigDataConverter(schema);
+
+		for (int threads = 1; threads <= maxThreads; threads *= 2) {
+			for (Mode mode : Mode.values()) {
+				report(mode.name().toLowerCase(), threads, rows,
+						run(schema, converter, threads, rows, mode));
+			}
+		}
+	}
+
+	private static long run(HAWQSchema schema,
+			final HawqPigDataConverter converter, int threads, final int rows,
+			final Mode mode) throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+			for (int t = 0; t < threads; ++t) {
+				final HAWQRecord record = newRecord(schema);
+				tasks.add(new Callable<Object>() {
+					@Override
+					public Object call() throws Exception {
+						Tuple last = null;
+						for (int r = 0; r < rows; ++r) {
+							if (mode == Mode.COMPILED) {
+								last = converter.toTuple(record);
+								continue;
+							}
+
+							last = TF.newTuple(COLUMNS);
+							for (int i = 1; i <= COLUMNS; ++i) {
+								if (mode == Mode.LOCKED) {
+									synchronized (LOCK) {
+										last.set(i - 1, HawqPigDataConverter
+												.toPigValue(record, i));
+									}
+								} else {
+									last.set(i - 1, HawqPigDataConverter
+											.toPigValue(record, i));
+								}
+							}
+						}
+						return last;
+					}
+				});
+			}
+
+			long start = System.nanoTime();
+			for (Future<Object> f : pool.invokeAll(tasks)) {
+				f.get();
+			}
+			return System.nanoTime() - start;
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private static HAWQRecord newRecord(HAWQSchema schema) throws Exception {
+		HAWQRecord record = new HAWQAORecord(schema, "UTF-8", "version");
+		for (int i = 1; i <= COLUMNS; ++i) {
+			switch (TYPES[(i - 1) % TYPES.length]) {
+			case INT4:
+				record.setInt(i, i);
+				break;
+			case INT8:
+				record.setLong(i, i * 1000000007L);
+				break;
+			case TEXT:
+				record.setString(i, "name-" + i);
+				break;
+			case FLOAT8:
+				record.setDouble(i, i + 0.25);
+				break;
+			case NUMERIC:
+				record.setBigDecimal(i, new BigDecimal(i + ".25"));
+				break;
+			case DATE:
+				record.setDate(i, new Date(1397088000000L));
+				break;
+			case TIMESTAMP:
+				record.setTimestamp(i, new Timestamp(1397088000000L));
+				break;
+			case BOOL:
+				record.setBoolean(i, i % 2 == 0);
+				break;
+			default:
+				break;
+			}
+		}
+
+		return record;
+	}
+
+	private static void report(String name, int threads, int rows, long nanos) {
+		double fields = (double) threads * rows * COLUMNS;
+		System.out.println(String.format("%-10s %2d threads %,14.0f fields/sec",
+				name, threads, fields / (nanos / 1e9)));
+	}
+}
@@ -893,6 +893,76 @@ public class HawqPigDataConverterTest {
 				HawqPigDataConverter.toPigValue(record, 1));
 	}
 
+	@Test
+	public void testRecordConversion() throws Exception {
+
+		HAWQPrimitiveField id = new HAWQPrimitiveField(false, "id",
+				PrimitiveType.INT4, false);
+		HAWQPrimitiveField name = new HAWQPrimitiveField(false, "name",
+				PrimitiveType.TEXT, false);
+		HAWQPrimitiveField pt = new HAWQPrimitiveField(false, "pt",
+				PrimitiveType.POINT, false);
+
+		HAWQSchema schema = new HAWQSchema("schema", id, name, pt);
+		HAWQRecord record = new HAWQAORecord(schema, "UTF-8", "version");
+
+		record.setInt(1, 4);
+		record.setString(2, "somedata");
+		record.setPoint(3, new HAWQPoint(0.0, 1.0));
+
+		Tuple pt1 = tf.newTuple(2);
+		pt1.set(0, 0.0);
+		pt1.set(1, 1.0);
+
+		Tuple t = tf.newTuple(3);
+		t.set(0, 4);
+		t.set(1, "somedata");
+		t.set(2, pt1);
+
+		HawqPigDataConverter converter = new HawqPigDataConverter(schema);
+
+		Assert.assertEquals(3, converter.getFieldCount());
+		Assert.assertEquals(t, converter.toTuple(record));
+		Assert.assertEquals("somedata", converter.convert(record, 2));
+	}
+
+	@Test
+	public void testProjectedRecordConversion() throws Exception {
+
+		HAWQPrimitiveField id = new HAWQPrimitiveField(false, "id",
+				PrimitiveType.INT4, false);
+		HAWQPrimitiveField name = new HAWQPrimitiveField(false, "name",
+				PrimitiveType.TEXT, false);
+		HAWQPrimitiveField price = new HAWQPrimitiveField(false, "price",
+				PrimitiveType.FLOAT8, false);
+
+		HAWQSchema schema = new HAWQSchema("schema", id, name, price);
+		HAWQRecord record = new HAWQAORecord(schema, "UTF-8", "version");
+
+		record.setInt(1, 4);
+		record.setString(2, "somedata");
+		record.setDouble(3, 3.5);
+
+		Tuple t = tf.newTuple(2);
+		t.set(0, 3.5);
+		t.set(1, 4);
+
+		HawqPigDataConverter converter = new HawqPigDataConverter(schema,
+				new int[] { 2, 0 });
+
+		Assert.assertEquals(2, converter.getFieldCount());
+		Assert.assertEquals(t, converter.toTuple(record));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testProjectedFieldNotInSchema() throws Exception {
+
+		HAWQPrimitiveField id = new HAWQPrimitiveField(false, "id",
+				PrimitiveType.INT4, false);
+
+		new HawqPigDataConverter(new HAWQSchema("schema", id), new int[] { 1 });
+	}
+
 	@Test
 	public void testXmlSchemaConversion() throws FrontendException {
 